@@ -0,0 +1,233 @@
+package com.appspot.mathuzzles.risingnumbers.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.appspot.mathuzzles.risingnumbers.leaderboard.LeaderboardProtocol;
+
+/**
+ * Every player's best score in memory, ranked.
+ *
+ * Scores are added in batches under the write lock, and rankings are read
+ * under the read lock from a RankIndex. Ranking queries are kept in a least
+ * recently used cache until the next batch changes the rankings, so hot
+ * pages, e.g. the top ten, are worked out once per batch however often
+ * they're asked for.
+ */
+public class Leaderboard {
+
+	public static final int DEFAULT_CACHE_SIZE = 1024;
+
+	/**
+	 * A player's place.
+	 */
+	public static class Ranking {
+		/** From 1 */
+		public final int rank;
+		public final String playerId;
+		public final int points;
+
+		public Ranking(int rank, String playerId, int points) {
+			this.rank = rank;
+			this.playerId = playerId;
+			this.points = points;
+		}
+	}
+
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private final HashMap<String, RankIndex.Entry> best = new HashMap<String, RankIndex.Entry>();
+	private final RankIndex index = new RankIndex();
+
+	/** Changed by each batch that changes the rankings */
+	private volatile long version = 0;
+
+	private final Map<String, CachedRankings> cache;
+
+	private final AtomicLong cacheHits = new AtomicLong();
+	private final AtomicLong cacheMisses = new AtomicLong();
+
+	private static class CachedRankings {
+		final long version;
+		final List<Ranking> rankings;
+
+		CachedRankings(long version, List<Ranking> rankings) {
+			this.version = version;
+			this.rankings = rankings;
+		}
+	}
+
+	public Leaderboard() {
+		this(DEFAULT_CACHE_SIZE);
+	}
+
+	/**
+	 * @param cacheSize
+	 *            queries kept, the least recently used is evicted
+	 */
+	public Leaderboard(final int cacheSize) {
+		cache = new LinkedHashMap<String, CachedRankings>(cacheSize * 2,
+				0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<String, CachedRankings> eldest) {
+				return size() > cacheSize;
+			}
+		};
+	}
+
+	/**
+	 * Add a batch of scores. Only a player's best is kept.
+	 *
+	 * @return the scores that changed the rankings
+	 */
+	public int addAll(List<LeaderboardProtocol.Score> scores) {
+		int changed = 0;
+		lock.writeLock().lock();
+		try {
+			for (int i = 0; i < scores.size(); i++) {
+				LeaderboardProtocol.Score score = scores.get(i);
+				RankIndex.Entry entry = index.newEntry(score.playerId,
+						score.points, score.time);
+				RankIndex.Entry old = best.get(score.playerId);
+				if (old != null) {
+					if (RankIndex.compare(entry, old) >= 0) {
+						continue;
+					}
+					index.remove(old);
+				}
+				best.put(score.playerId, entry);
+				index.add(entry);
+				changed++;
+			}
+			if (changed > 0) {
+				version++;
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+		return changed;
+	}
+
+	/**
+	 * @param start
+	 *            rank to start from, from 0, less is taken as 0
+	 * @return up to count rankings from the start
+	 */
+	public List<Ranking> getTop(int start, int count) {
+		start = Math.max(0, start);
+		String key = "top:" + start + ":" + count;
+		List<Ranking> rankings = getCached(key);
+		if (rankings != null) {
+			return rankings;
+		}
+		lock.readLock().lock();
+		try {
+			rankings = getRankings(start, count);
+			putCached(key, rankings);
+		} finally {
+			lock.readLock().unlock();
+		}
+		return rankings;
+	}
+
+	/**
+	 * @return up to count rankings with the player in the middle, empty if
+	 *         the player has no score
+	 */
+	public List<Ranking> getAround(String playerId, int count) {
+		String key = "around:" + playerId + ":" + count;
+		List<Ranking> rankings = getCached(key);
+		if (rankings != null) {
+			return rankings;
+		}
+		lock.readLock().lock();
+		try {
+			RankIndex.Entry entry = best.get(playerId);
+			if (entry == null) {
+				rankings = Collections.emptyList();
+			} else {
+				int start = Math.max(0, Math.min(index.rank(entry) - count / 2,
+						index.size() - count));
+				rankings = getRankings(start, count);
+			}
+			putCached(key, rankings);
+		} finally {
+			lock.readLock().unlock();
+		}
+		return rankings;
+	}
+
+	/**
+	 * @return the player's rank from 1, or 0 if the player has no score
+	 */
+	public int getRank(String playerId) {
+		lock.readLock().lock();
+		try {
+			RankIndex.Entry entry = best.get(playerId);
+			return entry == null ? 0 : index.rank(entry) + 1;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return index.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public long getCacheHits() {
+		return cacheHits.get();
+	}
+
+	public long getCacheMisses() {
+		return cacheMisses.get();
+	}
+
+	/**
+	 * Read the rankings, under the read lock.
+	 */
+	private List<Ranking> getRankings(int start, int count) {
+		count = Math.max(0, Math.min(count, index.size() - start));
+		List<Ranking> rankings = new ArrayList<Ranking>(count);
+		for (int i = 0; i < count; i++) {
+			RankIndex.Entry entry = index.get(start + i);
+			rankings.add(new Ranking(start + i + 1, entry.playerId,
+					entry.points));
+		}
+		return Collections.unmodifiableList(rankings);
+	}
+
+	private List<Ranking> getCached(String key) {
+		CachedRankings cached;
+		synchronized (cache) {
+			cached = cache.get(key);
+		}
+		if (cached != null && cached.version == version) {
+			cacheHits.incrementAndGet();
+			return cached.rankings;
+		}
+		cacheMisses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Cache rankings read at the current version, under the read lock.
+	 */
+	private void putCached(String key, List<Ranking> rankings) {
+		synchronized (cache) {
+			cache.put(key, new CachedRankings(version, rankings));
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package com.appspot.mathuzzles.risingnumbers.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.appspot.mathuzzles.risingnumbers.leaderboard.LeaderboardProtocol;
+import com.appspot.mathuzzles.risingnumbers.metrics.Histogram;
+
+/**
+ * Measures ranking queries on a leaderboard of millions of players.
+ *
+ * Fills the leaderboard through compressed uploads, then times top pages
+ * from anywhere in the rankings and the rankings around random players,
+ * while another thread keeps uploading better scores. The uploads have no
+ * replays and are queued as if verified, ReplayVerifierBenchmark measures
+ * verifying. Most of these miss the
+ * cache. The top ten, asked for again and again, should hit it. The 99th
+ * percentile of each must be under the budget.
+ *
+ * Usage: LeaderboardBenchmark [players] [queries] [budget micros]
+ *
+ * Exits 1 if a query is over the budget.
+ */
+public class LeaderboardBenchmark {
+
+	private static final int UPLOAD_SIZE = LeaderboardProtocol.MAX_BATCH;
+	private static final int PAGE = 10;
+
+	/** Uploads a second while querying */
+	private static final int UPLOADS_PER_SECOND = 20;
+
+	public static void main(String[] args) throws Exception {
+		int players = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+		int queries = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+		long budget = args.length > 2 ? Long.parseLong(args[2]) : 1000;
+
+		long heapBefore = usedHeap();
+		final LeaderboardService service = new LeaderboardService(
+				new Leaderboard(), 100);
+		Leaderboard leaderboard = service.getLeaderboard();
+		Random random = new Random(1);
+
+		long start = System.nanoTime();
+		for (int i = 0; i < players; i += UPLOAD_SIZE) {
+			service.queue(LeaderboardProtocol.decode(new ByteArrayInputStream(
+					upload(random, i, Math.min(UPLOAD_SIZE, players - i),
+							players))));
+			service.flush();
+		}
+		long fillMillis = (System.nanoTime() - start) / 1000000;
+		long heapPerPlayer = (usedHeap() - heapBefore) / players;
+		System.out.println(String.format(
+				"%d players in %d ms, %d scores, %d bytes a player",
+				leaderboard.size(), fillMillis, service.getScoreCount(),
+				heapPerPlayer));
+
+		// Keep uploading while querying
+		service.start();
+		final AtomicBoolean stop = new AtomicBoolean();
+		final int playerCount = players;
+		Thread uploader = new Thread(new Runnable() {
+			public void run() {
+				Random random = new Random(2);
+				while (!stop.get()) {
+					try {
+						service.queue(LeaderboardProtocol
+								.decode(new ByteArrayInputStream(upload(random,
+										random.nextInt(playerCount),
+										UPLOAD_SIZE, playerCount))));
+						Thread.sleep(1000 / UPLOADS_PER_SECOND);
+					} catch (IOException e) {
+						throw new IllegalStateException(e);
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			}
+		});
+		uploader.start();
+
+		Histogram top = new Histogram();
+		Histogram around = new Histogram();
+		Histogram hot = new Histogram();
+		long sink = 0;
+		for (int i = 0; i < queries; i++) {
+			long queryStart = System.nanoTime();
+			sink += leaderboard.getTop(random.nextInt(players), PAGE).size();
+			long topEnd = System.nanoTime();
+			sink += leaderboard.getAround(
+					Integer.toString(random.nextInt(players)), PAGE).size();
+			long aroundEnd = System.nanoTime();
+			sink += leaderboard.getTop(0, PAGE).size();
+			long hotEnd = System.nanoTime();
+			top.record((topEnd - queryStart) / 1000);
+			around.record((aroundEnd - topEnd) / 1000);
+			hot.record((hotEnd - aroundEnd) / 1000);
+		}
+		stop.set(true);
+		uploader.join();
+		service.stop();
+
+		System.out.println(String.format("%-8s %8s %8s %8s %6s", "query",
+				"p50 us", "p99 us", "max us", ""));
+		boolean ok = report("top", top, budget);
+		ok &= report("around", around, budget);
+		ok &= report("top ten", hot, budget);
+		System.out.println(String.format(
+				"%d batches, cache %d hits %d misses, sink %d", service
+						.getBatchCount(), leaderboard.getCacheHits(),
+				leaderboard.getCacheMisses(), sink));
+		System.exit(ok ? 0 : 1);
+	}
+
+	/**
+	 * @return an upload of scores for players from the first
+	 */
+	private static byte[] upload(Random random, int first, int count,
+			int players) throws IOException {
+		List<LeaderboardProtocol.Score> scores = new ArrayList<LeaderboardProtocol.Score>(
+				count);
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < count; i++) {
+			scores.add(new LeaderboardProtocol.Score(Integer
+					.toString((first + i) % players), random.nextInt(100000),
+					now));
+		}
+		return LeaderboardProtocol.encode(scores);
+	}
+
+	private static boolean report(String name, Histogram micros, long budget) {
+		boolean ok = micros.getPercentile(99) <= budget;
+		System.out.println(String.format("%-8s %8d %8d %8d %6s", name, micros
+				.getPercentile(50), micros.getPercentile(99), micros.getMax(),
+				ok ? "OK" : "OVER"));
+		return ok;
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
@@ -0,0 +1,225 @@
+package com.appspot.mathuzzles.risingnumbers.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.appspot.mathuzzles.risingnumbers.leaderboard.LeaderboardProtocol;
+
+/**
+ * Takes uploads of scores and answers ranking queries.
+ *
+ * Uploads are decoded on the caller's thread and each score's replay is
+ * played again by the ReplayVerifier. Only scores their replays earn are
+ * queued, so a forged score never reaches the leaderboard. A writer thread adds
+ * what's queued to the leaderboard as one batch every FLUSH_MILLIS. Each batch
+ * takes the write lock once and invalidates the cached rankings once, so
+ * queries aren't held up by every upload.
+ */
+public class LeaderboardService {
+
+	public static final long FLUSH_MILLIS = 1000;
+
+	/** Most scores added under the write lock at once */
+	private static final int MAX_WRITE_BATCH = 10000;
+
+	private final Leaderboard leaderboard;
+	private final ReplayVerifier verifier;
+	private final ConcurrentLinkedQueue<LeaderboardProtocol.Score> queue = new ConcurrentLinkedQueue<LeaderboardProtocol.Score>();
+	private final long flushMillis;
+	private Writer writer;
+
+	private final AtomicLong uploads = new AtomicLong();
+	private final AtomicLong scores = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong batches = new AtomicLong();
+
+	public LeaderboardService(Leaderboard leaderboard) {
+		this(leaderboard, FLUSH_MILLIS);
+	}
+
+	public LeaderboardService(Leaderboard leaderboard, long flushMillis) {
+		this(leaderboard, flushMillis, new ReplayVerifier());
+	}
+
+	public LeaderboardService(Leaderboard leaderboard, long flushMillis,
+			ReplayVerifier verifier) {
+		this.leaderboard = leaderboard;
+		this.flushMillis = flushMillis;
+		this.verifier = verifier;
+	}
+
+	public synchronized void start() {
+		if (writer == null) {
+			writer = new Writer();
+			writer.start();
+		}
+	}
+
+	/**
+	 * Stop the writer after adding what's queued.
+	 */
+	public void stop() throws InterruptedException {
+		Writer stopping;
+		synchronized (this) {
+			stopping = writer;
+			writer = null;
+		}
+		if (stopping != null) {
+			stopping.finish();
+			stopping.join();
+		}
+	}
+
+	/**
+	 * Verify the scores of an upload against their replays and queue those
+	 * that verify.
+	 *
+	 * @param body
+	 *            gzipped body of the upload
+	 * @return scores queued
+	 * @throws IOException
+	 *             if the body isn't an upload, or a score has no replay or
+	 *             isn't what its replay earns. The scores that verify are
+	 *             queued all the same.
+	 */
+	public int upload(InputStream body) throws IOException {
+		List<LeaderboardProtocol.Score> uploaded;
+		try {
+			uploaded = LeaderboardProtocol.decode(body);
+		} catch (NumberFormatException e) {
+			throw new IOException(e.getMessage());
+		}
+		uploads.incrementAndGet();
+
+		List<LeaderboardProtocol.Score> verifiable = new ArrayList<LeaderboardProtocol.Score>(
+				uploaded.size());
+		List<ScoreSubmission> submissions = new ArrayList<ScoreSubmission>(
+				uploaded.size());
+		for (int i = 0; i < uploaded.size(); i++) {
+			LeaderboardProtocol.Score score = uploaded.get(i);
+			if (score.replay != null) {
+				verifiable.add(score);
+				submissions.add(new ScoreSubmission(score.playerId,
+						score.points, score.replay));
+			}
+		}
+		verifier.verifyAll(submissions);
+
+		List<LeaderboardProtocol.Score> accepted = new ArrayList<LeaderboardProtocol.Score>(
+				verifiable.size());
+		for (int i = 0; i < submissions.size(); i++) {
+			if (submissions.get(i).result == ReplayVerifier.ACCEPTED) {
+				LeaderboardProtocol.Score score = verifiable.get(i);
+				// Not needed once verified
+				score.replay = null;
+				accepted.add(score);
+			}
+		}
+		queue(accepted);
+
+		int rejectedCount = uploaded.size() - accepted.size();
+		if (rejectedCount > 0) {
+			rejected.addAndGet(rejectedCount);
+			throw new IOException(rejectedCount + " of " + uploaded.size()
+					+ " scores rejected");
+		}
+		return accepted.size();
+	}
+
+	/**
+	 * Queue scores already verified.
+	 */
+	void queue(List<LeaderboardProtocol.Score> verified) {
+		queue.addAll(verified);
+		scores.addAndGet(verified.size());
+	}
+
+	/**
+	 * Add what's queued to the leaderboard now, on the calling thread.
+	 */
+	public void flush() {
+		List<LeaderboardProtocol.Score> batch = new ArrayList<LeaderboardProtocol.Score>();
+		LeaderboardProtocol.Score score;
+		while ((score = queue.poll()) != null) {
+			batch.add(score);
+			if (batch.size() == MAX_WRITE_BATCH) {
+				add(batch);
+			}
+		}
+		add(batch);
+	}
+
+	private void add(List<LeaderboardProtocol.Score> batch) {
+		if (!batch.isEmpty()) {
+			leaderboard.addAll(batch);
+			batches.incrementAndGet();
+			batch.clear();
+		}
+	}
+
+	public Leaderboard getLeaderboard() {
+		return leaderboard;
+	}
+
+	public long getUploadCount() {
+		return uploads.get();
+	}
+
+	public long getScoreCount() {
+		return scores.get();
+	}
+
+	public long getBatchCount() {
+		return batches.get();
+	}
+
+	/**
+	 * Scores uploaded that weren't what their replays earn, or had none.
+	 */
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+
+	/**
+	 * Flushes the queue at the interval.
+	 */
+	private class Writer extends Thread {
+
+		private boolean finished = false;
+
+		Writer() {
+			super("LeaderboardWriter");
+			setDaemon(true);
+		}
+
+		synchronized void finish() {
+			finished = true;
+			notify();
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				synchronized (this) {
+					if (!finished) {
+						try {
+							wait(flushMillis);
+						} catch (InterruptedException e) {
+							return;
+						}
+					}
+				}
+				flush();
+				synchronized (this) {
+					if (finished) {
+						return;
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,172 @@
+package com.appspot.mathuzzles.risingnumbers.server;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.appspot.mathuzzles.risingnumbers.model.Ball;
+import com.appspot.mathuzzles.risingnumbers.model.Game;
+import com.appspot.mathuzzles.risingnumbers.multiplay.MultiPlayProtocol;
+
+/**
+ * Multi play match run by the server.
+ *
+ * The server plays both boards with the game rules, driven by each client's
+ * input. Balls one player earns are passed to the other, and the server, not
+ * the client, decides when a board is over. Each client is handed the seed of
+ * its board, see getSeed, to play the board the server plays.
+ *
+ * Clients don't send their input yet, nothing but MatchHostBenchmark calls
+ * submitInput, so a match isn't served to real players.
+ */
+public class Match {
+
+	public static final int PLAYERS = 2;
+
+	private final long id;
+	private final Player[] players = new Player[PLAYERS];
+	private long ticks = 0;
+	private volatile boolean finished = false;
+
+	public Match(long id, long seed) {
+		this.id = id;
+		Random seeds = new Random(seed);
+		for (int i = 0; i < PLAYERS; i++) {
+			Player player = new Player();
+			player.game = new Game(new Random(seeds.nextLong()));
+			player.game.isPlayOnline = true;
+			player.game.start();
+			players[i] = player;
+		}
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	/**
+	 * Queue input from a client. Applied on the next tick.
+	 *
+	 * @param player
+	 *            0 or 1
+	 * @param moveX
+	 *            distance to move left
+	 * @param moveY
+	 *            distance to move up
+	 * @param shoot
+	 *            true to shoot
+	 */
+	public void submitInput(int player, float moveX, float moveY, boolean shoot) {
+		players[player].inputs.add(new float[] { moveX, moveY, shoot ? 1 : 0 });
+	}
+
+	/**
+	 * Play one step of both boards.
+	 */
+	void tick() {
+		if (finished) {
+			return;
+		}
+		ticks++;
+
+		for (int i = 0; i < PLAYERS; i++) {
+			Player player = players[i];
+
+			// Everything the client sent since the last tick
+			float moveX = 0;
+			float moveY = 0;
+			boolean shooting = false;
+			float[] input;
+			while ((input = player.inputs.poll()) != null) {
+				moveX += input[0];
+				moveY += input[1];
+				shooting |= input[2] != 0;
+			}
+			player.game.step(moveX, moveY, shooting);
+		}
+
+		// Pass balls to the opponent
+		for (int i = 0; i < PLAYERS; i++) {
+			ArrayList<Ball> ballsToOpponent = players[i].game.ballsToOpponent;
+			ArrayList<Ball> ballsFromOpponent = players[(i + 1) % PLAYERS].game.ballsFromOpponent;
+			int size = ballsToOpponent.size();
+			for (int j = 0; j < size; j++) {
+				ballsFromOpponent.add(ballsToOpponent.get(j));
+			}
+			ballsToOpponent.clear();
+		}
+
+		// First board over loses
+		for (int i = 0; i < PLAYERS; i++) {
+			if (players[i].game.isGameOver) {
+				players[i].status = MultiPlayProtocol.USER_LOST;
+				players[(i + 1) % PLAYERS].status = MultiPlayProtocol.USER_WON;
+				finished = true;
+				break;
+			}
+		}
+	}
+
+	/**
+	 * A client stopped connecting.
+	 */
+	public void lostConnection(int player) {
+		if (!finished) {
+			players[(player + 1) % PLAYERS].status = MultiPlayProtocol.OPPONENT_LOST_CONNECTION;
+			players[player].status = MultiPlayProtocol.USER_LOST;
+			finished = true;
+		}
+	}
+
+	/**
+	 * End the match without a winner, e.g. when ticking it failed. Both
+	 * players are told the other was lost.
+	 */
+	public void abort() {
+		if (!finished) {
+			for (int i = 0; i < PLAYERS; i++) {
+				players[i].status = MultiPlayProtocol.OPPONENT_LOST_CONNECTION;
+			}
+			finished = true;
+		}
+	}
+
+	public boolean isFinished() {
+		return finished;
+	}
+
+	/**
+	 * Status to report to the player, one of the MultiPlayProtocol statuses.
+	 */
+	public int getStatus(int player) {
+		return players[player].status;
+	}
+
+	/**
+	 * Seed of the player's board, sent to the client as the match starts.
+	 */
+	public long getSeed(int player) {
+		return players[player].game.getSeed();
+	}
+
+	public int getPoints(int player) {
+		return players[player].game.points;
+	}
+
+	/**
+	 * The player's board. Only read it from the tick thread.
+	 */
+	Game getGame(int player) {
+		return players[player].game;
+	}
+
+	public long getTicks() {
+		return ticks;
+	}
+
+	private static class Player {
+		Game game;
+		volatile int status = MultiPlayProtocol.IN_PLAY;
+		final ConcurrentLinkedQueue<float[]> inputs = new ConcurrentLinkedQueue<float[]>();
+	}
+}
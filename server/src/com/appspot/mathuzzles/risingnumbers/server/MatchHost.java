@@ -0,0 +1,179 @@
+package com.appspot.mathuzzles.risingnumbers.server;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.appspot.mathuzzles.risingnumbers.metrics.Histogram;
+
+/**
+ * Hosts many matches on a shared thread pool.
+ *
+ * Matches are split across shards. Each shard is one task scheduled every
+ * TICK_MILLIS that ticks all of its matches in turn, so the cost of a match
+ * is its game step and not a thread or a scheduled task of its own.
+ */
+public class MatchHost {
+
+	public static final int TICKS_PER_SECOND = 50;
+	public static final int TICK_MILLIS = 1000 / TICKS_PER_SECOND;
+
+	private static final Logger LOG = Logger.getLogger(MatchHost.class
+			.getName());
+
+	private final ScheduledExecutorService executor;
+	private final Shard[] shards;
+	private final ConcurrentHashMap<Long, Match> matches = new ConcurrentHashMap<Long, Match>();
+	private final AtomicLong nextMatchId = new AtomicLong(1);
+
+	// Stats
+	private final AtomicLong matchTicks = new AtomicLong();
+	private final AtomicLong matchTickNanos = new AtomicLong();
+	private final AtomicLong lateTicks = new AtomicLong();
+	private final AtomicLong abortedMatches = new AtomicLong();
+	private final Histogram shardTickMicros = new Histogram();
+
+	/**
+	 * @param threads
+	 *            threads in the pool, usually the number of cores
+	 * @param shardCount
+	 *            number of shards, a few per thread so the load evens out
+	 */
+	public MatchHost(int threads, int shardCount) {
+		executor = Executors.newScheduledThreadPool(threads);
+		shards = new Shard[shardCount];
+		for (int i = 0; i < shardCount; i++) {
+			shards[i] = new Shard();
+		}
+	}
+
+	/**
+	 * Start ticking.
+	 */
+	public void start() {
+		for (int i = 0; i < shards.length; i++) {
+			// Stagger shards across the tick
+			long delay = (TICK_MILLIS * 1000L * i) / shards.length;
+			executor.scheduleAtFixedRate(shards[i], delay, TICK_MILLIS * 1000L,
+					TimeUnit.MICROSECONDS);
+		}
+	}
+
+	public void stop() throws InterruptedException {
+		executor.shutdown();
+		executor.awaitTermination(5, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Create a match and start playing it on the next tick.
+	 */
+	public Match createMatch(long seed) {
+		long id = nextMatchId.getAndIncrement();
+		Match match = new Match(id, seed);
+		matches.put(id, match);
+		shards[(int) (id % shards.length)].added.add(match);
+		return match;
+	}
+
+	public Match getMatch(long id) {
+		return matches.get(id);
+	}
+
+	/**
+	 * Forget a match once both players have been told the result.
+	 */
+	public void removeMatch(long id) {
+		matches.remove(id);
+	}
+
+	public int getMatchCount() {
+		return matches.size();
+	}
+
+	public long getMatchTicks() {
+		return matchTicks.get();
+	}
+
+	/**
+	 * Mean cost of ticking one match.
+	 */
+	public double getMeanMatchTickNanos() {
+		long ticks = matchTicks.get();
+		return ticks == 0 ? 0 : (double) matchTickNanos.get() / ticks;
+	}
+
+	/**
+	 * Shard ticks that took longer than a tick.
+	 */
+	public long getLateTicks() {
+		return lateTicks.get();
+	}
+
+	/**
+	 * Matches ended because ticking them threw.
+	 */
+	public long getAbortedMatches() {
+		return abortedMatches.get();
+	}
+
+	/**
+	 * Time to tick all the matches of a shard.
+	 */
+	public Histogram getShardTickMicros() {
+		return shardTickMicros;
+	}
+
+	/**
+	 * Matches ticked together by one task.
+	 */
+	private class Shard implements Runnable {
+
+		private final ArrayList<Match> running = new ArrayList<Match>();
+		private final ConcurrentLinkedQueue<Match> added = new ConcurrentLinkedQueue<Match>();
+
+		public void run() {
+			long start = System.nanoTime();
+
+			Match match;
+			while ((match = added.poll()) != null) {
+				running.add(match);
+			}
+
+			// Tick, dropping finished matches without shifting the list
+			int size = running.size();
+			int kept = 0;
+			for (int i = 0; i < size; i++) {
+				match = running.get(i);
+				try {
+					match.tick();
+				} catch (RuntimeException e) {
+					// End the bad match, the rest of the shard carries on
+					LOG.log(Level.WARNING, "Exception ticking match "
+							+ match.getId() + ":" + e.toString(), e);
+					match.abort();
+					abortedMatches.incrementAndGet();
+				}
+				if (!match.isFinished()) {
+					running.set(kept++, match);
+				}
+			}
+			for (int i = size - 1; i >= kept; i--) {
+				running.remove(i);
+			}
+
+			long nanos = System.nanoTime() - start;
+			matchTicks.addAndGet(size);
+			matchTickNanos.addAndGet(nanos);
+			shardTickMicros.record(nanos / 1000);
+			if (nanos > TICK_MILLIS * 1000000L) {
+				lateTicks.incrementAndGet();
+			}
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package com.appspot.mathuzzles.risingnumbers.server;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import com.appspot.mathuzzles.risingnumbers.metrics.Histogram;
+import com.appspot.mathuzzles.risingnumbers.model.Game;
+
+/**
+ * Measures how many matches one JVM can host.
+ *
+ * Keeps the given number of matches running with random input and reports
+ * the cost of ticking a match, how often a shard missed its tick and the heap
+ * used per match.
+ *
+ * Usage: MatchHostBenchmark [matches] [seconds] [threads]
+ */
+public class MatchHostBenchmark {
+
+	public static void main(String[] args) throws InterruptedException {
+		int matchCount = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime
+				.getRuntime().availableProcessors();
+
+		long heapBefore = usedHeap();
+
+		MatchHost host = new MatchHost(threads, threads * 4);
+		Random random = new Random(1);
+		ArrayList<Match> playing = new ArrayList<Match>(matchCount);
+		for (int i = 0; i < matchCount; i++) {
+			playing.add(host.createMatch(random.nextLong()));
+		}
+		long heapPerMatch = (usedHeap() - heapBefore) / matchCount;
+
+		host.start();
+
+		// Drive the clients: drag now and then, shoot about twice a second.
+		long end = System.currentTimeMillis() + seconds * 1000L;
+		long finished = 0;
+		while (System.currentTimeMillis() < end) {
+			long start = System.currentTimeMillis();
+			for (int i = 0; i < playing.size(); i++) {
+				Match match = playing.get(i);
+				if (match.isFinished()) {
+					host.removeMatch(match.getId());
+					playing.set(i, host.createMatch(random.nextLong()));
+					finished++;
+					continue;
+				}
+				for (int player = 0; player < Match.PLAYERS; player++) {
+					int action = random.nextInt(Game.BALL_SPACING);
+					if (action == 0) {
+						match.submitInput(player, 0, 0, true);
+					} else if (action < 4) {
+						match.submitInput(player, random.nextInt(41) - 20, 0,
+								false);
+					}
+				}
+			}
+			long sleep = MatchHost.TICK_MILLIS
+					- (System.currentTimeMillis() - start);
+			if (sleep > 0) {
+				Thread.sleep(sleep);
+			}
+		}
+		host.stop();
+
+		long ticks = host.getMatchTicks();
+		Histogram shardTicks = host.getShardTickMicros();
+		System.out.println("Matches:            " + matchCount + " on "
+				+ threads + " threads");
+		System.out.println(String.format("Match ticks/sec:    %.0f (target %d)",
+				ticks / (double) seconds, matchCount
+						* MatchHost.TICKS_PER_SECOND));
+		System.out.println(String.format("Tick cost:          %.2f us/match",
+				host.getMeanMatchTickNanos() / 1000.0));
+		System.out.println("Shard tick (us):    p50="
+				+ shardTicks.getPercentile(50) + " p99="
+				+ shardTicks.getPercentile(99) + " max=" + shardTicks.getMax());
+		System.out.println("Late shard ticks:   " + host.getLateTicks());
+		System.out.println("Matches finished:   " + finished);
+		System.out.println("Heap per match:     ~" + heapPerMatch + " bytes");
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
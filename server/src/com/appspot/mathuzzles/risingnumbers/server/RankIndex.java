@@ -0,0 +1,204 @@
+package com.appspot.mathuzzles.risingnumbers.server;
+
+/**
+ * Players ordered by their best score, most points first, then the earliest
+ * to make them.
+ *
+ * A treap whose nodes count the nodes under them, so finding a player's rank
+ * or the player at a rank takes a walk from the root, O(log n) with millions
+ * of players. The nodes are the entries, so there is one object per player.
+ * Not thread safe.
+ */
+class RankIndex {
+
+	/**
+	 * A player's best score.
+	 */
+	static final class Entry {
+		final String playerId;
+		final int points;
+		final long time;
+
+		private final int priority;
+		private int size = 1;
+		private Entry left;
+		private Entry right;
+
+		Entry(String playerId, int points, long time, int priority) {
+			this.playerId = playerId;
+			this.points = points;
+			this.time = time;
+			this.priority = priority;
+		}
+	}
+
+	private Entry root = null;
+	private int seed = 0x2545F491;
+
+	// Results of split
+	private Entry splitLeft;
+	private Entry splitRight;
+
+	/**
+	 * Make an entry to add.
+	 */
+	Entry newEntry(String playerId, int points, long time) {
+		// Xorshift, priorities only need to be spread out
+		seed ^= seed << 13;
+		seed ^= seed >>> 17;
+		seed ^= seed << 5;
+		return new Entry(playerId, points, time, seed);
+	}
+
+	int size() {
+		return size(root);
+	}
+
+	void add(Entry entry) {
+		root = add(root, entry);
+	}
+
+	private Entry add(Entry node, Entry entry) {
+		if (node == null) {
+			return entry;
+		}
+		if (entry.priority > node.priority) {
+			split(node, entry);
+			entry.left = splitLeft;
+			entry.right = splitRight;
+			update(entry);
+			return entry;
+		}
+		if (compare(entry, node) < 0) {
+			node.left = add(node.left, entry);
+		} else {
+			node.right = add(node.right, entry);
+		}
+		update(node);
+		return node;
+	}
+
+	/**
+	 * Split into the nodes before the key and the rest.
+	 */
+	private void split(Entry node, Entry key) {
+		if (node == null) {
+			splitLeft = null;
+			splitRight = null;
+		} else if (compare(node, key) < 0) {
+			split(node.right, key);
+			node.right = splitLeft;
+			update(node);
+			splitLeft = node;
+		} else {
+			split(node.left, key);
+			node.left = splitRight;
+			update(node);
+			splitRight = node;
+		}
+	}
+
+	/**
+	 * Remove an entry added before.
+	 */
+	void remove(Entry entry) {
+		root = remove(root, entry);
+		entry.left = null;
+		entry.right = null;
+		entry.size = 1;
+	}
+
+	private Entry remove(Entry node, Entry entry) {
+		if (node == null) {
+			return null;
+		}
+		if (node == entry) {
+			return merge(node.left, node.right);
+		}
+		if (compare(entry, node) < 0) {
+			node.left = remove(node.left, entry);
+		} else {
+			node.right = remove(node.right, entry);
+		}
+		update(node);
+		return node;
+	}
+
+	private Entry merge(Entry left, Entry right) {
+		if (left == null) {
+			return right;
+		}
+		if (right == null) {
+			return left;
+		}
+		if (left.priority > right.priority) {
+			left.right = merge(left.right, right);
+			update(left);
+			return left;
+		}
+		right.left = merge(left, right.left);
+		update(right);
+		return right;
+	}
+
+	/**
+	 * @return entries before this one, its rank from 0
+	 */
+	int rank(Entry entry) {
+		int rank = 0;
+		Entry node = root;
+		while (node != null) {
+			int compare = compare(entry, node);
+			if (compare < 0) {
+				node = node.left;
+			} else if (compare > 0) {
+				rank += size(node.left) + 1;
+				node = node.right;
+			} else {
+				return rank + size(node.left);
+			}
+		}
+		return rank;
+	}
+
+	/**
+	 * @return the entry at the rank from 0, or null if past the end
+	 */
+	Entry get(int rank) {
+		Entry node = root;
+		while (node != null) {
+			int leftSize = size(node.left);
+			if (rank < leftSize) {
+				node = node.left;
+			} else if (rank > leftSize) {
+				rank -= leftSize + 1;
+				node = node.right;
+			} else {
+				return node;
+			}
+		}
+		return null;
+	}
+
+	private static int size(Entry node) {
+		return node == null ? 0 : node.size;
+	}
+
+	private static void update(Entry node) {
+		node.size = size(node.left) + size(node.right) + 1;
+	}
+
+	/**
+	 * Most points first, then the earliest, then by player Id so no two
+	 * players tie.
+	 */
+	static int compare(Entry a, Entry b) {
+		if (a.points != b.points) {
+			return a.points > b.points ? -1 : 1;
+		}
+		if (a.time != b.time) {
+			return a.time < b.time ? -1 : 1;
+		}
+		return a.playerId.compareTo(b.playerId);
+	}
+}
@@ -0,0 +1,128 @@
+package com.appspot.mathuzzles.risingnumbers.server;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.appspot.mathuzzles.risingnumbers.model.Game;
+import com.appspot.mathuzzles.risingnumbers.model.Replay;
+
+/**
+ * Verifies submitted scores by playing their replays again.
+ *
+ * A score is accepted only if the replay, played from its seed with its
+ * input, ends the game with exactly the claimed points. Batches are split
+ * across a fork-join pool so verification uses every core.
+ */
+public class ReplayVerifier {
+
+	/** About three hours of play at 50 steps a second */
+	public static final int MAX_STEPS = 3 * 60 * 60 * 50;
+
+	/** Below this many submissions a task verifies them itself */
+	private static final int SPLIT_THRESHOLD = 4;
+
+	public static final int ACCEPTED = 0;
+	public static final int REJECTED_POINTS = 1;
+	public static final int REJECTED_NOT_OVER = 2;
+	public static final int REJECTED_TOO_LONG = 3;
+
+	private final ForkJoinPool pool;
+	private final AtomicLong verified = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong stepsPlayed = new AtomicLong();
+
+	public ReplayVerifier() {
+		this(new ForkJoinPool());
+	}
+
+	public ReplayVerifier(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Verify one replay on the calling thread.
+	 *
+	 * @return ACCEPTED or one of the REJECTED_* reasons
+	 */
+	public int verify(Replay replay, int claimedPoints) {
+		int result;
+		if (replay.getSteps() > MAX_STEPS) {
+			// Don't spend the time, nobody plays this long.
+			result = REJECTED_TOO_LONG;
+		} else {
+			Game game = replay.play(MAX_STEPS);
+			stepsPlayed.addAndGet(replay.getSteps());
+			if (!game.isGameOver) {
+				result = REJECTED_NOT_OVER;
+			} else if (game.points != claimedPoints) {
+				result = REJECTED_POINTS;
+			} else {
+				result = ACCEPTED;
+			}
+		}
+
+		verified.incrementAndGet();
+		if (result != ACCEPTED) {
+			rejected.incrementAndGet();
+		}
+		return result;
+	}
+
+	/**
+	 * Verify a batch in parallel. Sets the result of each submission.
+	 */
+	public void verifyAll(List<ScoreSubmission> submissions) {
+		pool.invoke(new VerifyTask(submissions, 0, submissions.size()));
+	}
+
+	public long getVerifiedCount() {
+		return verified.get();
+	}
+
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+
+	public long getStepsPlayed() {
+		return stepsPlayed.get();
+	}
+
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * Verifies a range of submissions, splitting it while it is large.
+	 */
+	private class VerifyTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<ScoreSubmission> submissions;
+		private final int from;
+		private final int to;
+
+		VerifyTask(List<ScoreSubmission> submissions, int from, int to) {
+			this.submissions = submissions;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= SPLIT_THRESHOLD) {
+				for (int i = from; i < to; i++) {
+					ScoreSubmission submission = submissions.get(i);
+					submission.result = verify(submission.replay,
+							submission.points);
+				}
+			} else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new VerifyTask(submissions, from, middle),
+						new VerifyTask(submissions, middle, to));
+			}
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package com.appspot.mathuzzles.risingnumbers.server;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import com.appspot.mathuzzles.risingnumbers.model.Game;
+import com.appspot.mathuzzles.risingnumbers.model.Replay;
+
+/**
+ * Measures how many submitted scores the verifier checks per second.
+ *
+ * Plays solo games with random input, submits them with some scores forged,
+ * and verifies the batch on the given number of threads.
+ *
+ * Usage: ReplayVerifierBenchmark [games] [threads] [forged percent]
+ */
+public class ReplayVerifierBenchmark {
+
+	public static void main(String[] args) {
+		int gameCount = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime
+				.getRuntime().availableProcessors();
+		int forgedPercent = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+		Random random = new Random(1);
+		ArrayList<ScoreSubmission> submissions = new ArrayList<ScoreSubmission>(
+				gameCount);
+		boolean[] isForged = new boolean[gameCount];
+		int forged = 0;
+		for (int i = 0; i < gameCount; i++) {
+			Game game = playGame(random);
+			int points = game.points;
+			if (random.nextInt(100) < forgedPercent) {
+				points += 1 + random.nextInt(500);
+				isForged[i] = true;
+				forged++;
+			}
+			submissions.add(new ScoreSubmission("player" + i, points, game
+					.getReplay()));
+		}
+
+		ReplayVerifier verifier = new ReplayVerifier(new ForkJoinPool(threads));
+
+		// Warm up, then measure.
+		verifier.verifyAll(submissions.subList(0,
+				Math.min(200, submissions.size())));
+		long verifiedBefore = verifier.getVerifiedCount();
+		long stepsBefore = verifier.getStepsPlayed();
+		long start = System.nanoTime();
+		verifier.verifyAll(submissions);
+		long nanos = System.nanoTime() - start;
+		verifier.shutdown();
+
+		int rejected = 0;
+		int forgedAccepted = 0;
+		int genuineRejected = 0;
+		for (int i = 0; i < submissions.size(); i++) {
+			boolean accepted = submissions.get(i).result == ReplayVerifier.ACCEPTED;
+			if (!accepted) {
+				rejected++;
+			}
+			if (accepted && isForged[i]) {
+				forgedAccepted++;
+			} else if (!accepted && !isForged[i]) {
+				genuineRejected++;
+			}
+		}
+
+		double seconds = nanos / 1e9;
+		long verified = verifier.getVerifiedCount() - verifiedBefore;
+		long steps = verifier.getStepsPlayed() - stepsBefore;
+		System.out.println("Submissions:        " + gameCount + " on "
+				+ threads + " threads");
+		System.out.println(String.format("Verifications/sec:  %.0f",
+				verified / seconds));
+		System.out.println(String.format("Steps/sec:          %.0f", steps
+				/ seconds));
+		System.out.println(String.format("Mean game length:   %d steps", steps
+				/ Math.max(verified, 1)));
+		System.out.println("Forged:             " + forged);
+		System.out.println("Rejected:           " + rejected);
+		System.out.println("Forged accepted:    " + forgedAccepted);
+		System.out.println("Genuine rejected:   " + genuineRejected);
+	}
+
+	/**
+	 * Play a solo game to the end with random input, drag now and then and
+	 * shoot about once a second.
+	 */
+	private static Game playGame(Random random) {
+		Game game = new Game();
+		game.setReplay(new Replay());
+		game.start(random.nextLong());
+		while (!game.isGameOver
+				&& game.getReplay().getSteps() < ReplayVerifier.MAX_STEPS) {
+			int action = random.nextInt(50);
+			if (action == 0) {
+				game.step(0, 0, true);
+			} else if (action < 4) {
+				game.step(random.nextInt(41) - 20, 0, false);
+			} else {
+				game.step(0, 0, false);
+			}
+		}
+		return game;
+	}
+}
@@ -0,0 +1,22 @@
+package com.appspot.mathuzzles.risingnumbers.server;
+
+import com.appspot.mathuzzles.risingnumbers.model.Replay;
+
+/**
+ * Score submitted by a player with the replay of the game.
+ */
+public class ScoreSubmission {
+
+	public String playerId;
+	public int points;
+	public Replay replay;
+
+	/** Set by the verifier, one of the ReplayVerifier results */
+	public int result = -1;
+
+	public ScoreSubmission(String playerId, int points, Replay replay) {
+		this.playerId = playerId;
+		this.points = points;
+		this.replay = replay;
+	}
+}
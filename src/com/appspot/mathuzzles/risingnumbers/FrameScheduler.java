@@ -0,0 +1,138 @@
+package com.appspot.mathuzzles.risingnumbers;
+
+/**
+ * When the game thread steps the game and draws the next frame.
+ *
+ * The game always steps every STEP_MILLIS, so it plays at the same speed
+ * whatever the frame rate. Frames are drawn at the full rate only while
+ * something is going on: a drag, a shot, the bot playing or the board
+ * changing. Otherwise only the current ball rises, which looks the same at a
+ * lower rate. Paused and finished games hardly need drawing at all. Battery
+ * saver lowers the rates further.
+ *
+ * Input wakes the thread, so a lower rate never delays a drag or a tap by
+ * more than a step.
+ */
+final class FrameScheduler {
+
+	/** Game steps, 50 a second */
+	static final int STEP_MILLIS = 20;
+
+	// Frame rates
+	private static final int ACTIVE_FRAME_MILLIS = 20;
+	private static final int QUIET_FRAME_MILLIS = 50;
+	private static final int IDLE_FRAME_MILLIS = 500;
+	private static final int SAVER_ACTIVE_FRAME_MILLIS = 40;
+	private static final int SAVER_QUIET_FRAME_MILLIS = 100;
+	private static final int SAVER_IDLE_FRAME_MILLIS = 1000;
+
+	/** Full rate for this long after anything happens */
+	private static final int ACTIVE_MILLIS = 500;
+
+	/** Steps caught up at most in a frame, e.g. after a long draw */
+	private static final int MAX_STEPS = 5;
+
+	private boolean batterySaver = false;
+	private long lastActive = 0;
+	private long nextStep = 0;
+	private long nextFrame = 0;
+	private boolean woken = false;
+
+	synchronized void setBatterySaver(boolean isBatterySaver) {
+		batterySaver = isBatterySaver;
+		wakeup();
+	}
+
+	synchronized boolean isBatterySaver() {
+		return batterySaver;
+	}
+
+	/**
+	 * @return milliseconds until the next frame is due
+	 */
+	synchronized long getWaitMillis(long now) {
+		return nextFrame - now;
+	}
+
+	/**
+	 * Wait for the next frame, or until woken.
+	 */
+	synchronized void sleep(long millis) throws InterruptedException {
+		if (!woken && millis > 0) {
+			wait(millis);
+		}
+		woken = false;
+	}
+
+	/**
+	 * Something happened, e.g. input: draw at the next step at the latest
+	 * and stay at the full rate for a while.
+	 */
+	synchronized void wakeup() {
+		long now = System.currentTimeMillis();
+		lastActive = now;
+		long at = Math.max(now, nextStep);
+		if (at < nextFrame) {
+			nextFrame = at;
+		}
+		woken = true;
+		notify();
+	}
+
+	/**
+	 * Start stepping again, e.g. after a pause or a new game, from the given
+	 * time without catching up on the time since.
+	 */
+	synchronized void resume(long at) {
+		nextStep = at;
+		nextFrame = at;
+		lastActive = at;
+	}
+
+	/**
+	 * Steps due by now. Steps missed beyond MAX_STEPS are dropped rather than
+	 * caught up, so the game slows down rather than jumps.
+	 */
+	synchronized int takeSteps(long now) {
+		if (now - nextStep >= MAX_STEPS * STEP_MILLIS) {
+			nextStep = now - (MAX_STEPS - 1) * STEP_MILLIS;
+		}
+		int steps = 0;
+		while (nextStep <= now) {
+			steps++;
+			nextStep += STEP_MILLIS;
+		}
+		return steps;
+	}
+
+	/**
+	 * A frame was drawn: schedule the next one.
+	 *
+	 * @param running
+	 *            true if the game is being played, rather than paused,
+	 *            finished or waiting for an opponent
+	 * @param active
+	 *            true if something is going on
+	 */
+	synchronized void frameDrawn(long now, boolean running, boolean active) {
+		if (active) {
+			lastActive = now;
+		}
+		int frameMillis;
+		if (!running) {
+			frameMillis = batterySaver ? SAVER_IDLE_FRAME_MILLIS
+					: IDLE_FRAME_MILLIS;
+			nextStep = now;
+		} else if (now - lastActive < ACTIVE_MILLIS) {
+			frameMillis = batterySaver ? SAVER_ACTIVE_FRAME_MILLIS
+					: ACTIVE_FRAME_MILLIS;
+		} else {
+			frameMillis = batterySaver ? SAVER_QUIET_FRAME_MILLIS
+					: QUIET_FRAME_MILLIS;
+		}
+		nextFrame = now + frameMillis;
+		if (running && nextFrame < nextStep) {
+			nextFrame = nextStep;
+		}
+	}
+}
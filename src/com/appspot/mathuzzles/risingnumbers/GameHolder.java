@@ -0,0 +1,226 @@
+package com.appspot.mathuzzles.risingnumbers;
+
+import org.apache.http.client.HttpClient;
+import org.apache.http.impl.client.DefaultHttpClient;
+
+import android.graphics.Paint;
+
+import com.appspot.mathuzzles.risingnumbers.leaderboard.LeaderboardProtocol;
+import com.appspot.mathuzzles.risingnumbers.leaderboard.LeaderboardUploader;
+import com.appspot.mathuzzles.risingnumbers.model.Game;
+import com.appspot.mathuzzles.risingnumbers.model.Replay;
+import com.appspot.mathuzzles.risingnumbers.multiplay.NetworkStats;
+
+/**
+ * Keeps the game and what draws it for the life of the process.
+ *
+ * The surface, game thread and activity come and go, e.g. when the game is
+ * sent to the background or the screen turns, but the process usually lives
+ * on. A new game thread carries on with the game kept here, so the saved game
+ * is only read from disk on a cold start.
+ */
+final class GameHolder {
+
+	private static Game game = null;
+	private static ViewState viewState = null;
+	private static Paints paints = null;
+	private static HttpClient httpClient = null;
+	private static boolean savedGameRead = false;
+	private static int highScore = -1;
+	private static String playerId = null;
+	private static LeaderboardUploader leaderboardUploader = null;
+
+	private GameHolder() {
+	}
+
+	/**
+	 * The game, made with a replay and undo on first use.
+	 */
+	static synchronized Game getGame() {
+		if (game == null) {
+			game = new Game();
+			game.setReplay(new Replay());
+			game.setUndoable(true);
+			game.setTraced(true);
+		}
+		return game;
+	}
+
+	/**
+	 * Keep the game thread's own state for the next game thread.
+	 */
+	static synchronized void keepViewState(ViewState state) {
+		viewState = state;
+	}
+
+	/**
+	 * @return the game thread's state kept last, or null if none was
+	 */
+	static synchronized ViewState getViewState() {
+		return viewState;
+	}
+
+	/**
+	 * Paints, made once.
+	 */
+	static synchronized Paints getPaints() {
+		if (paints == null) {
+			paints = new Paints();
+		}
+		return paints;
+	}
+
+	/**
+	 * Client for the multi play connection, made on first use.
+	 */
+	static synchronized HttpClient getHttpClient() {
+		if (httpClient == null) {
+			httpClient = new DefaultHttpClient();
+		}
+		return httpClient;
+	}
+
+	/**
+	 * @return the high score, or -1 if it hasn't been read yet
+	 */
+	static synchronized int getHighScore() {
+		return highScore;
+	}
+
+	static synchronized void setHighScore(int score) {
+		highScore = score;
+	}
+
+	/**
+	 * Set the Id the player's scores are uploaded with, kept in the
+	 * settings.
+	 */
+	static synchronized void setPlayerId(String id) {
+		playerId = id;
+	}
+
+	/**
+	 * Upload a score to the leaderboard with the replay the server checks it
+	 * against. Doesn't wait on the network, the uploader thread is started on
+	 * the first score.
+	 */
+	static synchronized void submitScore(int points, Replay replay) {
+		if (playerId == null) {
+			return;
+		}
+		if (leaderboardUploader == null) {
+			leaderboardUploader = new LeaderboardUploader(
+					LeaderboardProtocol.LEADERBOARD_URL);
+			leaderboardUploader.start();
+		}
+		leaderboardUploader.submit(playerId, points, System
+				.currentTimeMillis(), replay);
+	}
+
+	/**
+	 * Upload the scores waiting now, e.g. before the process may be killed.
+	 */
+	static synchronized void flushScores() {
+		if (leaderboardUploader != null) {
+			leaderboardUploader.flush();
+		}
+	}
+
+	/**
+	 * @return true the first time it's called in the process, when the saved
+	 *         game should be read
+	 */
+	static synchronized boolean readSavedGame() {
+		if (savedGameRead) {
+			return false;
+		}
+		savedGameRead = true;
+		return true;
+	}
+
+	/**
+	 * What the game thread keeps besides the game.
+	 */
+	static class ViewState {
+		int mode;
+		boolean isGameWon;
+		float moveX;
+		float moveY;
+		boolean shooting;
+		boolean isPlayLan;
+		boolean endless;
+		int highScore;
+		String multiPlayUserId;
+		int multiPlayGameStatus;
+		boolean multiPlayGameStarted;
+		boolean oneLastConnection;
+		NetworkStats networkStats;
+		boolean batterySaver;
+	}
+
+	/**
+	 * Paints for drawing the game.
+	 */
+	static class Paints {
+		final Paint clear = new Paint();
+		final Paint grey = new Paint();
+		final Paint ball = new Paint();
+		final Paint hint = new Paint();
+		final Paint queueHint;
+		final Paint preview = new Paint();
+		final Paint previewOver;
+		final Paint textLargeBold = new Paint();
+		final Paint textMedium = new Paint();
+		final Paint textMediumBold = new Paint();
+		final Paint textSmallBold = new Paint();
+		final Paint frame = new Paint();
+
+		Paints() {
+			clear.setAntiAlias(true);
+			clear.setARGB(255, 0, 0, 0);
+
+			grey.setAntiAlias(true);
+			grey.setARGB(255, 20, 20, 20);
+
+			ball.setAntiAlias(true);
+			ball.setARGB(255, 0, 0, 255);
+
+			hint.setAntiAlias(true);
+			hint.setARGB(255, 255, 255, 0);
+			hint.setStyle(Paint.Style.STROKE);
+			hint.setStrokeWidth(3);
+
+			queueHint = new Paint(hint);
+			queueHint.setARGB(255, 120, 120, 120);
+
+			preview.setAntiAlias(true);
+			preview.setARGB(160, 255, 255, 255);
+			preview.setStyle(Paint.Style.STROKE);
+			preview.setStrokeWidth(2);
+
+			previewOver = new Paint(preview);
+			previewOver.setARGB(200, 255, 0, 0);
+
+			textLargeBold.setAntiAlias(true);
+			textLargeBold.setARGB(255, 255, 255, 255);
+			textLargeBold.setFakeBoldText(true);
+			textLargeBold.setTextSize(24);
+
+			textMedium.setAntiAlias(true);
+			textMedium.setARGB(255, 255, 255, 255);
+			textMedium.setTextSize(22);
+
+			textMediumBold.setAntiAlias(true);
+			textMediumBold.setARGB(255, 255, 255, 255);
+			textMediumBold.setFakeBoldText(true);
+			textMediumBold.setTextSize(22);
+
+			textSmallBold.setAntiAlias(true);
+			textSmallBold.setARGB(255, 255, 255, 255);
+			textSmallBold.setFakeBoldText(true);
+			textSmallBold.setTextSize(16);
+
+			frame.setFilterBitmap(true);
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package com.appspot.mathuzzles.risingnumbers;
+
+import java.io.File;
+
+import com.appspot.mathuzzles.risingnumbers.metrics.Counter;
+import com.appspot.mathuzzles.risingnumbers.metrics.FileMetricsExporter;
+import com.appspot.mathuzzles.risingnumbers.metrics.Gauge;
+import com.appspot.mathuzzles.risingnumbers.metrics.Histogram;
+import com.appspot.mathuzzles.risingnumbers.metrics.MetricsExporter;
+import com.appspot.mathuzzles.risingnumbers.metrics.MetricsRegistry;
+import com.appspot.mathuzzles.risingnumbers.metrics.MetricsReporter;
+
+/**
+ * Counts of what happens in play and how long saving and loading take, kept
+ * for the process and written to a local file now and then.
+ *
+ * Recording is a striped add or a histogram record, so it stays on in
+ * release builds.
+ */
+final class GameMetrics {
+
+	private static final String FILE_NAME = "metrics.csv";
+	private static final long MAX_FILE_BYTES = 64 * 1024;
+	private static final long REPORT_MILLIS = 60 * 1000;
+
+	static final MetricsRegistry REGISTRY = new MetricsRegistry();
+
+	// Play
+	static final Counter SHOTS = REGISTRY.counter("shots");
+	static final Counter DIVIDES = REGISTRY.counter("divides");
+	static final Counter BALLS_REMOVED = REGISTRY.counter("ballsRemoved");
+	static final Counter STICKS = REGISTRY.counter("sticks");
+	static final Counter POINTS_REMOVED = REGISTRY.counter("pointsRemoved");
+	static final Counter BOARDS_CLEARED = REGISTRY.counter("boardsCleared");
+	static final Gauge BOARD_BALLS = REGISTRY.gauge("boardBalls");
+
+	// Multi play
+	static final Counter BALLS_SENT = REGISTRY.counter("ballsSent");
+	static final Counter BALLS_RECEIVED = REGISTRY.counter("ballsReceived");
+
+	// Game thread
+	static final Counter FRAMES = REGISTRY.counter("frames");
+	static final Counter STEPS = REGISTRY.counter("steps");
+	static final Counter GAME_CPU_MILLIS = REGISTRY.counter("gameCpuMillis");
+
+	// Files
+	static final Histogram SAVE_MICROS = REGISTRY.histogram("saveMicros");
+	static final Histogram LOAD_MICROS = REGISTRY.histogram("loadMicros");
+
+	private static MetricsReporter reporter = null;
+
+	private GameMetrics() {
+	}
+
+	/**
+	 * Start writing snapshots to the metrics file in the given directory,
+	 * once per process.
+	 */
+	static synchronized void start(File directory) {
+		if (reporter == null) {
+			start(new FileMetricsExporter(new File(directory, FILE_NAME),
+					MAX_FILE_BYTES));
+		}
+	}
+
+	/**
+	 * Start writing snapshots to the given exporter, once per process.
+	 */
+	static synchronized void start(MetricsExporter exporter) {
+		if (reporter == null) {
+			reporter = new MetricsReporter(REGISTRY, exporter, REPORT_MILLIS);
+			reporter.start();
+		}
+	}
+
+	/**
+	 * Write a snapshot now, e.g. before the app is paused.
+	 */
+	static synchronized void reportNow() {
+		if (reporter != null) {
+			reporter.reportNow();
+		}
+	}
+}
@@ -8,19 +8,35 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Random;
 
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.util.EntityUtils;
 
 import com.appspot.mathuzzles.risingnumbers.R;
+import com.appspot.mathuzzles.risingnumbers.bot.ShotSearch;
+import com.appspot.mathuzzles.risingnumbers.metrics.Histogram;
+import com.appspot.mathuzzles.risingnumbers.metrics.Trace;
 import com.appspot.mathuzzles.risingnumbers.model.Ball;
+import com.appspot.mathuzzles.risingnumbers.model.BoardPregenerator;
+import com.appspot.mathuzzles.risingnumbers.model.Game;
+import com.appspot.mathuzzles.risingnumbers.model.GameConfig;
+import com.appspot.mathuzzles.risingnumbers.model.Hints;
+import com.appspot.mathuzzles.risingnumbers.model.Replay;
+import com.appspot.mathuzzles.risingnumbers.model.ShotPreview;
+import com.appspot.mathuzzles.risingnumbers.multiplay.LanPeer;
+import com.appspot.mathuzzles.risingnumbers.multiplay.MultiPlayProtocol;
+import com.appspot.mathuzzles.risingnumbers.multiplay.NetworkStats;
 
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Rect;
 import android.graphics.Canvas;
 import android.graphics.Paint;
+import android.os.Debug;
+import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.GestureDetector;
@@ -38,6 +54,17 @@ import android.view.GestureDetector.SimpleOnGestureListener;
  */
 class GameView extends SurfaceView implements SurfaceHolder.Callback {
 
+	// Trace spans
+	private static final int TRACE_SLEEP = Trace.name("sleep");
+	private static final int TRACE_LOCK_CANVAS = Trace.name("lockCanvas");
+	private static final int TRACE_LOCK_WAIT = Trace.name("waitForLock");
+	private static final int TRACE_STEP = Trace.name("incrementBoard");
+	private static final int TRACE_DRAW = Trace.name("doDraw");
+	private static final int TRACE_POST = Trace.name("unlockCanvasAndPost");
+	private static final int TRACE_SAVE_HIGH_SCORE = Trace
+			.name("saveHighScore");
+	private static final int TRACE_REQUEST = Trace.name("sendRequest");
+
 	class GameThread extends Thread {
 
 		// State-tracking constants
@@ -45,63 +72,116 @@ class GameView extends SurfaceView implements SurfaceHolder.Callback {
 		public static final int STATE_PAUSE = 2;
 		public static final int STATE_RUNNING = 3;
 
+		/** Shots taken back by rewind */
+		public static final int REWIND_SHOTS = 10;
+
 		// Set-up constants
-		private static final int BALLS_IN_ROW = 6;
-		private static final int NEW_BALL_MAX = 25;
-		private static final int BALLS_IN_QUEUE = 3;
-		private static final int ANIMATION_MILLIS = 20;
-		private static final int BALL_SPACING = 48;
 		private static final int KEYBOARD_SPACING = 12;
-		private static final int STARTING_BALL_SPACING_LEFT = 12;
-		private static final int MARGIN_LEFT = 18;
-		private static final int MARGIN_RIGHT = 282;
-		private static final int MARGIN_TOP = 18;
-		private static final int QUEUE_Y = 282;
-		private static final int Y_DELTA = 1;
-		private static final int BALL_RADIUS = 15;
-		private static final int BALL_DISTANCE = BALL_RADIUS * 2;
-		private static final int CLEAR_BOARD_BONUS = 1000;
-		private static final int POINTS_TO_REMOVE = 100;
-
-		// Running game fields
-		private Ball currBall = null;
-		private ArrayList<Ball> balls = new ArrayList<Ball>();
-		private ArrayList<Ball> ballsInQueue = new ArrayList<Ball>();
-		private int points = 0;
+		private static final int BALL_RADIUS = Game.BALL_RADIUS;
+		private static final int AUTO_PLAY_SEARCH_MILLIS = 100;
+		private static final int AUTO_PLAY_SHOT_MILLIS = 400;
+		private static final int FRAME_STATS_MILLIS = 1000;
+		private static final int TEXT_HEIGHT = 110;
+
+		/** Frames are drawn this wide, then scaled to the surface */
+		private static final int FRAME_WIDTH = 320;
+		private static final int MIN_FRAME_HEIGHT = Game.BOARD_HEIGHT
+				+ TEXT_HEIGHT;
+
+		// Running game fields, the game is kept for the process
+		private Game game = GameHolder.getGame();
 		private int highScore = 0;
-		private boolean isGameOver = false;
+		private boolean highScoreLoaded = false;
+		private boolean highScoreLoading = false;
 		private boolean isGameWon = false;
 		private float moveX = 0;
 		private float moveY = 0;
-		private int lastX = 0;
 		private boolean shooting = false;
+		private int pointsDisplayed = -1;
+
+		/** Time of the oldest touch sample not moved yet, 0 if none */
+		private long moveTime = 0;
+
+		/** Time of the touch sample the frame being drawn shows, 0 if none */
+		private long presentedMoveTime = 0;
 
-		/** Used to figure out elapsed time between frames */
-		private long mLastTime;
+		/** Touch sample to frame posted, in milliseconds */
+		private Histogram inputMillis = new Histogram();
 
-		// Multiplay game status
-		private int PENDING = 1;
-		private int IN_PLAY = 2;
-		private int OPPONENT_LOST_CONNECTION = 3;
-		private int USER_WON = 4;
-		private int USER_LOST = 5;
+		/** When to step and draw */
+		private FrameScheduler scheduler = new FrameScheduler();
+
+		// Session accounting, from the thread starting
+		private long sessionStartMillis = 0;
+		private long sessionCpuNanos = 0;
+		private long sessionFrames = 0;
+		private long sessionSteps = 0;
 
 		// Multiplay fields
 		private String multiPlayUserId = "";
 		private int multiPlayGameStatus = 0;
 		private boolean multiPlayGameStarted = false;
-		private boolean isPlayOnline = false;
-		private ArrayList<Ball> ballsFromOpponent = new ArrayList<Ball>();
-		private ArrayList<Ball> ballsToOpponent = new ArrayList<Ball>();
+		private boolean isPlayLan = false;
+		private NetworkStats networkStats = new NetworkStats();
+		private boolean showNetworkStats = false;
+
+		// Frame stats lines, rebuilt once a second rather than each frame
+		private String[] frameStatsLines = new String[] { "", "", "" };
+		private long frameStatsMillis = 0;
+
+		// Auto play fields
+		private boolean autoPlay = false;
+		private Ball autoPlayBall = null;
+		private long autoPlayBallTime = 0;
+		private ShotSearch.Shot autoPlayShot = null;
+
+		// Endless fields
+		private boolean endless = false;
+		private int surfaceWidth = 0;
+		private int surfaceHeight = 0;
+		private float boardScale = 1;
+
+		/**
+		 * The frame drawn at a fixed size and scaled to the surface in one
+		 * draw, so drawing costs the same whatever the screen's resolution.
+		 * Its height follows the surface's shape.
+		 */
+		private Bitmap frame = null;
+		private Canvas frameCanvas = null;
+		private int frameHeight = MIN_FRAME_HEIGHT;
+		private float frameScale = 1;
+		private Rect frameRect = new Rect();
+
+		/** Board balls drawn once per change of the board */
+		private Bitmap boardLayer = null;
+		private Canvas boardLayerCanvas = null;
+		private int boardLayerVersion = -1;
+
+		/** Time of each step and drawing in microseconds */
+		private Histogram stepMicros = new Histogram();
+		private Histogram drawMicros = new Histogram();
+
+		// Hint fields
+		private boolean showHints = false;
+		private Hints hints = new Hints();
+
+		// Aiming fields
+		private boolean aiming = false;
+		private ShotPreview shotPreview = new ShotPreview();
 
 		// Colors
 		private Paint mClearColor;
 		private Paint mGreyColor;
 		private Paint mBallColor;
+		private Paint mHintColor;
+		private Paint mQueueHintColor;
+		private Paint mPreviewColor;
+		private Paint mPreviewOverColor;
 		private Paint mTextColorSmallBold;
 		private Paint mTextColorMedium;
 		private Paint mTextColorMediumBold;
 		private Paint mTextColorLargeBold;
+		private Paint mFramePaint;
 
 		/** The state of the game. One of running, pause, or game over. */
 		private int mMode;
@@ -113,56 +193,102 @@ class GameView extends SurfaceView implements SurfaceHolder.Callback {
 		private SurfaceHolder mSurfaceHolder;
 
 		// Points display (so strings don't need to be created with each drawing
-		// pass)
-		private String pointsDisplay = "";
+		// pass, or each time the points change)
+		private char[] pointsDisplay = new char[32];
+		private int pointsDisplayLength = 0;
+		private int pointsPrefixLength = -1;
 		private String highScoreDisplay = "";
+		private String levelDisplay = "";
+		private int levelDisplayed = -1;
 
 		private Random random = new Random();
 
 		public MultiPlayConnectionThread multiPlayConnectionThread = null;
+		public LanPeerThread lanPeerThread = null;
+		public AutoPlayThread autoPlayThread = null;
+		public BoardPregenerator boardPregenerator = null;
 		public boolean oneLastConnection = false;
 
 		public GameThread(SurfaceHolder surfaceHolder, Context context) {
 			mSurfaceHolder = surfaceHolder;
 			mContext = context;
 
-			multiPlayConnectionThread = new MultiPlayConnectionThread();
-
-			// Initialize paints
-			mClearColor = new Paint();
-			mClearColor.setAntiAlias(true);
-			mClearColor.setARGB(255, 0, 0, 0);
-
-			mGreyColor = new Paint();
-			mGreyColor.setAntiAlias(true);
-			mGreyColor.setARGB(255, 20, 20, 20);
-
-			mBallColor = new Paint();
-			mBallColor.setAntiAlias(true);
-			mBallColor.setARGB(255, 0, 0, 255);
-
-			mTextColorLargeBold = new Paint();
-			mTextColorLargeBold.setAntiAlias(true);
-			mTextColorLargeBold.setARGB(255, 255, 255, 255);
-			mTextColorLargeBold.setFakeBoldText(true);
-			mTextColorLargeBold.setTextSize(24);
-
-			mTextColorMedium = new Paint();
-			mTextColorMedium.setAntiAlias(true);
-			mTextColorMedium.setARGB(255, 255, 255, 255);
-			mTextColorMedium.setTextSize(22);
+			game.setListener(new GameListener());
+
+			// Paints, made once for the process
+			GameHolder.Paints paints = GameHolder.getPaints();
+			mClearColor = paints.clear;
+			mGreyColor = paints.grey;
+			mBallColor = paints.ball;
+			mHintColor = paints.hint;
+			mQueueHintColor = paints.queueHint;
+			mPreviewColor = paints.preview;
+			mPreviewOverColor = paints.previewOver;
+			mTextColorLargeBold = paints.textLargeBold;
+			mTextColorMedium = paints.textMedium;
+			mTextColorMediumBold = paints.textMediumBold;
+			mTextColorSmallBold = paints.textSmallBold;
+			mFramePaint = paints.frame;
+		}
 
-			mTextColorMediumBold = new Paint();
-			mTextColorMediumBold.setAntiAlias(true);
-			mTextColorMediumBold.setARGB(255, 255, 255, 255);
-			mTextColorMediumBold.setFakeBoldText(true);
-			mTextColorMediumBold.setTextSize(22);
+		/**
+		 * Keep this thread's state with the game, for the next game thread of
+		 * the process to carry on from.
+		 */
+		public void keepState() {
+			synchronized (mSurfaceHolder) {
+				GameHolder.ViewState state = new GameHolder.ViewState();
+				state.mode = mMode;
+				state.isGameWon = isGameWon;
+				state.moveX = moveX;
+				state.moveY = moveY;
+				state.shooting = shooting;
+				state.isPlayLan = isPlayLan;
+				state.endless = endless;
+				state.highScore = highScore;
+				state.multiPlayUserId = multiPlayUserId;
+				state.multiPlayGameStatus = multiPlayGameStatus;
+				state.multiPlayGameStarted = multiPlayGameStarted;
+				state.oneLastConnection = oneLastConnection;
+				state.networkStats = networkStats;
+				state.batterySaver = scheduler.isBatterySaver();
+				GameHolder.keepViewState(state);
+			}
+		}
 
-			mTextColorSmallBold = new Paint();
-			mTextColorSmallBold.setAntiAlias(true);
-			mTextColorSmallBold.setARGB(255, 255, 255, 255);
-			mTextColorSmallBold.setFakeBoldText(true);
-			mTextColorSmallBold.setTextSize(16);
+		/**
+		 * Carry on from the state kept by the last game thread. Nothing is
+		 * read from disk.
+		 * 
+		 * @return false if no state was kept
+		 */
+		public boolean restoreKeptState() {
+			GameHolder.ViewState state = GameHolder.getViewState();
+			if (state == null) {
+				return false;
+			}
+			synchronized (mSurfaceHolder) {
+				mMode = state.mode;
+				isGameWon = state.isGameWon;
+				moveX = state.moveX;
+				moveY = state.moveY;
+				shooting = state.shooting;
+				isPlayLan = state.isPlayLan;
+				endless = state.endless;
+				highScore = state.highScore;
+				initHighScore();
+				multiPlayUserId = state.multiPlayUserId;
+				multiPlayGameStatus = state.multiPlayGameStatus;
+				multiPlayGameStarted = state.multiPlayGameStarted;
+				oneLastConnection = state.oneLastConnection;
+				networkStats = state.networkStats;
+				setPointsDisplay();
+				setLevelDisplay();
+				setHighScoreDisplay();
+				scheduler.setBatterySaver(state.batterySaver);
+				scheduler.resume(System.currentTimeMillis());
+			}
+			return true;
 		}
 
 		/**
@@ -171,49 +297,165 @@ class GameView extends SurfaceView implements SurfaceHolder.Callback {
 		public void doStart() {
 			synchronized (mSurfaceHolder) {
 
-				if (isPlayOnline) {
-					if (multiPlayConnectionThread.getState().equals(
-							Thread.State.TERMINATED)) {
-						multiPlayConnectionThread = new MultiPlayConnectionThread();
-						multiPlayConnectionThread.start();
-					}
+				if (game.isPlayOnline && !isPlayLan) {
+					startMultiPlayConnection();
 
 					// Set as 0 so always runs right away.
-					multiPlayConnectionThread.mConnectionLastTime = 0;
+					if (multiPlayConnectionThread != null) {
+						multiPlayConnectionThread.mConnectionLastTime = 0;
+					}
+				}
+
+				// Find a new peer for each LAN game.
+				if (lanPeerThread != null && mMode != STATE_PAUSE) {
+					lanPeerThread.finish();
+					lanPeerThread = null;
+				}
+				if (game.isPlayOnline && isPlayLan && lanPeerThread == null) {
+					lanPeerThread = new LanPeerThread();
+					lanPeerThread.start();
 				}
 
 				if (mMode != STATE_PAUSE) {
 					initHighScore();
-					createBoard();
-					lastX = MARGIN_LEFT + STARTING_BALL_SPACING_LEFT
-							+ (BALLS_IN_QUEUE * BALL_SPACING);
-					createNewBall();
-					points = 0;
+					game.setConfig(endless ? GameConfig.ENDLESS
+							: GameConfig.DEFAULT);
+					boardLayerVersion = -1;
+					stepMicros.reset();
+					drawMicros.reset();
+					game.start();
 					setPointsDisplay();
+					setLevelDisplay();
 					setHighScoreDisplay();
-					isGameOver = false;
 					isGameWon = false;
 					shooting = false;
 					moveX = 0;
 					moveY = 0;
 
 					// Multi play
-					ballsFromOpponent = new ArrayList<Ball>();
-					ballsToOpponent = new ArrayList<Ball>();
 					multiPlayUserId = new Long(random.nextLong()).toString();
-					multiPlayGameStatus = PENDING;
+					multiPlayGameStatus = MultiPlayProtocol.PENDING;
 					multiPlayGameStarted = false;
 					oneLastConnection = false;
 				}
-				mLastTime = System.currentTimeMillis();
+				scheduler.resume(System.currentTimeMillis());
 				setState(STATE_RUNNING);
 			}
 		}
 
 		/**
-		 * Get the high score from the file system.
+		 * Passes game events on to the multi play threads, and counts them.
+		 */
+		class GameListener implements Game.Listener {
+
+			public void onBallToOpponent(Ball ball) {
+				GameMetrics.BALLS_SENT.increment();
+				ball.shotAt = System.currentTimeMillis();
+				if (lanPeerThread != null) {
+					lanPeerThread.wakeup();
+				}
+			}
+
+			public void onGameOver() {
+				// Send one last request to indicate game over.
+				if (game.isPlayOnline && isPlayLan) {
+					if (lanPeerThread != null) {
+						lanPeerThread.wakeup();
+					}
+				} else if (game.isPlayOnline
+						&& multiPlayConnectionThread != null) {
+					// Set flags and then call interrupt.
+					oneLastConnection = true;
+					multiPlayConnectionThread.mConnectionLastTime = 0;
+					multiPlayConnectionThread.interrupt();
+				}
+			}
+
+			public void onShot() {
+				GameMetrics.SHOTS.increment();
+				GameMetrics.BOARD_BALLS.set(game.balls.size());
+			}
+
+			public void onDivide(boolean removed) {
+				GameMetrics.DIVIDES.increment();
+				if (removed) {
+					GameMetrics.BALLS_REMOVED.increment();
+				}
+			}
+
+			public void onStick() {
+				GameMetrics.STICKS.increment();
+			}
+
+			public void onPointsRemoved(int removed) {
+				GameMetrics.POINTS_REMOVED.increment();
+				GameMetrics.BALLS_REMOVED.add(removed);
+			}
+
+			public void onBoardCleared() {
+				GameMetrics.BOARDS_CLEARED.increment();
+			}
+		}
+
+		/**
+		 * Starts the multi play connection if it isn't running. Only made
+		 * for online play, so solo games make no networking objects.
+		 */
+		public void startMultiPlayConnection() {
+			synchronized (mSurfaceHolder) {
+				// Started with the surface if not running yet
+				if (!mRun) {
+					return;
+				}
+				if (multiPlayConnectionThread == null
+						|| multiPlayConnectionThread.getState() == Thread.State.TERMINATED) {
+					multiPlayConnectionThread = new MultiPlayConnectionThread();
+					multiPlayConnectionThread.start();
+				}
+			}
+		}
+
+		/**
+		 * Get the high score, read once per process on its own thread so the
+		 * first frame doesn't wait for the file.
 		 */
 		public void initHighScore() {
+			int kept = GameHolder.getHighScore();
+			if (kept >= 0) {
+				highScore = kept;
+				highScoreLoaded = true;
+				return;
+			}
+			highScoreLoaded = false;
+			if (highScoreLoading) {
+				return;
+			}
+			highScoreLoading = true;
+			Thread loader = new Thread("HighScoreLoader") {
+				@Override
+				public void run() {
+					int loaded = readHighScore();
+					synchronized (mSurfaceHolder) {
+						// checkHighScore may have read and beaten it already
+						highScore = Math.max(highScore, loaded);
+						GameHolder.setHighScore(highScore);
+						highScoreLoaded = true;
+						highScoreLoading = false;
+						setHighScoreDisplay();
+					}
+				}
+			};
+			loader.setDaemon(true);
+			loader.start();
+		}
+
+		/**
+		 * Read the high score from the file system.
+		 * 
+		 * @return the high score or 0 if there's none
+		 */
+		private int readHighScore() {
+			long start = System.nanoTime();
 			try {
 				FileInputStream fis = mContext
 						.openFileInput(RisingNumbers.HIGHSCORE_FILENAME);
@@ -222,7 +464,9 @@ class GameView extends SurfaceView implements SurfaceHolder.Callback {
 					if (in != null) {
 						Integer highScoreInteger = (Integer) in.readObject();
 						if (highScoreInteger != null) {
-							highScore = highScoreInteger.intValue();
+							GameMetrics.LOAD_MICROS.record((System.nanoTime()
+									- start) / 1000);
+							return highScoreInteger.intValue();
 						}
 					}
 				}
@@ -231,6 +475,7 @@ class GameView extends SurfaceView implements SurfaceHolder.Callback {
 						"Exception getting high score from file:"
 								+ e.toString());
 			}
+			return 0;
 		}
 
 		/**
@@ -260,27 +505,206 @@ class GameView extends SurfaceView implements SurfaceHolder.Callback {
 		 */
 		public void setIsPlayOnline(boolean playOnline) {
 			synchronized (mSurfaceHolder) {
-				isPlayOnline = playOnline;
+				game.isPlayOnline = playOnline;
 			}
 		}
 
 		/**
-		 * Set move.
+		 * Sets a flag indicating if online play is with a peer on the local
+		 * network rather than through the server.
 		 */
-		public void setMove(float x, float y) {
+		public void setIsPlayLan(boolean playLan) {
 			synchronized (mSurfaceHolder) {
-				moveX = x;
-				moveY = y;
+				isPlayLan = playLan;
 			}
 		}
 
+		/**
+		 * Sets a flag indicating if the network stats are shown.
+		 */
+		public void setShowNetworkStats(boolean show) {
+			synchronized (mSurfaceHolder) {
+				showNetworkStats = show;
+			}
+			scheduler.wakeup();
+		}
+
+		public boolean isShowNetworkStats() {
+			return showNetworkStats;
+		}
+
+		/**
+		 * Sets a flag indicating if a bot plays the game.
+		 */
+		public void setAutoPlay(boolean play) {
+			synchronized (mSurfaceHolder) {
+				autoPlay = play;
+				autoPlayBall = null;
+				autoPlayShot = null;
+				if (autoPlay && autoPlayThread == null) {
+					autoPlayThread = new AutoPlayThread();
+					autoPlayThread.start();
+				} else if (!autoPlay && autoPlayThread != null) {
+					autoPlayThread.finish();
+					autoPlayThread = null;
+				}
+			}
+			scheduler.wakeup();
+		}
+
+		public boolean isAutoPlay() {
+			return autoPlay;
+		}
+
+		/**
+		 * Undo the last shots of a solo game, one to take a shot back or more
+		 * to rewind. Carries on playing if the game was over.
+		 * 
+		 * @return shots undone
+		 */
+		public int undo(int shots) {
+			synchronized (mSurfaceHolder) {
+				int undone = 0;
+				while (undone < shots && game.undo()) {
+					undone++;
+				}
+				if (undone > 0) {
+					autoPlayBall = null;
+					shooting = false;
+					moveX = 0;
+					moveY = 0;
+					setPointsDisplay();
+					if (mMode == STATE_OVER) {
+						isGameWon = false;
+						scheduler.resume(System.currentTimeMillis());
+						setState(STATE_RUNNING);
+					}
+				}
+				return undone;
+			}
+		}
+
+		/**
+		 * Starts making the next level's boards ahead of time.
+		 */
+		public void startBoardPregenerator() {
+			synchronized (mSurfaceHolder) {
+				boardPregenerator = new BoardPregenerator();
+				boardPregenerator.start();
+				game.setPregenerator(boardPregenerator);
+			}
+		}
+
+		/**
+		 * Sets a flag indicating if the balls that can be divided are shown.
+		 */
+		public void setShowHints(boolean show) {
+			synchronized (mSurfaceHolder) {
+				showHints = show;
+			}
+		}
+
+		public boolean isShowHints() {
+			return showHints;
+		}
+
+		/**
+		 * Sets a flag indicating if the next game is endless, on a bigger
+		 * board that gets new rows.
+		 */
+		public void setEndless(boolean isEndless) {
+			synchronized (mSurfaceHolder) {
+				endless = isEndless;
+			}
+		}
+
+		/**
+		 * Sets the size of the surface, to fit bigger boards to.
+		 */
+		public void setSurfaceSize(int width, int height) {
+			synchronized (mSurfaceHolder) {
+				surfaceWidth = width;
+				surfaceHeight = height;
+				boardLayerVersion = -1;
+
+				// As wide as the frame, as tall as the surface at that scale
+				frameHeight = Math.max(MIN_FRAME_HEIGHT, height * FRAME_WIDTH
+						/ Math.max(1, width));
+				frameScale = Math.min((float) width / FRAME_WIDTH,
+						(float) height / frameHeight);
+				int frameLeft = (int) ((width - FRAME_WIDTH * frameScale) / 2);
+				frameRect.set(frameLeft, 0, width - frameLeft,
+						(int) (frameHeight * frameScale));
+			}
+			scheduler.wakeup();
+		}
+
+		/**
+		 * Get the replay of the current game.
+		 */
+		public Replay getReplay() {
+			synchronized (mSurfaceHolder) {
+				return game.getReplay().copy();
+			}
+		}
+
+		/**
+		 * Get network stats for multi play.
+		 */
+		public NetworkStats getNetworkStats() {
+			return networkStats;
+		}
+
+		/**
+		 * Add to the move for the next step. Moves add up until a step
+		 * takes them, so none are lost between frames.
+		 * 
+		 * @param eventTime
+		 *            uptime of the touch sample
+		 */
+		public void addMove(float x, float y, long eventTime) {
+			synchronized (mSurfaceHolder) {
+				// From screen to board distance
+				moveX += x / (frameScale * boardScale);
+				moveY += y / (frameScale * boardScale);
+				if (moveTime == 0) {
+					moveTime = eventTime;
+				}
+				aiming = true;
+			}
+			scheduler.wakeup();
+		}
+
+		/**
+		 * Time from a touch to the frame showing it being posted, in
+		 * milliseconds.
+		 */
+		public Histogram getInputLatency() {
+			return inputMillis;
+		}
+
+		/**
+		 * Set if the player is dragging the ball, to show where it would
+		 * land.
+		 */
+		public void setAiming(boolean isAiming) {
+			synchronized (mSurfaceHolder) {
+				aiming = isAiming;
+			}
+			scheduler.wakeup();
+		}
+
 		/**
 		 * Set if shooting.
 		 */
 		public void setShooting(boolean aShooting) {
 			synchronized (mSurfaceHolder) {
 				shooting = aShooting;
+				if (aShooting) {
+					aiming = false;
+				}
 			}
+			scheduler.wakeup();
 		}
 
 		/**
@@ -292,15 +716,20 @@ class GameView extends SurfaceView implements SurfaceHolder.Callback {
 		public synchronized void restoreState(HashMap<String, Object> savedGame) {
 			synchronized (mSurfaceHolder) {
 				try {
-					currBall = (Ball) savedGame.get(RisingNumbers.CURR_BALL);
-					balls = (ArrayList<Ball>) savedGame
+					endless = Boolean.TRUE.equals(savedGame
+							.get(RisingNumbers.IS_ENDLESS));
+					game.setConfig(endless ? GameConfig.ENDLESS
+							: GameConfig.DEFAULT);
+					game.currBall = (Ball) savedGame.get(RisingNumbers.CURR_BALL);
+					game.balls = (ArrayList<Ball>) savedGame
 							.get(RisingNumbers.BALLS);
-					ballsInQueue = (ArrayList<Ball>) savedGame
+					game.ballsInQueue = (ArrayList<Ball>) savedGame
 							.get(RisingNumbers.BALLS_IN_QUEUE);
-					points = (Integer) savedGame
+					game.rehash();
+					game.points = (Integer) savedGame
 							.get(RisingNumbers.CURRENT_POINTS);
 					setPointsDisplay();
-					isGameOver = (Boolean) savedGame
+					game.isGameOver = (Boolean) savedGame
 							.get(RisingNumbers.IS_GAME_OVER);
 					isGameWon = (Boolean) savedGame
 							.get(RisingNumbers.IS_GAME_WON);
@@ -308,20 +737,39 @@ class GameView extends SurfaceView implements SurfaceHolder.Callback {
 					moveY = (Float) savedGame.get(RisingNumbers.MOVE_Y);
 					shooting = (Boolean) savedGame
 							.get(RisingNumbers.IS_SHOOTING);
-					lastX = (Integer) savedGame.get(RisingNumbers.LAST_X);
-					isPlayOnline = (Boolean) savedGame
+					game.lastX = (Integer) savedGame.get(RisingNumbers.LAST_X);
+					game.isPlayOnline = (Boolean) savedGame
 							.get(RisingNumbers.IS_PLAY_ONLINE);
+					isPlayLan = Boolean.TRUE.equals(savedGame
+							.get(RisingNumbers.IS_PLAY_LAN));
 					multiPlayGameStatus = (Integer) savedGame
 							.get(RisingNumbers.MULTI_PLAY_GAME_STATUS);
 					multiPlayGameStarted = (Boolean) savedGame
 							.get(RisingNumbers.MULTI_PLAY_GAME_STARTED);
 					multiPlayUserId = (String) savedGame
 							.get(RisingNumbers.MULTI_PLAY_USER_ID);
-					ballsToOpponent = (ArrayList<Ball>) savedGame
+					game.ballsToOpponent = (ArrayList<Ball>) savedGame
 							.get(RisingNumbers.BALLS_TO_OPPONENT);
-					ballsFromOpponent = (ArrayList<Ball>) savedGame
+					game.ballsFromOpponent = (ArrayList<Ball>) savedGame
 							.get(RisingNumbers.BALLS_FROM_OPPONENT);
 
+					Integer level = (Integer) savedGame.get(RisingNumbers.LEVEL);
+					game.level = level != null ? level : 1;
+					setLevelDisplay();
+
+					// Keep recording the same replay
+					Replay replay = (Replay) savedGame.get(RisingNumbers.REPLAY);
+					Integer ballIndex = (Integer) savedGame
+							.get(RisingNumbers.BALL_INDEX);
+					Integer boardIndex = (Integer) savedGame
+							.get(RisingNumbers.BOARD_INDEX);
+					if (replay != null && ballIndex != null
+							&& boardIndex != null) {
+						game.setReplay(replay);
+						game.restoreStreams(replay.getSeed(), ballIndex,
+								boardIndex);
+					}
+
 					initHighScore();
 					setHighScoreDisplay();
 				} catch (Exception e) {
@@ -336,48 +784,70 @@ class GameView extends SurfaceView implements SurfaceHolder.Callback {
 
 		@Override
 		public void run() {
+			Trace.nameThread("GameThread");
+			startSession();
 			while (mRun) {
 
-				// Keep ball movement at interval
-				long elapsedTime = System.currentTimeMillis() - mLastTime;
-				if (elapsedTime < ANIMATION_MILLIS) {
+				// Wait for the next frame, or until woken by input
+				long wait = scheduler.getWaitMillis(System.currentTimeMillis());
+				if (wait > 0) {
+					Trace.begin(TRACE_SLEEP);
 					try {
-						Thread.sleep((ANIMATION_MILLIS - elapsedTime));
+						scheduler.sleep(wait);
 					} catch (InterruptedException e) {
 						Log.e(this.getClass().getName(),
 								"Exception while game thread was sleeping:"
 										+ e.toString());
 					}
+					Trace.end(TRACE_SLEEP);
+					continue;
 				}
 
-				mLastTime = System.currentTimeMillis();
-
+				long now = System.currentTimeMillis();
+				boolean running = false;
+				boolean active = false;
 				Canvas c = null;
 				try {
+					Trace.begin(TRACE_LOCK_CANVAS);
 					c = mSurfaceHolder.lockCanvas();
+					Trace.end(TRACE_LOCK_CANVAS);
 
 					if (c != null) {
+						Trace.begin(TRACE_LOCK_WAIT);
 						synchronized (mSurfaceHolder) {
-							if (mMode == STATE_RUNNING) {
-								if (isPlayOnline && !multiPlayGameStarted) {
-									c.drawPaint(mClearColor);
-									drawWaitingForOpponent(c);
-								} else {
+							Trace.end(TRACE_LOCK_WAIT);
+							if (mMode == STATE_RUNNING
+									&& !isWaitingForOpponent()) {
+								running = true;
+								active = aiming || shooting || autoPlay
+										|| moveX != 0 || moveY != 0;
+								int version = game.getVersion();
+
+								// Every step due, the game keeps its speed
+								long start = System.nanoTime();
+								Trace.begin(TRACE_STEP);
+								int steps = scheduler.takeSteps(now);
+								for (int i = 0; i < steps
+										&& mMode == STATE_RUNNING; i++) {
 									incrementBoard();
-									doDraw(c);
 								}
-							} else if (mMode == STATE_PAUSE) {
-								// Clear screen
-								c.drawPaint(mClearColor);
-								drawPaused(c);
-							} else if (mMode == STATE_OVER) {
-								doDraw(c);
+								sessionSteps += steps;
+								Trace.end(TRACE_STEP);
+								long stepped = System.nanoTime();
+								active |= game.getVersion() != version;
 
-								if (isGameWon) {
-									drawGameWon(c);
-								} else {
-									drawGameOver(c);
+								Trace.begin(TRACE_DRAW);
+								doDraw(c);
+								Trace.end(TRACE_DRAW);
+								if (steps > 0) {
+									stepMicros.record((stepped - start)
+											/ 1000 / steps);
 								}
+								drawMicros.record((System.nanoTime()
+										- stepped) / 1000);
+							} else {
+								// Paused, waiting or over
+								doDraw(c);
 							}
 						}
 					}
@@ -387,10 +857,62 @@ class GameView extends SurfaceView implements SurfaceHolder.Callback {
 					// during the above, the Surface is not in an inconsistent
 					// state
 					if (c != null) {
+						Trace.begin(TRACE_POST);
 						mSurfaceHolder.unlockCanvasAndPost(c);
+						Trace.end(TRACE_POST);
+						sessionFrames++;
+						StartupTrace.frameDrawn();
+						if (presentedMoveTime != 0) {
+							inputMillis.record(SystemClock.uptimeMillis()
+									- presentedMoveTime);
+							presentedMoveTime = 0;
+						}
 					}
 				}
+				scheduler.frameDrawn(now, running, active);
+			}
+			endSession();
+		}
+
+		/**
+		 * Start counting frames, steps and CPU time of this thread.
+		 */
+		private void startSession() {
+			sessionStartMillis = SystemClock.uptimeMillis();
+			sessionCpuNanos = Debug.threadCpuTimeNanos();
+			sessionFrames = 0;
+			sessionSteps = 0;
+		}
+
+		/**
+		 * CPU time of this thread since the session started, in
+		 * milliseconds, or -1 if it can't be measured. Only for the game
+		 * thread to call.
+		 */
+		private long getSessionCpuMillis() {
+			long cpuNanos = Debug.threadCpuTimeNanos();
+			if (cpuNanos < 0 || sessionCpuNanos < 0) {
+				return -1;
 			}
+			return (cpuNanos - sessionCpuNanos) / 1000000;
+		}
+
+		/**
+		 * Log what the session used and add it to the metrics.
+		 */
+		private void endSession() {
+			long millis = Math.max(1, SystemClock.uptimeMillis()
+					- sessionStartMillis);
+			long cpuMillis = getSessionCpuMillis();
+			GameMetrics.FRAMES.add(sessionFrames);
+			GameMetrics.STEPS.add(sessionSteps);
+			if (cpuMillis >= 0) {
+				GameMetrics.GAME_CPU_MILLIS.add(cpuMillis);
+			}
+			Log.i(this.getClass().getName(), "Session: " + millis + " ms, "
+					+ sessionFrames + " frames, " + sessionSteps
+					+ " steps, CPU " + cpuMillis + " ms"
+					+ (scheduler.isBatterySaver() ? ", battery saver" : ""));
 		}
 
 		/**
@@ -401,25 +923,34 @@ class GameView extends SurfaceView implements SurfaceHolder.Callback {
 		public HashMap<String, Object> getGameState() {
 			HashMap<String, Object> gameSate = new HashMap<String, Object>();
 			synchronized (mSurfaceHolder) {
-				gameSate.put(RisingNumbers.CURR_BALL, currBall);
-				gameSate.put(RisingNumbers.BALLS, balls);
-				gameSate.put(RisingNumbers.BALLS_IN_QUEUE, ballsInQueue);
-				gameSate.put(RisingNumbers.CURRENT_POINTS, points);
-				gameSate.put(RisingNumbers.IS_GAME_OVER, isGameOver);
+				// Copies, the game goes on while they're written out
+				gameSate.put(RisingNumbers.CURR_BALL, game.currBall.copy());
+				gameSate.put(RisingNumbers.BALLS, Game.copyBalls(game.balls));
+				gameSate.put(RisingNumbers.BALLS_IN_QUEUE, Game
+						.copyBalls(game.ballsInQueue));
+				gameSate.put(RisingNumbers.CURRENT_POINTS, game.points);
+				gameSate.put(RisingNumbers.IS_GAME_OVER, game.isGameOver);
 				gameSate.put(RisingNumbers.IS_GAME_WON, isGameWon);
 				gameSate.put(RisingNumbers.MOVE_X, moveX);
 				gameSate.put(RisingNumbers.MOVE_Y, moveY);
 				gameSate.put(RisingNumbers.IS_SHOOTING, shooting);
-				gameSate.put(RisingNumbers.LAST_X, lastX);
-				gameSate.put(RisingNumbers.IS_PLAY_ONLINE, isPlayOnline);
+				gameSate.put(RisingNumbers.LAST_X, game.lastX);
+				gameSate.put(RisingNumbers.IS_PLAY_ONLINE, game.isPlayOnline);
+				gameSate.put(RisingNumbers.IS_PLAY_LAN, isPlayLan);
+				gameSate.put(RisingNumbers.IS_ENDLESS, endless);
+				gameSate.put(RisingNumbers.LEVEL, game.level);
 				gameSate.put(RisingNumbers.MULTI_PLAY_GAME_STATUS,
 						multiPlayGameStatus);
 				gameSate.put(RisingNumbers.MULTI_PLAY_GAME_STARTED,
 						multiPlayGameStarted);
 				gameSate.put(RisingNumbers.MULTI_PLAY_USER_ID, multiPlayUserId);
-				gameSate.put(RisingNumbers.BALLS_TO_OPPONENT, ballsToOpponent);
-				gameSate.put(RisingNumbers.BALLS_FROM_OPPONENT,
-						ballsFromOpponent);
+				gameSate.put(RisingNumbers.BALLS_TO_OPPONENT, Game
+						.copyBalls(game.ballsToOpponent));
+				gameSate.put(RisingNumbers.BALLS_FROM_OPPONENT, Game
+						.copyBalls(game.ballsFromOpponent));
+				gameSate.put(RisingNumbers.REPLAY, game.getReplay().copy());
+				gameSate.put(RisingNumbers.BALL_INDEX, game.getBallIndex());
+				gameSate.put(RisingNumbers.BOARD_INDEX, game.getBoardIndex());
 			}
 			return gameSate;
 		}
@@ -435,6 +966,7 @@ class GameView extends SurfaceView implements SurfaceHolder.Callback {
 		 */
 		public void setRunning(boolean b) {
 			mRun = b;
+			scheduler.wakeup();
 		}
 
 		/**
@@ -448,6 +980,19 @@ class GameView extends SurfaceView implements SurfaceHolder.Callback {
 			synchronized (mSurfaceHolder) {
 				mMode = mode;
 			}
+			scheduler.wakeup();
+		}
+
+		/**
+		 * Sets if frames are drawn less often to save battery. The game
+		 * plays at the same speed.
+		 */
+		public void setBatterySaver(boolean batterySaver) {
+			scheduler.setBatterySaver(batterySaver);
+		}
+
+		public boolean isBatterySaver() {
+			return scheduler.isBatterySaver();
 		}
 
 		/**
@@ -457,7 +1002,7 @@ class GameView extends SurfaceView implements SurfaceHolder.Callback {
 			synchronized (mSurfaceHolder) {
 
 				// Give 100 millsecond delay
-				mLastTime = System.currentTimeMillis() + 100;
+				scheduler.resume(System.currentTimeMillis() + 100);
 			}
 			setState(STATE_RUNNING);
 		}
@@ -472,6 +1017,7 @@ class GameView extends SurfaceView implements SurfaceHolder.Callback {
 		 * @return true
 		 */
 		boolean doKeyDown(int keyCode, KeyEvent msg) {
+			scheduler.wakeup();
 			synchronized (mSurfaceHolder) {
 
 				if (mMode == STATE_RUNNING) {
@@ -484,20 +1030,17 @@ class GameView extends SurfaceView implements SurfaceHolder.Callback {
 					// left/q -> left
 					else if (keyCode == KeyEvent.KEYCODE_DPAD_LEFT
 							|| keyCode == KeyEvent.KEYCODE_Q) {
-						currBall.x -= KEYBOARD_SPACING;
-						if (currBall.x < MARGIN_LEFT) {
-							currBall.x = MARGIN_LEFT;
-						}
+						// Moved on the next step so it's in the replay
+						moveX += KEYBOARD_SPACING;
+						aiming = true;
 						return true;
 
 					}
 					// right/w -> right
 					else if (keyCode == KeyEvent.KEYCODE_DPAD_RIGHT
 							|| keyCode == KeyEvent.KEYCODE_W) {
-						currBall.x += KEYBOARD_SPACING;
-						if (currBall.x > MARGIN_RIGHT) {
-							currBall.x = MARGIN_RIGHT;
-						}
+						moveX -= KEYBOARD_SPACING;
+						aiming = true;
 						return true;
 
 					} // up -> pause
@@ -526,51 +1069,35 @@ class GameView extends SurfaceView implements SurfaceHolder.Callback {
 		 * Set points display.
 		 */
 		public void setPointsDisplay() {
-			pointsDisplay = mContext.getString(R.string.points) + " " + points;
+			if (pointsPrefixLength < 0) {
+				String prefix = mContext.getString(R.string.points) + " ";
+				pointsPrefixLength = Math.min(prefix.length(),
+						pointsDisplay.length - 11);
+				prefix.getChars(0, pointsPrefixLength, pointsDisplay, 0);
+			}
+			pointsDisplayLength = pointsPrefixLength
+					+ NumberText.format(game.points, pointsDisplay,
+							pointsPrefixLength);
+			pointsDisplayed = game.points;
 
 		}
 
 		/**
-		 * Set high score display.
+		 * Set level display.
 		 */
-		public void setHighScoreDisplay() {
-			highScoreDisplay = mContext.getString(R.string.highScore) + " "
-					+ highScore;
-
+		public void setLevelDisplay() {
+			levelDisplay = mContext.getString(R.string.level) + " "
+					+ game.level;
+			levelDisplayed = game.level;
 		}
 
 		/**
-		 * Create a new ball.
+		 * Set high score display.
 		 */
-		private void createNewBall() {
-
-			// Get latest from regular queue
-			currBall = ballsInQueue.remove(ballsInQueue.size() - 1);
-
-			// For new ball to queue, if mulitplay, get from opponents balls.
-			// Else, create a new ball.
-			Ball newBall;
-			if (isPlayOnline && ballsFromOpponent.size() > 0) {
-				// Get oldest from opponent balls
-				newBall = ballsFromOpponent.remove(0);
-			} else {
-				// Create new ball
-				newBall = new Ball();
-				newBall.number = generateRandom(NEW_BALL_MAX) + 2;
-			}
-
-			newBall.y = QUEUE_Y;
-			ballsInQueue.add(0, newBall);
-
-			// Move up rest of queue
-			int x = MARGIN_LEFT + STARTING_BALL_SPACING_LEFT;
-			int size = ballsInQueue.size();
-			for (int i = 0; i < size; i++) {
-				ballsInQueue.get(i).x = x;
-				x += BALL_SPACING;
-			}
+		public void setHighScoreDisplay() {
+			highScoreDisplay = mContext.getString(R.string.highScore) + " "
+					+ highScore;
 
-			currBall.x = lastX;
 		}
 
 		private void drawPaused(Canvas canvas) {
@@ -585,6 +1112,51 @@ class GameView extends SurfaceView implements SurfaceHolder.Callback {
 					45, 110, mTextColorMedium);
 		}
 
+		private void drawNoOpponent(Canvas canvas) {
+			// Back ground
+			canvas.drawRect(95, 80, 245, 130, mGreyColor);
+
+			// Text
+			canvas.drawText(mContext.getString(R.string.noOpponent), 110, 110,
+					mTextColorMedium);
+		}
+
+		private void drawNetworkStats(Canvas canvas) {
+			String[] lines = networkStats.getOverlayLines();
+			int y = 378;
+			for (int i = 0; i < lines.length; i++) {
+				canvas.drawText(lines[i], 1, y, mTextColorSmallBold);
+				y += 20;
+			}
+			long now = SystemClock.uptimeMillis();
+			if (now - frameStatsMillis >= FRAME_STATS_MILLIS) {
+				updateFrameStats(now);
+			}
+			for (int i = 0; i < frameStatsLines.length; i++) {
+				canvas.drawText(frameStatsLines[i], 1, y, mTextColorSmallBold);
+				y += 20;
+			}
+		}
+
+		/**
+		 * Rebuild the frame stats lines.
+		 */
+		private void updateFrameStats(long now) {
+			long millis = Math.max(1, now - sessionStartMillis);
+			frameStatsLines[0] = "FPS " + sessionFrames * 1000 / millis
+					+ ", CPU " + getSessionCpuMillis() * 100 / millis + "%"
+					+ (scheduler.isBatterySaver() ? " saver" : "");
+			frameStatsLines[1] = "First frame "
+					+ StartupTrace.getFirstFrameMillis() + " ms, input p50 "
+					+ inputMillis.getPercentile(50) + " p99 "
+					+ inputMillis.getPercentile(99) + " ms";
+			frameStatsLines[2] = endless ? "Step p99 "
+					+ stepMicros.getPercentile(99) + " us, draw p99 "
+					+ drawMicros.getPercentile(99) + " us, balls "
+					+ game.balls.size() : "";
+			frameStatsMillis = now;
+		}
+
 		private void drawGameWon(Canvas canvas) {
 			// Back ground
 			canvas.drawRect(95, 80, 245, 130, mGreyColor);
@@ -603,6 +1175,42 @@ class GameView extends SurfaceView implements SurfaceHolder.Callback {
 					mTextColorMedium);
 		}
 
+		/**
+		 * Ring the balls the current ball divides, with the points, and the
+		 * balls only a queued ball divides.
+		 */
+		private void drawHints(Canvas canvas) {
+			hints.update(game);
+			for (int i = 0; i < hints.count; i++) {
+				Ball ball = hints.balls[i];
+				if (hints.points[i] > 0) {
+					canvas.drawCircle(ball.x, ball.y, BALL_RADIUS + 2,
+							mHintColor);
+					canvas.drawText(hints.labels[i], ball.x + 8, ball.y - 10,
+							mTextColorSmallBold);
+				} else {
+					canvas.drawCircle(ball.x, ball.y, BALL_RADIUS + 2,
+							mQueueHintColor);
+				}
+			}
+		}
+
+		/**
+		 * Line to where the current ball would land, ringed, with the points
+		 * it would earn or the number it would stick as.
+		 */
+		private void drawShotPreview(Canvas canvas) {
+			shotPreview.update(game);
+			Ball curr = game.currBall;
+			Paint paint = shotPreview.gameOver ? mPreviewOverColor
+					: mPreviewColor;
+			canvas.drawLine(curr.x, curr.y - BALL_RADIUS, shotPreview.x,
+					shotPreview.y + BALL_RADIUS, paint);
+			canvas.drawCircle(shotPreview.x, shotPreview.y, BALL_RADIUS, paint);
+			canvas.drawText(shotPreview.label, shotPreview.x + 8,
+					shotPreview.y - 10, mTextColorSmallBold);
+		}
+
 		/**
 		 * Draw ball.
 		 */
@@ -611,309 +1219,306 @@ class GameView extends SurfaceView implements SurfaceHolder.Callback {
 
 			// 0-9
 			if (ball.number < 10) {
-				canvas.drawText(Integer.toString(ball.number), ball.x - 6,
+				canvas.drawText(NumberText.get(ball.number), ball.x - 6,
 						ball.y + 8, mTextColorLargeBold);
 			}
 			// 10-99
 			else if (ball.number < 100) {
-				canvas.drawText(Integer.toString(ball.number), ball.x - 12,
+				canvas.drawText(NumberText.get(ball.number), ball.x - 12,
 						ball.y + 8, mTextColorMediumBold);
 			}
 			// 100 ->
 			else {
-				canvas.drawText(Integer.toString(ball.number), ball.x - 14,
+				canvas.drawText(NumberText.get(ball.number), ball.x - 14,
 						ball.y + 6, mTextColorSmallBold);
 			}
 		}
 
 		/**
-		 * Draw board
+		 * Draw sides and balls on board
 		 */
-		private void doDraw(Canvas canvas) {
-
-			// Clear screen
-			canvas.drawPaint(mClearColor);
+		private void drawBoard(Canvas canvas, int width, int height) {
 
 			// Left side
-			canvas.drawLine(0, 0, 0, 300, mTextColorMedium);
+			canvas.drawLine(0, 0, 0, height, mTextColorMedium);
 
 			// Right side
-			canvas.drawLine(300, 0, 300, 300, mTextColorMedium);
+			canvas.drawLine(width, 0, width, height, mTextColorMedium);
 
 			// Bottom side
-			canvas.drawLine(0, 300, 300, 300, mTextColorMedium);
+			canvas.drawLine(0, height, width, height, mTextColorMedium);
 
 			// Top side
-			canvas.drawLine(0, 2, 300, 2, mTextColorMedium);
+			canvas.drawLine(0, 2, width, 2, mTextColorMedium);
 
 			// Draw balls on board
-			int size = balls.size();
+			int size = game.balls.size();
 			for (int i = 0; i < size; i++) {
-				drawBall(canvas, balls.get(i));
+				drawBall(canvas, game.balls.get(i));
 			}
-
-			// Draw balls in queue
-			size = ballsInQueue.size();
-			for (int i = 0; i < size; i++) {
-				drawBall(canvas, ballsInQueue.get(i));
-			}
-
-			drawBall(canvas, currBall);
-
-			// Draw points
-			canvas.drawText(pointsDisplay, 1, 326, mTextColorMedium);
-
-			// Draw high score
-			canvas.drawText(highScoreDisplay, 1, 352, mTextColorMedium);
 		}
 
 		/**
-		 * Generate random.
+		 * Draw the board into the board layer if it changed since last time.
+		 * An endless board has too many balls to draw each frame.
 		 */
-		private int generateRandom(int max) {
-			return random.nextInt(max);
+		private void drawBoardLayer(int width, int height) {
+			int layerWidth = (int) Math.ceil(width * boardScale) + 1;
+			int layerHeight = (int) Math.ceil(height * boardScale) + 1;
+			if (boardLayer == null || boardLayer.getWidth() != layerWidth
+					|| boardLayer.getHeight() != layerHeight) {
+				if (boardLayer != null) {
+					boardLayer.recycle();
+				}
+				boardLayer = Bitmap.createBitmap(layerWidth, layerHeight,
+						Bitmap.Config.ARGB_8888);
+				boardLayerCanvas = new Canvas(boardLayer);
+				boardLayerVersion = -1;
+			}
+			if (boardLayerVersion == game.getVersion()) {
+				return;
+			}
+
+			boardLayer.eraseColor(0);
+			boardLayerCanvas.save();
+			boardLayerCanvas.scale(boardScale, boardScale);
+			drawBoard(boardLayerCanvas, width, height);
+			boardLayerCanvas.restore();
+			boardLayerVersion = game.getVersion();
 		}
 
 		/**
-		 * Create the board.
+		 * Bigger boards are scaled to fit the surface above the text.
 		 */
-		private void createBoard() {
-
-			balls.clear();
-			ballsInQueue.clear();
-
-			// Row 1
-			int x = MARGIN_LEFT + STARTING_BALL_SPACING_LEFT;
-			for (int i = 0; i < BALLS_IN_ROW; i++) {
-				Ball ball = new Ball();
-				ball.x = x;
-				ball.y = MARGIN_TOP;
-				ball.number = generateRandom(NEW_BALL_MAX) + 2;
-				balls.add(ball);
-				x += BALL_SPACING;
-			}
-
-			// Row 2
-			x = MARGIN_LEFT + STARTING_BALL_SPACING_LEFT;
-			for (int i = 0; i < BALLS_IN_ROW; i++) {
-				Ball ball = new Ball();
-				ball.x = x;
-				ball.y = MARGIN_TOP + (BALL_RADIUS * 2); // Next row
-				ball.number = generateRandom(NEW_BALL_MAX) + 2;
-				balls.add(ball);
-				x += BALL_SPACING;
-			}
-
-			// Balls in queue
-			x = MARGIN_LEFT + STARTING_BALL_SPACING_LEFT;
-			int y = QUEUE_Y;
-			for (int i = 0; i < BALLS_IN_QUEUE; i++) {
-				Ball ball = new Ball();
-				ball.x = x;
-				ball.y = y;
-				ball.number = generateRandom(NEW_BALL_MAX) + 2;
-				ballsInQueue.add(ball);
-				x += BALL_SPACING;
+		private float getBoardScale(int width, int height) {
+			if (!endless) {
+				return 1;
 			}
+			return Math.min((float) FRAME_WIDTH / width,
+					(float) (frameHeight - TEXT_HEIGHT) / height);
 		}
 
 		/**
-		 * Increment ball.
+		 * Draw the frame, straight onto the surface if it's the frame's size,
+		 * else into the frame and scale that onto the surface.
 		 */
-		private void incrementBoard() {
-
-			if (isGameOver) {
-				stopGame();
-
-				// Check high score.
-				checkHighScore();
-
+		private void doDraw(Canvas canvas) {
+			if (surfaceWidth == 0 || surfaceWidth == FRAME_WIDTH
+					&& surfaceHeight == frameHeight) {
+				drawFrame(canvas);
 				return;
 			}
-
-			if (!shooting) {
-				currBall.x -= moveX;
-				moveX = 0;
-
-				currBall.y -= moveY;
-				moveY = 0;
-
-				// Keep in side
-				if (currBall.x > MARGIN_RIGHT) {
-					currBall.x = MARGIN_RIGHT;
-				} else if (currBall.x < MARGIN_LEFT) {
-					currBall.x = MARGIN_LEFT;
-				}
-
-				// Keep in top
-				if (currBall.y < MARGIN_TOP) {
-					currBall.y = MARGIN_TOP;
+			if (frame == null || frame.getHeight() != frameHeight) {
+				if (frame != null) {
+					frame.recycle();
 				}
+				// Opaque, like the surface
+				frame = Bitmap.createBitmap(FRAME_WIDTH, frameHeight,
+						Bitmap.Config.RGB_565);
+				frameCanvas = new Canvas(frame);
+			}
+			drawFrame(frameCanvas);
 
-				detectCollision(currBall);
-			} else {
-				boolean collision = false;
-				while (!collision) {
-					collision = detectCollision(currBall);
-				}
-				shooting = false;
+			// Clear beside a frame narrower than the surface
+			if (frameRect.left > 0 || frameRect.bottom < surfaceHeight) {
+				canvas.drawPaint(mClearColor);
 			}
+			canvas.drawBitmap(frame, null, frameRect, mFramePaint);
 		}
 
-		/**
-		 * Detect collision between balls.
-		 */
-		private boolean detectBallCollision(Ball ball_1, Ball ball_2) {
-			int dY = ball_1.y - ball_2.y;
-			int dX = ball_1.x - ball_2.x;
-			return Math.sqrt((dY * dY) + (dX * dX)) <= BALL_DISTANCE;
+		private boolean isWaitingForOpponent() {
+			return game.isPlayOnline && !multiPlayGameStarted;
 		}
 
 		/**
-		 * Detect collision with other balls or border.
+		 * Draw board, or what's shown instead of it, in frame coordinates
 		 */
-		private boolean detectCollision(Ball movingBall) {
+		private void drawFrame(Canvas canvas) {
+			// Clear screen
+			canvas.drawPaint(mClearColor);
 
-			boolean collision = false;
+			if (mMode == STATE_PAUSE) {
+				drawPaused(canvas);
+				return;
+			}
+			if (mMode == STATE_RUNNING && isWaitingForOpponent()) {
+				drawWaitingForOpponent(canvas);
+				if (showNetworkStats) {
+					drawNetworkStats(canvas);
+				}
+				return;
+			}
+
+			GameConfig config = game.getConfig();
+			int width = config.boardWidth;
+			int height = config.boardHeight;
+			boardScale = getBoardScale(width, height);
 
-			// Detect collision with other balls
-			for (int i = 0; i < balls.size(); i++) {
-				Ball ball = balls.get(i);
-				if (detectBallCollision(currBall, ball)) {
-					collision = true;
+			if (endless) {
+				drawBoardLayer(width, height);
+				canvas.drawBitmap(boardLayer, 0, 0, null);
+			}
 
-					// If divides with no remainder, then divide target.
-					if (ball.number % currBall.number == 0) {
+			canvas.save();
+			canvas.scale(boardScale, boardScale);
+			if (!endless) {
+				drawBoard(canvas, width, height);
+			}
 
-						// Calculate new value
-						int newValue = ball.number / currBall.number;
+			// Draw balls in queue
+			int size = game.ballsInQueue.size();
+			for (int i = 0; i < size; i++) {
+				drawBall(canvas, game.ballsInQueue.get(i));
+			}
 
-						// Calculate points
-						int pointsToAdd = ball.number - newValue;
+			drawBall(canvas, game.currBall);
 
-						// Update ball
-						ball.number = newValue;
+			if (showHints) {
+				drawHints(canvas);
+			}
+			if (aiming && mMode == STATE_RUNNING && !game.isGameOver) {
+				drawShotPreview(canvas);
+			}
+			canvas.restore();
 
-						// If target is now 1, remove it as well.
-						if (ball.number == 1) {
-							balls.remove(i);
+			// Text below the board
+			canvas.save();
+			canvas.translate(0, height * boardScale - Game.BOARD_HEIGHT);
 
-							// Add 1 to points
-							pointsToAdd += 1;
-						}
+			// Draw points
+			canvas.drawText(pointsDisplay, 0, pointsDisplayLength, 1, 326,
+					mTextColorMedium);
 
-						// If solo, check for clear
-						if (!isPlayOnline) {
-
-							// Get old hundreds for clear
-							int hundredsOld = (int) points / 100;
-
-							// Update points
-							points += pointsToAdd;
-
-							// Check if new hundreds attained
-							int hundredsNew = (int) points / 100;
-							if (hundredsNew > hundredsOld) {
-
-								// Remove points
-								int pointsToRemove = POINTS_TO_REMOVE;
-								for (int j = balls.size() - 1; j > -1; j--) {
-									if (balls.get(j).number < pointsToRemove) {
-										pointsToRemove -= balls.get(j).number;
-										balls.remove(j);
-									} else if (pointsToRemove > 0) {
-										balls.get(j).number -= pointsToRemove;
-										if (balls.get(j).number == 0) {
-											balls.remove(j);
-										}
-										pointsToRemove = 0;
-										break;
-									}
-								}
-							}
+			// Draw high score
+			canvas.drawText(highScoreDisplay, 1, 352, mTextColorMedium);
 
-							// If no balls left, add bonus and create new board
-							if (balls.isEmpty()) {
-								points += CLEAR_BOARD_BONUS;
-								createBoard();
+			// Draw level
+			canvas.drawText(levelDisplay, 190, 326, mTextColorMedium);
 
-								// Ideas:
-								// New level
-								// Time bonus? Balls used bonus?
-							}
-						} else {
-							// Update points
-							points += pointsToAdd;
-
-							// Send to opponent
-							Ball ballTo = new Ball();
-							ballTo.x = movingBall.x;
-							ballTo.number = pointsToAdd;
-							ballsToOpponent.add(ballTo);
-						}
+			if (showNetworkStats) {
+				drawNetworkStats(canvas);
+			}
+			canvas.restore();
 
-						setPointsDisplay();
-						lastX = currBall.x;
-						createNewBall();
-					} else {
-						// Add to current ball.
-						currBall.number += ball.number;
-
-						// Add to board.
-						balls.add(currBall);
-
-						// If over 99 or at bottom, game over!
-						if (currBall.number > 99 || currBall.y > 260) {
-							isGameOver = true;
-
-							// Send one last request to indicate game over.
-							if (isPlayOnline) {
-								// Set flags and then call interrupt.
-								oneLastConnection = true;
-								multiPlayConnectionThread.mConnectionLastTime = 0;
-								multiPlayConnectionThread.interrupt();
-							}
-						} else {
-							lastX = currBall.x;
-							createNewBall();
-						}
-					}
+			if (mMode == STATE_OVER) {
+				if (isWaitingForOpponent()) {
+					drawNoOpponent(canvas);
+				} else if (isGameWon) {
+					drawGameWon(canvas);
+				} else {
+					drawGameOver(canvas);
+				}
+			}
+		}
+
+		/**
+		 * Increment ball.
+		 */
+		private void incrementBoard() {
 
-					break;
+			if (game.isGameOver) {
+				stopGame();
+
+				// Check high score. Endless boards aren't comparable.
+				if (!endless) {
+					checkHighScore();
 				}
+
+				return;
 			}
 
-			// Check if collision with top
-			if (!collision) {
-				if (currBall.y <= MARGIN_TOP) {
-					collision = true;
-					balls.add(currBall);
-					lastX = currBall.x;
-					createNewBall();
-				} else {
-					currBall.y -= Y_DELTA;
+			if (autoPlay && autoPlayThread != null) {
+				autoPlay();
+			}
+
+			Ball ball = game.currBall;
+			int x = ball.x;
+			game.step(moveX, moveY, shooting);
+			if (!shooting) {
+				// Keep the part of a pixel not moved yet for the next step
+				moveX = ball == game.currBall ? getRemainder(moveX, x
+						- ball.x) : 0;
+				moveY = 0;
+				if (moveTime != 0) {
+					presentedMoveTime = moveTime;
+					moveTime = 0;
 				}
 			}
+			shooting = false;
 
-			return collision;
+			if (game.points != pointsDisplayed) {
+				setPointsDisplay();
+			}
+			if (game.level != levelDisplayed) {
+				setLevelDisplay();
+			}
+		}
+
+		/**
+		 * What's left of a move after a step moved the ball by whole pixels,
+		 * or 0 if the ball was stopped, e.g. at the side.
+		 */
+		private float getRemainder(float move, int moved) {
+			float remainder = move - moved;
+			return remainder > -1 && remainder < 1 ? remainder : 0;
+		}
+
+		/**
+		 * Move to the shot the bot found and shoot, or ask for one for a new
+		 * ball.
+		 */
+		private void autoPlay() {
+			if (autoPlayBall != game.currBall) {
+				autoPlayBall = game.currBall;
+				autoPlayBallTime = System.currentTimeMillis();
+				autoPlayShot = null;
+				autoPlayThread.search(game.copy(new Random()), game.currBall);
+			} else if (autoPlayShot != null) {
+				if (game.currBall.x != autoPlayShot.x) {
+					moveX = game.currBall.x - autoPlayShot.x;
+				} else if (System.currentTimeMillis() - autoPlayBallTime
+						>= AUTO_PLAY_SHOT_MILLIS) {
+					// Slow enough to watch
+					shooting = true;
+				}
+			}
 		}
 
 		/**
 		 * Check high score.
 		 */
 		private void checkHighScore() {
+			// Not read yet, so read it now rather than write over it
+			if (!highScoreLoaded) {
+				highScore = Math.max(highScore, readHighScore());
+				GameHolder.setHighScore(highScore);
+				highScoreLoaded = true;
+			}
 			try {
-				if (points > highScore) {
-					highScore = points;
+				if (game.points > highScore) {
+					highScore = game.points;
+					GameHolder.setHighScore(highScore);
+
+					// Balls from an opponent aren't in the replay, so only
+					// solo games can be checked
+					if (!game.isPlayOnline) {
+						GameHolder.submitScore(highScore, game.getReplay()
+								.copy());
+					}
 
 					setHighScoreDisplay();
 
+					Trace.begin(TRACE_SAVE_HIGH_SCORE);
+					long start = System.nanoTime();
 					FileOutputStream fos = mContext.openFileOutput(
 							RisingNumbers.HIGHSCORE_FILENAME,
 							Context.MODE_PRIVATE);
 					ObjectOutputStream out = new ObjectOutputStream(fos);
 					out.writeObject(highScore);
 					out.close();
+					GameMetrics.SAVE_MICROS
+							.record((System.nanoTime() - start) / 1000);
+					Trace.end(TRACE_SAVE_HIGH_SCORE);
 				}
 
 			} catch (Exception e) {
@@ -929,12 +1534,14 @@ class GameView extends SurfaceView implements SurfaceHolder.Callback {
 
 			// Multiplay constants
 			private int CONNECTION_MILLIS = 2000;
-			private String CONNECTION_URL = "http://mathuzzles.appspot.com/MultiPlay";
-			private HttpClient client = new DefaultHttpClient();
+			private String CONNECTION_URL = MultiPlayProtocol.CONNECTION_URL;
+			private HttpClient client = GameHolder.getHttpClient();
+			private MultiPlayProtocol.Response parsedResponse = new MultiPlayProtocol.Response();
 
 			@Override
 			public void run() {
-				while (isPlayOnline && mRun) {
+				Trace.nameThread("MultiPlayConnection");
+				while (game.isPlayOnline && !isPlayLan && mRun) {
 					if (mMode == STATE_RUNNING) {
 
 						// Keep requests at interval
@@ -965,34 +1572,60 @@ class GameView extends SurfaceView implements SurfaceHolder.Callback {
 			 * Send request to the server.
 			 */
 			public void sendRequest() {
+				Trace.begin(TRACE_REQUEST);
 
-				// Always add user Id
-				String data = "?userId=" + multiPlayUserId;
-
-				// Flag if game is over
-				if (isGameOver) {
-					data += "&gameOver=" + isGameOver;
-				}
 				// Get next ball to shoot
-				else if (ballsToOpponent.size() > 0) {
-					Ball ballTo = ballsToOpponent.remove(0);
-					data += "&number=" + ballTo.number;
+				int number = MultiPlayProtocol.NO_NUMBER;
+				long sentAt = MultiPlayProtocol.NO_TIME;
+				Trace.begin(TRACE_LOCK_WAIT);
+				synchronized (mSurfaceHolder) {
+					Trace.end(TRACE_LOCK_WAIT);
+					if (!game.isGameOver && game.ballsToOpponent.size() > 0) {
+						Ball ballTo = game.ballsToOpponent.remove(0);
+						number = ballTo.number;
+						if (networkStats.hasClockOffset() && ballTo.shotAt != 0) {
+							sentAt = networkStats.toServerTime(ballTo.shotAt);
+						}
+						game.releaseBall(ballTo);
+					}
 				}
 
-				String url = CONNECTION_URL + data;
+				String url = CONNECTION_URL
+						+ MultiPlayProtocol.buildQuery(multiPlayUserId,
+								game.isGameOver, number, sentAt);
 
+				long requestMillis = System.currentTimeMillis();
 				try {
 					HttpGet get = new HttpGet(url);
 					HttpResponse responseGet = client.execute(get);
+					long responseMillis = System.currentTimeMillis();
+					networkStats.recordRequest(requestMillis, responseMillis,
+							getServerTime(responseGet));
+
 					HttpEntity resEntityGet = responseGet.getEntity();
 					if (resEntityGet != null) {
 						handleRequest(EntityUtils.toString(resEntityGet));
 					}
 				} catch (Exception e) {
+					networkStats.recordFailure();
 					Log.e(this.getClass().getName(),
 							"Exception connecting to multiplay URL: "
 									+ e.toString());
 				}
+				networkStats.updateOverlay(System.currentTimeMillis());
+				Trace.end(TRACE_REQUEST);
+			}
+
+			/**
+			 * Get the server time from the response headers.
+			 */
+			private long getServerTime(HttpResponse response) {
+				Header serverTime = response
+						.getFirstHeader(MultiPlayProtocol.SERVER_TIME_HEADER);
+				Header date = response.getFirstHeader("Date");
+				return MultiPlayProtocol.parseServerTime(
+						serverTime != null ? serverTime.getValue() : null,
+						date != null ? date.getValue() : null);
 			}
 
 			/**
@@ -1003,62 +1636,258 @@ class GameView extends SurfaceView implements SurfaceHolder.Callback {
 			public void handleRequest(String response) {
 
 				// If not online, return.
-				if (!isPlayOnline) {
+				if (!game.isPlayOnline) {
 					return;
 				}
 
-				response = response.trim();
-
-				String[] results = response.split(",");
-
 				// Should always have status
-				if (results.length > 0) {
+				if (MultiPlayProtocol.parseResponse(response, parsedResponse)) {
+					multiPlayGameStatus = parsedResponse.status;
+				}
 
-					// Convert to int
-					String status = results[0].trim();
-					if (status.length() > 0) {
-						multiPlayGameStatus = new Integer(results[0].trim())
-								.intValue();
-					}
+				// If not started
+				if (!multiPlayGameStarted) {
+					// Start game
+					if (multiPlayGameStatus == MultiPlayProtocol.IN_PLAY) {
+						synchronized (mSurfaceHolder) {
+							// Play the board the server plays
+							if (parsedResponse.hasSeed) {
+								game.start(parsedResponse.seed);
+								setPointsDisplay();
+								setLevelDisplay();
+							}
 
-					// If not started
-					if (!multiPlayGameStarted) {
-						// Start game
-						if (multiPlayGameStatus == IN_PLAY) {
 							// Update start flag
 							multiPlayGameStarted = true;
 						}
-						// Start a new game (these shouldn't occur normally)
-						else if (multiPlayGameStatus == OPPONENT_LOST_CONNECTION
-								|| multiPlayGameStatus == USER_WON
-								|| multiPlayGameStatus == USER_LOST) {
+					}
+					// Start a new game (these shouldn't occur normally)
+					else if (multiPlayGameStatus == MultiPlayProtocol.OPPONENT_LOST_CONNECTION
+							|| multiPlayGameStatus == MultiPlayProtocol.USER_WON
+							|| multiPlayGameStatus == MultiPlayProtocol.USER_LOST) {
 
-							// TODO - Is do start correct here?
-							doStart();
-						}
+						// TODO - Is do start correct here?
+						doStart();
 					}
-					// Else, started
-					else {
-						if (multiPlayGameStatus == OPPONENT_LOST_CONNECTION) {
-							isGameOver = true;
-							isGameWon = true;
-						} else if (multiPlayGameStatus == USER_WON) {
-							isGameOver = true;
-							isGameWon = true;
-						} else if (multiPlayGameStatus == USER_LOST) {
-							isGameOver = true;
-							isGameWon = false;
-						}
+				}
+				// Else, started
+				else {
+					if (multiPlayGameStatus == MultiPlayProtocol.OPPONENT_LOST_CONNECTION) {
+						game.isGameOver = true;
+						isGameWon = true;
+					} else if (multiPlayGameStatus == MultiPlayProtocol.USER_WON) {
+						game.isGameOver = true;
+						isGameWon = true;
+					} else if (multiPlayGameStatus == MultiPlayProtocol.USER_LOST) {
+						game.isGameOver = true;
+						isGameWon = false;
+					}
+				}
+
+				// Next result is ball from the opponent
+				if (parsedResponse.number != MultiPlayProtocol.NO_NUMBER) {
+					synchronized (mSurfaceHolder) {
+						Ball ball = game.obtainBall();
+						ball.number = parsedResponse.number;
+						game.ballsFromOpponent.add(ball);
+					}
+					GameMetrics.BALLS_RECEIVED.increment();
+
+					if (parsedResponse.sentAt != MultiPlayProtocol.NO_TIME) {
+						networkStats.recordBallDelivery(parsedResponse.sentAt,
+								System.currentTimeMillis());
+					}
+				}
+			}
+		}
+
+		/**
+		 * Plays with a peer on the local network.
+		 */
+		class LanPeerThread extends Thread implements LanPeer.Listener {
+
+			private static final int LAN_POLL_MILLIS = 100;
+			private static final int FLUSH_MILLIS = 1000;
+
+			private LanPeer peer = new LanPeer(LanPeer.BASE_PORT, this);
+			private volatile boolean finished = false;
+			private boolean statusSent = false;
+
+			@Override
+			public void run() {
+				Trace.nameThread("LanPeer");
+				try {
+					peer.open();
+					while (game.isPlayOnline && isPlayLan && mRun && !finished) {
+						sendToPeer();
+						peer.runOnce(LAN_POLL_MILLIS);
+					}
+
+					// Give the game over status a chance to arrive.
+					sendToPeer();
+					long flushEnd = System.currentTimeMillis() + FLUSH_MILLIS;
+					while (!peer.isFlushed() && peer.isConnected()
+							&& System.currentTimeMillis() < flushEnd) {
+						peer.runOnce(LAN_POLL_MILLIS);
+					}
+				} catch (Exception e) {
+					Log.e(this.getClass().getName(), "Exception in LAN peer: "
+							+ e.toString());
+					failed();
+				} finally {
+					peer.close();
+				}
+			}
+
+			/**
+			 * End the game if it's still waiting for a peer, e.g. no port was
+			 * free, rather than wait for ever.
+			 */
+			private void failed() {
+				synchronized (mSurfaceHolder) {
+					if (lanPeerThread == this && !multiPlayGameStarted) {
+						multiPlayGameStatus = MultiPlayProtocol.OPPONENT_LOST_CONNECTION;
+						game.isGameOver = true;
+						isGameWon = false;
+						setState(STATE_OVER);
+					}
+				}
+			}
+
+			/**
+			 * Send balls and game over to the peer.
+			 */
+			private void sendToPeer() {
+				synchronized (mSurfaceHolder) {
+					int size = game.ballsToOpponent.size();
+					for (int i = 0; i < size; i++) {
+						Ball ballTo = game.ballsToOpponent.get(i);
+						peer.sendBall(ballTo.number);
+						game.releaseBall(ballTo);
+					}
+					game.ballsToOpponent.clear();
+
+					// Lost on our own board
+					if (game.isGameOver && !isGameWon && !statusSent) {
+						peer.sendStatus(MultiPlayProtocol.USER_LOST);
+						statusSent = true;
+						finished = true;
+					}
+				}
+			}
+
+			/**
+			 * Stop after sending anything outstanding.
+			 */
+			public void finish() {
+				finished = true;
+				wakeup();
+			}
+
+			public void wakeup() {
+				peer.wakeup();
+			}
+
+			public void onConnected() {
+				synchronized (mSurfaceHolder) {
+					multiPlayGameStatus = MultiPlayProtocol.IN_PLAY;
+					multiPlayGameStarted = true;
+				}
+			}
+
+			public void onBall(int number) {
+				synchronized (mSurfaceHolder) {
+					Ball ball = game.obtainBall();
+					ball.number = number;
+					game.ballsFromOpponent.add(ball);
+				}
+				GameMetrics.BALLS_RECEIVED.increment();
+			}
+
+			public void onStatus(int status) {
+				synchronized (mSurfaceHolder) {
+					// Peer's status is from its side.
+					if (!game.isGameOver && status == MultiPlayProtocol.USER_LOST) {
+						multiPlayGameStatus = MultiPlayProtocol.USER_WON;
+						game.isGameOver = true;
+						isGameWon = true;
+					}
+				}
+				finished = true;
+			}
+
+			public void onLostConnection() {
+				synchronized (mSurfaceHolder) {
+					if (multiPlayGameStarted && !game.isGameOver) {
+						multiPlayGameStatus = MultiPlayProtocol.OPPONENT_LOST_CONNECTION;
+						game.isGameOver = true;
+						isGameWon = true;
 					}
 				}
+				finished = true;
+			}
+		}
+
+		/**
+		 * Searches for the bot's shots off the game thread.
+		 */
+		class AutoPlayThread extends Thread {
+
+			private ShotSearch shotSearch = new ShotSearch(Runtime
+					.getRuntime().availableProcessors(), ShotSearch.MAX_DEPTH);
+			private Game board = null;
+			private Ball ball = null;
+			private boolean finished = false;
 
-				// Next results are ball from the opponent
-				if (results.length == 2) {
-					Ball ball = new Ball();
-					ball.number = new Integer(results[1].trim()).intValue();
-					ballsFromOpponent.add(ball);
+			@Override
+			public void run() {
+				Trace.nameThread("AutoPlay");
+				try {
+					while (true) {
+						Game toSearch;
+						Ball forBall;
+						synchronized (this) {
+							while (board == null && !finished) {
+								wait();
+							}
+							if (finished) {
+								break;
+							}
+							toSearch = board;
+							forBall = ball;
+							board = null;
+						}
+
+						ShotSearch.Shot shot = shotSearch.findShot(toSearch,
+								AUTO_PLAY_SEARCH_MILLIS);
+						synchronized (mSurfaceHolder) {
+							if (autoPlayBall == forBall) {
+								autoPlayShot = shot;
+							}
+						}
+					}
+				} catch (InterruptedException e) {
+					Log.e(this.getClass().getName(),
+							"Exception while auto play thread was waiting:"
+									+ e.toString());
+				} finally {
+					shotSearch.shutdown();
 				}
 			}
+
+			/**
+			 * Search a copy of the board, replacing any search not started.
+			 */
+			public synchronized void search(Game copy, Ball currBall) {
+				board = copy;
+				ball = currBall;
+				notify();
+			}
+
+			public synchronized void finish() {
+				finished = true;
+				notify();
+			}
 		}
 
 	}
@@ -1072,6 +1901,11 @@ class GameView extends SurfaceView implements SurfaceHolder.Callback {
 	/** The thread that actually draws the animation */
 	private GameThread thread;
 
+	// Touch fields, once past the touch slop every sample moves the ball
+	private boolean scrolling = false;
+	private float lastTouchX;
+	private float lastTouchY;
+
 	public GameView(Context context, AttributeSet attrs) {
 		super(context, attrs);
 
@@ -1119,14 +1953,17 @@ class GameView extends SurfaceView implements SurfaceHolder.Callback {
 	 */
 	public void surfaceCreated(SurfaceHolder holder) {
 
-		// If terminated, create a new thread and restore if there is a saved
-		// game.
+		// If terminated, create a new thread. It carries on with the game
+		// kept for the process, else restores the saved game.
 		if (thread.getState() == Thread.State.TERMINATED) {
+			thread.keepState();
 			thread = new GameThread(holder, mContext);
-			HashMap<String, Object> savedGame = RisingNumbers
-					.getSavedGame(mContext);
-			if (savedGame != null) {
-				thread.restoreState(savedGame);
+			if (!thread.restoreKeptState()) {
+				HashMap<String, Object> savedGame = RisingNumbers
+						.getSavedGame(mContext);
+				if (savedGame != null) {
+					thread.restoreState(savedGame);
+				}
 			}
 			thread.mMode = GameThread.STATE_RUNNING;
 		}
@@ -1136,6 +1973,16 @@ class GameView extends SurfaceView implements SurfaceHolder.Callback {
 		gestureListener = new View.OnTouchListener() {
 
 			public boolean onTouch(View v, MotionEvent event) {
+				int action = event.getAction();
+				if (action == MotionEvent.ACTION_DOWN) {
+					scrolling = false;
+				} else if (action == MotionEvent.ACTION_MOVE && scrolling) {
+					addTouchSamples(event);
+				} else if (action == MotionEvent.ACTION_UP
+						|| action == MotionEvent.ACTION_CANCEL) {
+					scrolling = false;
+					thread.setAiming(false);
+				}
 				if (gestureDetector.onTouchEvent(event)) {
 					return true;
 				}
@@ -1149,7 +1996,15 @@ class GameView extends SurfaceView implements SurfaceHolder.Callback {
 		// the surface to be created
 		thread.setRunning(true);
 		thread.start();
-		thread.multiPlayConnectionThread.start();
+		StartupTrace.mark("surfaceCreated");
+		if (thread.game.isPlayOnline && !thread.isPlayLan) {
+			thread.startMultiPlayConnection();
+		}
+		thread.startBoardPregenerator();
+		if (thread.isPlayLan && thread.lanPeerThread == null) {
+			thread.lanPeerThread = thread.new LanPeerThread();
+			thread.lanPeerThread.start();
+		}
 	}
 
 	/*
@@ -1171,6 +2026,42 @@ class GameView extends SurfaceView implements SurfaceHolder.Callback {
 							+ e.toString());
 		}
 
+		// Board pregenerator
+		try {
+			if (thread.boardPregenerator != null) {
+				thread.boardPregenerator.finish();
+				thread.boardPregenerator.join();
+				thread.boardPregenerator = null;
+			}
+		} catch (InterruptedException e) {
+			Log.e(this.getClass().getName(),
+					"Exception joining board pregenerator:" + e.toString());
+		}
+
+		// LAN peer thread
+		try {
+			if (thread.lanPeerThread != null) {
+				thread.lanPeerThread.wakeup();
+				thread.lanPeerThread.join();
+				thread.lanPeerThread = null;
+			}
+		} catch (InterruptedException e) {
+			Log.e(this.getClass().getName(), "Exception joining LAN peer thread:"
+					+ e.toString());
+		}
+
+		// Auto play thread
+		try {
+			if (thread.autoPlayThread != null) {
+				thread.autoPlayThread.finish();
+				thread.autoPlayThread.join();
+				thread.autoPlayThread = null;
+			}
+		} catch (InterruptedException e) {
+			Log.e(this.getClass().getName(), "Exception joining auto play thread:"
+					+ e.toString());
+		}
+
 		// UI thread
 		try {
 			thread.join();
@@ -1178,6 +2069,33 @@ class GameView extends SurfaceView implements SurfaceHolder.Callback {
 			Log.e(this.getClass().getName(), "Exception joining UI thread:"
 					+ e.toString());
 		}
+
+		// For the next surface or activity
+		thread.keepState();
+	}
+
+	/**
+	 * Move by all the samples of a touch event, the ones batched since the
+	 * last event as well as the latest.
+	 */
+	private void addTouchSamples(MotionEvent event) {
+		float distanceX = 0;
+		float distanceY = 0;
+		int history = event.getHistorySize();
+		long time = history > 0 ? event.getHistoricalEventTime(0) : event
+				.getEventTime();
+		for (int i = 0; i <= history; i++) {
+			float x = i < history ? event.getHistoricalX(i) : event.getX();
+			float y = i < history ? event.getHistoricalY(i) : event.getY();
+			distanceX += lastTouchX - x;
+			// Don't let the ball go down.
+			if (lastTouchY > y) {
+				distanceY += lastTouchY - y;
+			}
+			lastTouchX = x;
+			lastTouchY = y;
+		}
+		thread.addMove(distanceX, distanceY, time);
 	}
 
 	public class GameGestureDetector extends SimpleOnGestureListener {
@@ -1210,11 +2128,18 @@ class GameView extends SurfaceView implements SurfaceHolder.Callback {
 		@Override
 		public boolean onScroll(MotionEvent e1, MotionEvent e2,
 				float distanceX, float distanceY) {
-			// Don't let the ball go down.
-			if (distanceY < 0) {
-				distanceY = 0;
+			// Past the touch slop; after this the touch samples move the ball
+			if (!scrolling) {
+				scrolling = true;
+				lastTouchX = e2.getX();
+				lastTouchY = e2.getY();
+
+				// Don't let the ball go down.
+				if (distanceY < 0) {
+					distanceY = 0;
+				}
+				thread.addMove(distanceX, distanceY, e2.getEventTime());
 			}
-			thread.setMove(distanceX, distanceY);
 			return false;
 		}
 	}
@@ -1222,6 +2147,7 @@ class GameView extends SurfaceView implements SurfaceHolder.Callback {
 	@Override
 	public void surfaceChanged(SurfaceHolder holder, int format, int width,
 			int height) {
+		thread.setSurfaceSize(width, height);
 
 	}
 }
@@ -0,0 +1,43 @@
+package com.appspot.mathuzzles.risingnumbers;
+
+/**
+ * Text of numbers for drawing, without making strings each frame.
+ */
+public class NumberText {
+
+	/** Numbers drawn on balls, made once */
+	private static final String[] STRINGS = new String[200];
+
+	static {
+		for (int i = 0; i < STRINGS.length; i++) {
+			STRINGS[i] = Integer.toString(i);
+		}
+	}
+
+	/**
+	 * Text of a ball's number, made once for the numbers balls usually have.
+	 */
+	public static String get(int number) {
+		if (number >= 0 && number < STRINGS.length) {
+			return STRINGS[number];
+		}
+		return Integer.toString(number);
+	}
+
+	/**
+	 * Write a number that isn't negative into chars.
+	 * 
+	 * @return the number of chars written
+	 */
+	public static int format(int number, char[] chars, int offset) {
+		int digits = 1;
+		for (int rest = number / 10; rest > 0; rest /= 10) {
+			digits++;
+		}
+		for (int i = offset + digits - 1; i >= offset; i--) {
+			chars[i] = (char) ('0' + number % 10);
+			number /= 10;
+		}
+		return digits;
+	}
+}
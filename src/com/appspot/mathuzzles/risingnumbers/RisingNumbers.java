@@ -1,13 +1,18 @@
 package com.appspot.mathuzzles.risingnumbers;
 
+import java.io.BufferedWriter;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.HashMap;
+import java.util.Random;
 
 import android.app.Activity;
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.content.DialogInterface;
 import android.content.DialogInterface.OnClickListener;
 import android.os.Bundle;
@@ -17,6 +22,7 @@ import android.view.MenuItem;
 
 import com.appspot.mathuzzles.risingnumbers.R;
 import com.appspot.mathuzzles.risingnumbers.GameView.GameThread;
+import com.appspot.mathuzzles.risingnumbers.metrics.Trace;
 
 /**
  * Rising numbers.
@@ -29,9 +35,25 @@ public class RisingNumbers extends Activity implements OnClickListener {
 	private static final int MENU_RESUME = 2;
 	private static final int MENU_START = 3;
 	private static final int MENU_START_MULTI_PLAY = 4;
+	private static final int MENU_NETWORK_STATS = 5;
+	private static final int MENU_START_LAN = 6;
+	private static final int MENU_AUTO_PLAY = 7;
+	private static final int MENU_HINTS = 8;
+	private static final int MENU_START_ENDLESS = 9;
+	private static final int MENU_UNDO = 10;
+	private static final int MENU_REWIND = 11;
+	private static final int MENU_TRACE = 12;
+	private static final int MENU_BATTERY_SAVER = 13;
+
+	private static final String SETTINGS = "settings";
+	private static final String SETTING_BATTERY_SAVER = "batterySaver";
+	private static final String SETTING_PLAYER_ID = "playerId";
 
 	private static final String SAVED_GAME_FILE_NAME = "savedGame";
 	public static final String HIGHSCORE_FILENAME = "highScore";
+	private static final String TRACE_FILE_NAME = "trace.json";
+
+	private static final int TRACE_SAVE_GAME = Trace.name("saveGame");
 
 	/** A handle to the View in which the game is running. */
 	private GameView mGameView;
@@ -47,11 +69,17 @@ public class RisingNumbers extends Activity implements OnClickListener {
 	public static final String LAST_X = "LAST_X";
 	public static final String IS_SHOOTING = "IS_SHOOTING";
 	public static final String IS_PLAY_ONLINE = "IS_PLAY_ONLINE";
+	public static final String IS_PLAY_LAN = "IS_PLAY_LAN";
+	public static final String IS_ENDLESS = "IS_ENDLESS";
+	public static final String LEVEL = "LEVEL";
 	public static final String MULTI_PLAY_GAME_STATUS = "MULTI_PLAY_GAME_STATUS";
 	public static final String MULTI_PLAY_GAME_STARTED = "MULTI_PLAY_GAME_STARTED";
 	public static final String MULTI_PLAY_USER_ID = "MULTI_PLAY_USER_ID";
 	public static final String BALLS_TO_OPPONENT = "BALLS_TO_OPPONENT";
 	public static final String BALLS_FROM_OPPONENT = "BALLS_FROM_OPPONENT";
+	public static final String REPLAY = "REPLAY";
+	public static final String BALL_INDEX = "BALL_INDEX";
+	public static final String BOARD_INDEX = "BOARD_INDEX";
 
 	/**
 	 * Invoked during init to give the Activity a chance to set up its Menu.
@@ -65,8 +93,21 @@ public class RisingNumbers extends Activity implements OnClickListener {
 		super.onCreateOptionsMenu(menu);
 		menu.add(0, MENU_START, 0, R.string.menu_start);
 		menu.add(0, MENU_START_MULTI_PLAY, 0, R.string.menu_start_multiplay);
+		menu.add(0, MENU_START_LAN, 0, R.string.menu_start_lan);
+		menu.add(0, MENU_START_ENDLESS, 0, R.string.menu_start_endless);
 		menu.add(0, MENU_PAUSE, 0, R.string.menu_pause);
 		menu.add(0, MENU_RESUME, 0, R.string.menu_resume);
+		menu.add(0, MENU_UNDO, 0, R.string.menu_undo);
+		menu.add(0, MENU_REWIND, 0, R.string.menu_rewind);
+		menu.add(0, MENU_NETWORK_STATS, 0, R.string.menu_network_stats)
+				.setCheckable(true);
+		menu.add(0, MENU_AUTO_PLAY, 0, R.string.menu_auto_play).setCheckable(
+				true);
+		menu.add(0, MENU_HINTS, 0, R.string.menu_hints).setCheckable(true);
+		menu.add(0, MENU_TRACE, 0, R.string.menu_trace).setCheckable(true);
+		menu.add(0, MENU_BATTERY_SAVER, 0, R.string.menu_battery_saver)
+				.setCheckable(true)
+				.setChecked(mGameView.getThread().isBatterySaver());
 		return true;
 	}
 
@@ -85,11 +126,29 @@ public class RisingNumbers extends Activity implements OnClickListener {
 		case MENU_START:
 			gameThread.setState(GameThread.STATE_RUNNING);
 			gameThread.setIsPlayOnline(false);
+			gameThread.setIsPlayLan(false);
+			gameThread.setEndless(false);
 			gameThread.doStart();
 			return true;
 		case MENU_START_MULTI_PLAY:
 			gameThread.setState(GameThread.STATE_RUNNING);
 			gameThread.setIsPlayOnline(true);
+			gameThread.setIsPlayLan(false);
+			gameThread.setEndless(false);
+			gameThread.doStart();
+			return true;
+		case MENU_START_LAN:
+			gameThread.setState(GameThread.STATE_RUNNING);
+			gameThread.setIsPlayOnline(true);
+			gameThread.setIsPlayLan(true);
+			gameThread.setEndless(false);
+			gameThread.doStart();
+			return true;
+		case MENU_START_ENDLESS:
+			gameThread.setState(GameThread.STATE_RUNNING);
+			gameThread.setIsPlayOnline(false);
+			gameThread.setIsPlayLan(false);
+			gameThread.setEndless(true);
 			gameThread.doStart();
 			return true;
 		case MENU_PAUSE:
@@ -98,6 +157,42 @@ public class RisingNumbers extends Activity implements OnClickListener {
 		case MENU_RESUME:
 			gameThread.unpause();
 			return true;
+		case MENU_UNDO:
+			gameThread.undo(1);
+			return true;
+		case MENU_REWIND:
+			gameThread.undo(GameThread.REWIND_SHOTS);
+			return true;
+		case MENU_NETWORK_STATS:
+			gameThread.setShowNetworkStats(!gameThread.isShowNetworkStats());
+			item.setChecked(gameThread.isShowNetworkStats());
+			return true;
+		case MENU_AUTO_PLAY:
+			gameThread.setAutoPlay(!gameThread.isAutoPlay());
+			item.setChecked(gameThread.isAutoPlay());
+			return true;
+		case MENU_HINTS:
+			gameThread.setShowHints(!gameThread.isShowHints());
+			item.setChecked(gameThread.isShowHints());
+			return true;
+		case MENU_TRACE:
+			if (Trace.isEnabled()) {
+				Trace.setEnabled(false);
+				saveTrace();
+			} else {
+				Trace.clear();
+				Trace.nameThread("main");
+				Trace.setEnabled(true);
+			}
+			item.setChecked(Trace.isEnabled());
+			return true;
+		case MENU_BATTERY_SAVER:
+			gameThread.setBatterySaver(!gameThread.isBatterySaver());
+			item.setChecked(gameThread.isBatterySaver());
+			getSharedPreferences(SETTINGS, MODE_PRIVATE).edit()
+					.putBoolean(SETTING_BATTERY_SAVER,
+							gameThread.isBatterySaver()).commit();
+			return true;
 		}
 
 		return false;
@@ -113,6 +208,8 @@ public class RisingNumbers extends Activity implements OnClickListener {
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
+		StartupTrace.begin();
+		GameMetrics.start(getFilesDir());
 
 		// Use the layout defined in our XML file
 		setContentView(R.layout.risingnumbers_layout);
@@ -120,10 +217,26 @@ public class RisingNumbers extends Activity implements OnClickListener {
 		// Get handles to the GameView from XML
 		mGameView = (GameView) findViewById(R.id.risingnumbers);
 
-		// Start game thread
+		// Carry on with the game kept for the process, else start one
 		GameThread gameThread = mGameView.getThread();
-		gameThread.setState(GameThread.STATE_RUNNING);
-		gameThread.doStart();
+		if (!gameThread.restoreKeptState()) {
+			gameThread.setState(GameThread.STATE_RUNNING);
+			gameThread.doStart();
+		}
+		SharedPreferences settings = getSharedPreferences(SETTINGS,
+				MODE_PRIVATE);
+		gameThread.setBatterySaver(settings.getBoolean(SETTING_BATTERY_SAVER,
+				false));
+
+		// Leaderboard Id, made on first use
+		String playerId = settings.getString(SETTING_PLAYER_ID, null);
+		if (playerId == null) {
+			playerId = Long.toString(new Random().nextLong() & Long.MAX_VALUE,
+					36);
+			settings.edit().putString(SETTING_PLAYER_ID, playerId).commit();
+		}
+		GameHolder.setPlayerId(playerId);
+		StartupTrace.mark("onCreate");
 	}
 
 	/**
@@ -133,29 +246,40 @@ public class RisingNumbers extends Activity implements OnClickListener {
 	protected void onPause() {
 		super.onPause();
 
+		Trace.begin(TRACE_SAVE_GAME);
 		try {
 			// Save game
+			long start = System.nanoTime();
 			FileOutputStream fos = openFileOutput(SAVED_GAME_FILE_NAME,
 					Context.MODE_PRIVATE);
 			ObjectOutputStream out = new ObjectOutputStream(fos);
 			out.writeObject(mGameView.getThread().getGameState());
 			out.close();
+			GameMetrics.SAVE_MICROS.record((System.nanoTime() - start) / 1000);
 
 		} catch (Exception e) {
 			Log
 					.e(this.getClass().getName(), "Exception saving:"
 							+ e.toString());
 		}
+		Trace.end(TRACE_SAVE_GAME);
+
+		mGameView.getThread().keepState();
+		GameMetrics.reportNow();
+		GameHolder.flushScores();
 	}
 
 	protected void onResume() {
 
 		super.onResume();
 
-		// Restore
-		HashMap<String, Object> savedGame = getSavedGame(this);
-		if (savedGame != null && savedGame.get(CURR_BALL) != null) {
-			mGameView.getThread().restoreState(savedGame);
+		// Restore once per process, after that the game is kept in memory
+		if (GameHolder.readSavedGame()) {
+			HashMap<String, Object> savedGame = getSavedGame(this);
+			if (savedGame != null && savedGame.get(CURR_BALL) != null) {
+				mGameView.getThread().restoreState(savedGame);
+			}
+			StartupTrace.mark("savedGame");
 		}
 	}
 
@@ -168,6 +292,22 @@ public class RisingNumbers extends Activity implements OnClickListener {
 	public void onClick(DialogInterface arg0, int arg1) {
 	}
 
+	/**
+	 * Write the trace recorded so far, in the Chrome trace format.
+	 */
+	private void saveTrace() {
+		try {
+			Writer out = new BufferedWriter(new OutputStreamWriter(
+					openFileOutput(TRACE_FILE_NAME, Context.MODE_PRIVATE),
+					"UTF-8"));
+			Trace.writeJson(out);
+			out.close();
+		} catch (Exception e) {
+			Log.e(this.getClass().getName(), "Exception saving trace:"
+					+ e.toString());
+		}
+	}
+
 	/**
 	 * Get saved game.
 	 * 
@@ -175,12 +315,15 @@ public class RisingNumbers extends Activity implements OnClickListener {
 	 */
 	public static HashMap<String, Object> getSavedGame(Context context) {
 		HashMap<String, Object> hashMap = null;
+		long start = System.nanoTime();
 		try {
 			FileInputStream fis = context.openFileInput(SAVED_GAME_FILE_NAME);
 			if (fis != null) {
 				ObjectInputStream in = new ObjectInputStream(fis);
 				if (in != null) {
 					hashMap = (HashMap<String, Object>) in.readObject();
+					GameMetrics.LOAD_MICROS.record((System.nanoTime()
+							- start) / 1000);
 					if (hashMap != null && !hashMap.isEmpty()) {
 						return hashMap;
 					}
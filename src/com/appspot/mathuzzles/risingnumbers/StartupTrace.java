@@ -0,0 +1,91 @@
+package com.appspot.mathuzzles.risingnumbers;
+
+import android.util.Log;
+
+/**
+ * Times from the activity being made to the first frame drawn, with marks
+ * for the steps in between, e.g. reading the saved game.
+ *
+ * The first start of the process is cold, later ones, e.g. after the screen
+ * turns, are warm. Each start is logged once its first frame is drawn.
+ */
+final class StartupTrace {
+
+	private static final String TAG = "StartupTrace";
+	private static final int MAX_MARKS = 8;
+
+	private static final String[] names = new String[MAX_MARKS];
+	private static final long[] nanos = new long[MAX_MARKS];
+	private static int count = 0;
+	private static long start = 0;
+	private static boolean cold = true;
+	private static volatile boolean pending = false;
+	private static long firstFrameMillis = -1;
+
+	private StartupTrace() {
+	}
+
+	/**
+	 * Start timing, when the activity is made.
+	 */
+	static synchronized void begin() {
+		if (start != 0) {
+			cold = false;
+		}
+		start = System.nanoTime();
+		count = 0;
+		pending = true;
+	}
+
+	/**
+	 * Mark a step done, if still starting.
+	 */
+	static synchronized void mark(String name) {
+		if (pending && count < MAX_MARKS) {
+			names[count] = name;
+			nanos[count] = System.nanoTime();
+			count++;
+		}
+	}
+
+	/**
+	 * Called after each frame; the first after begin ends the trace and logs
+	 * it.
+	 */
+	static void frameDrawn() {
+		if (!pending) {
+			return;
+		}
+		synchronized (StartupTrace.class) {
+			if (!pending) {
+				return;
+			}
+			pending = false;
+			long now = System.nanoTime();
+			firstFrameMillis = (now - start) / 1000000;
+
+			StringBuilder line = new StringBuilder(128);
+			line.append(cold ? "Cold" : "Warm").append(" start:");
+			for (int i = 0; i < count; i++) {
+				appendMillis(line.append(' ').append(names[i]).append(' '),
+						nanos[i] - start);
+				line.append(',');
+			}
+			appendMillis(line.append(" first frame "), now - start);
+			Log.i(TAG, line.toString());
+		}
+	}
+
+	/**
+	 * @return milliseconds to the first frame of the last start, or -1 if
+	 *         not drawn yet
+	 */
+	static synchronized long getFirstFrameMillis() {
+		return firstFrameMillis;
+	}
+
+	private static void appendMillis(StringBuilder line, long nanos) {
+		line.append(nanos / 1000000).append('.').append(nanos / 100000 % 10)
+				.append(" ms");
+	}
+}
@@ -0,0 +1,287 @@
+package com.appspot.mathuzzles.risingnumbers.bot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.appspot.mathuzzles.risingnumbers.model.Ball;
+import com.appspot.mathuzzles.risingnumbers.model.Game;
+
+/**
+ * Finds the best x to shoot the current ball from.
+ *
+ * Every x between the margins is tried on a copy of the board with the game
+ * rules, so divides, sticks, clears and game over come out exactly as in
+ * play. Then the balls already in the queue are tried after it. The x range
+ * is split across threads and each thread searches deeper while the time
+ * budget lasts.
+ *
+ * Different orders of shots often reach the same board, e.g. any x that
+ * divides the same ball, so searched states are kept in a transposition
+ * table shared by the threads.
+ */
+public class ShotSearch {
+
+	/** The current ball and the balls in the queue are known */
+	public static final int MAX_DEPTH = Game.BALLS_IN_QUEUE + 1;
+
+	/** Step between tried x for the current ball */
+	private static final int STEP = 3;
+
+	/** Coarser step for the balls after it */
+	private static final int STEP_AHEAD = Game.BALL_RADIUS / 2;
+
+	// 64K slots, 64 locks
+	private static final int TABLE_BITS = 16;
+	private static final int STRIPE_BITS = 6;
+
+	/**
+	 * New balls in the copies are made from the same seed, so the same shots
+	 * give the same board whichever order they're tried in.
+	 */
+	private static final long SEARCH_SEED = 0;
+
+	// Weights of what's left on the board
+	private static final double LOST = -1000000;
+	private static final double BALL_WEIGHT = 5;
+	private static final double NUMBER_WEIGHT = 0.2;
+	private static final double DEPTH_WEIGHT = 0.1;
+
+	/**
+	 * Result of a search.
+	 */
+	public static class Shot {
+		public int x;
+		public double score;
+
+		/** Number of balls looked at */
+		public int depth;
+	}
+
+	private final ExecutorService executor;
+	private final int slices;
+	private final int maxDepth;
+	private final TranspositionTable table = new TranspositionTable(
+			TABLE_BITS, STRIPE_BITS);
+	private final AtomicLong probes = new AtomicLong();
+	private final AtomicLong hits = new AtomicLong();
+
+	/**
+	 * @param threads
+	 *            threads to search on
+	 * @param maxDepth
+	 *            number of balls to look at, 1 to MAX_DEPTH
+	 */
+	public ShotSearch(int threads, int maxDepth) {
+		this.slices = Math.max(1, threads);
+		this.maxDepth = Math.max(1, Math.min(maxDepth, MAX_DEPTH));
+		executor = Executors.newFixedThreadPool(slices, new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "ShotSearch");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Find the best shot. The first ball is always searched to the end, the
+	 * balls after it only while the budget lasts.
+	 *
+	 * @param game
+	 *            board to search, not changed and must not change during the
+	 *            search
+	 * @param budgetMillis
+	 *            time to search for
+	 * @return the best shot or null if the game is over
+	 */
+	public Shot findShot(Game game, long budgetMillis) {
+		if (game.isGameOver) {
+			return null;
+		}
+
+		long deadline = System.nanoTime() + budgetMillis * 1000000L;
+		table.nextGeneration();
+		List<Callable<Slice>> tasks = new ArrayList<Callable<Slice>>(slices);
+		for (int i = 0; i < slices; i++) {
+			tasks.add(new Slice(game, i, deadline));
+		}
+
+		List<Slice> results = new ArrayList<Slice>(slices);
+		try {
+			List<Future<Slice>> futures = executor.invokeAll(tasks);
+			for (int i = 0; i < futures.size(); i++) {
+				results.add(futures.get(i).get());
+			}
+		} catch (Exception e) {
+			// Interrupted or shut down
+			return null;
+		}
+
+		// Scores are only comparable at a depth every slice finished.
+		int depth = maxDepth;
+		for (int i = 0; i < results.size(); i++) {
+			depth = Math.min(depth, results.get(i).depthDone);
+		}
+
+		Shot shot = new Shot();
+		shot.x = game.currBall.x;
+		shot.score = Double.NEGATIVE_INFINITY;
+		shot.depth = depth;
+		for (int i = 0; i < results.size(); i++) {
+			Slice slice = results.get(i);
+			if (slice.bestScore[depth] > shot.score) {
+				shot.score = slice.bestScore[depth];
+				shot.x = slice.bestX[depth];
+			}
+		}
+		return shot;
+	}
+
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * @return transposition table look ups so far
+	 */
+	public long getProbes() {
+		return probes.get();
+	}
+
+	/**
+	 * @return look ups that found the state already searched
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Every slices'th x from the first, so each slice covers the whole board.
+	 */
+	private class Slice implements Callable<Slice> {
+
+		private final Game game;
+		private final int first;
+		private final long deadline;
+		private final Random random = new Random();
+		private boolean timedOut = false;
+		private long sliceProbes = 0;
+		private long sliceHits = 0;
+
+		int depthDone = 0;
+		final double[] bestScore = new double[MAX_DEPTH + 1];
+		final int[] bestX = new int[MAX_DEPTH + 1];
+
+		Slice(Game game, int first, long deadline) {
+			this.game = game;
+			this.first = first;
+			this.deadline = deadline;
+		}
+
+		public Slice call() {
+			try {
+				search();
+			} finally {
+				probes.addAndGet(sliceProbes);
+				hits.addAndGet(sliceHits);
+			}
+			return this;
+		}
+
+		private void search() {
+			int start = Game.MARGIN_LEFT + first * STEP;
+			int stride = slices * STEP;
+			for (int depth = 1; depth <= maxDepth; depth++) {
+				double best = Double.NEGATIVE_INFINITY;
+				int x = game.currBall.x;
+				for (int i = start; i <= game.getMarginRight(); i += stride) {
+					double score = search(game, i, depth);
+					if (timedOut) {
+						return;
+					}
+					if (score > best) {
+						best = score;
+						x = i;
+					}
+				}
+				bestScore[depth] = best;
+				bestX[depth] = x;
+				depthDone = depth;
+			}
+		}
+
+		/**
+		 * Score of shooting from x and then the next depth - 1 balls as well
+		 * as they can be.
+		 */
+		private double search(Game from, int x, int depth) {
+			Game board = shoot(from, x);
+			if (depth == 1 || board.isGameOver) {
+				return evaluate(board);
+			}
+
+			long key = board.getStateHash();
+			sliceProbes++;
+			double cached = table.get(key, depth - 1);
+			if (!Double.isNaN(cached)) {
+				sliceHits++;
+				return cached;
+			}
+
+			// The first ball always finishes, after it keep to the budget.
+			if (System.nanoTime() > deadline) {
+				timedOut = true;
+				return 0;
+			}
+
+			double best = Double.NEGATIVE_INFINITY;
+			int marginRight = board.getMarginRight();
+			for (int i = Game.MARGIN_LEFT; i <= marginRight; i += STEP_AHEAD) {
+				double score = search(board, i, depth - 1);
+				if (timedOut) {
+					return 0;
+				}
+				if (score > best) {
+					best = score;
+				}
+			}
+			table.put(key, depth - 1, best);
+			return best;
+		}
+
+		private Game shoot(Game from, int x) {
+			random.setSeed(SEARCH_SEED);
+			Game board = from.copy(random);
+			board.currBall.x = x;
+			board.step(0, 0, true);
+			return board;
+		}
+	}
+
+	/**
+	 * Points scored, less what's left on the board: fewer, smaller and higher
+	 * balls keep the game going longer.
+	 */
+	static double evaluate(Game game) {
+		if (game.isGameOver) {
+			return LOST + game.points;
+		}
+
+		double score = game.points;
+		ArrayList<Ball> balls = game.balls;
+		int size = balls.size();
+		for (int i = 0; i < size; i++) {
+			Ball ball = balls.get(i);
+			score -= BALL_WEIGHT + ball.number * NUMBER_WEIGHT
+					+ (ball.y - Game.MARGIN_TOP) * DEPTH_WEIGHT;
+		}
+		return score;
+	}
+}
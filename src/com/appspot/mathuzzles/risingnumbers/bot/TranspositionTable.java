@@ -0,0 +1,89 @@
+package com.appspot.mathuzzles.risingnumbers.bot;
+
+/**
+ * Fixed size cache of searched board states, shared by the search threads.
+ *
+ * Slots are guarded by a set of locks, slot i by lock i % stripes, so threads
+ * rarely wait on each other. When two states want the same slot the deeper
+ * search is kept, unless the slot is from an earlier search.
+ */
+public class TranspositionTable {
+
+	private final int mask;
+	private final long[] keys;
+	private final double[] values;
+	private final int[] depths;
+	private final int[] generations;
+
+	private final Object[] locks;
+	private final int stripeMask;
+
+	/** Searches so far; 0 marks an empty slot */
+	private volatile int generation = 1;
+
+	/**
+	 * @param sizeBits
+	 *            the table has 2^sizeBits slots
+	 * @param stripeBits
+	 *            the table has 2^stripeBits locks
+	 */
+	public TranspositionTable(int sizeBits, int stripeBits) {
+		int size = 1 << sizeBits;
+		mask = size - 1;
+		keys = new long[size];
+		values = new double[size];
+		depths = new int[size];
+		generations = new int[size];
+
+		int stripes = 1 << stripeBits;
+		stripeMask = stripes - 1;
+		locks = new Object[stripes];
+		for (int i = 0; i < stripes; i++) {
+			locks[i] = new Object();
+		}
+	}
+
+	/**
+	 * Start a new search. Entries already stored stay valid but can be
+	 * replaced by anything.
+	 */
+	public void nextGeneration() {
+		generation++;
+	}
+
+	/**
+	 * @return the stored score or NaN if the state wasn't searched to this
+	 *         depth
+	 */
+	public double get(long key, int depth) {
+		int index = index(key);
+		synchronized (locks[index & stripeMask]) {
+			if (generations[index] != 0 && keys[index] == key
+					&& depths[index] == depth) {
+				return values[index];
+			}
+		}
+		return Double.NaN;
+	}
+
+	public void put(long key, int depth, double value) {
+		int index = index(key);
+		int current = generation;
+		synchronized (locks[index & stripeMask]) {
+			if (generations[index] != current || depth >= depths[index]) {
+				keys[index] = key;
+				values[index] = value;
+				depths[index] = depth;
+				generations[index] = current;
+			}
+		}
+	}
+
+	public int size() {
+		return keys.length;
+	}
+
+	private int index(long key) {
+		return (int) (key ^ (key >>> 32)) & mask;
+	}
+}
@@ -0,0 +1,135 @@
+package com.appspot.mathuzzles.risingnumbers.leaderboard;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.appspot.mathuzzles.risingnumbers.model.Replay;
+
+/**
+ * Leaderboard protocol.
+ *
+ * Scores are uploaded in batches: a POST to the Leaderboard URL of gzipped
+ * lines of player Id, points, when the score was made and the replay of the
+ * game, as Replay.toText writes it. The server plays each replay again and
+ * answers 400 if a score isn't the one its replay earns. Rankings are a GET
+ * with either start and count for the top, or playerId and count for those
+ * around a player. Responses are lines of rank, from 1, player Id and points.
+ */
+public class LeaderboardProtocol {
+
+	public static final String LEADERBOARD_URL = "http://mathuzzles.appspot.com/Leaderboard";
+
+	/** Most scores read from one upload */
+	public static final int MAX_BATCH = 1000;
+
+	/** Most rankings asked for at once */
+	public static final int MAX_COUNT = 100;
+
+	/**
+	 * A score made by a player.
+	 */
+	public static class Score {
+		public String playerId;
+		public int points;
+		public long time;
+
+		/** The game that made the score, null once verified */
+		public Replay replay;
+
+		public Score(String playerId, int points, long time) {
+			this(playerId, points, time, null);
+		}
+
+		public Score(String playerId, int points, long time, Replay replay) {
+			this.playerId = playerId;
+			this.points = points;
+			this.time = time;
+			this.replay = replay;
+		}
+	}
+
+	/**
+	 * Encode scores as the body of an upload.
+	 */
+	public static byte[] encode(List<Score> scores) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+				16 + scores.size() * 12);
+		Writer out = new OutputStreamWriter(new GZIPOutputStream(bytes),
+				"UTF-8");
+		for (int i = 0; i < scores.size(); i++) {
+			Score score = scores.get(i);
+			out.write(score.playerId);
+			out.write(',');
+			out.write(Integer.toString(score.points));
+			out.write(',');
+			out.write(Long.toString(score.time));
+			if (score.replay != null) {
+				out.write(',');
+				out.write(score.replay.toText());
+			}
+			out.write('\n');
+		}
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Decode the body of an upload.
+	 *
+	 * @throws NumberFormatException
+	 *             if a line isn't a score, or its replay isn't a replay
+	 * @throws IOException
+	 *             if the body isn't gzipped or has too many scores
+	 */
+	public static List<Score> decode(InputStream body) throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(
+				new GZIPInputStream(body), "UTF-8"));
+		List<Score> scores = new ArrayList<Score>();
+		String line;
+		while ((line = in.readLine()) != null) {
+			if (line.length() == 0) {
+				continue;
+			}
+			if (scores.size() == MAX_BATCH) {
+				throw new IOException("More than " + MAX_BATCH + " scores");
+			}
+			int first = line.indexOf(',');
+			int second = line.indexOf(',', first + 1);
+			if (first <= 0 || second < 0) {
+				throw new NumberFormatException("Not a score: " + line);
+			}
+			int third = line.indexOf(',', second + 1);
+			int timeEnd = third < 0 ? line.length() : third;
+			scores.add(new Score(line.substring(0, first), Integer
+					.parseInt(line.substring(first + 1, second)), Long
+					.parseLong(line.substring(second + 1, timeEnd)),
+					third < 0 ? null : Replay.fromText(line
+							.substring(third + 1))));
+		}
+		return scores;
+	}
+
+	/**
+	 * @return query string for the top rankings, starting with '?'
+	 */
+	public static String buildTopQuery(int start, int count) {
+		return "?start=" + start + "&count=" + count;
+	}
+
+	/**
+	 * @return query string for the rankings around a player, starting with
+	 *         '?'
+	 */
+	public static String buildAroundQuery(String playerId, int count) {
+		return "?playerId=" + playerId + "&count=" + count;
+	}
+}
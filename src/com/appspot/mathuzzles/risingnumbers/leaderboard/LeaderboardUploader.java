@@ -0,0 +1,223 @@
+package com.appspot.mathuzzles.risingnumbers.leaderboard;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.appspot.mathuzzles.risingnumbers.model.Replay;
+
+/**
+ * Uploads scores to the leaderboard on its own thread.
+ *
+ * Submitting only adds the score to a list, so the game thread never waits
+ * on the network. The thread uploads what's been submitted as one batch
+ * every BATCH_MILLIS, or straight away when flushed, e.g. when the game is
+ * paused and the process may be killed. An upload that failed on the way,
+ * or that the server couldn't take just then, is tried again with the next
+ * batch, after a longer wait each time. One the server rejects is dropped, as
+ * sending it again won't help. At most MAX_PENDING scores are kept, the
+ * oldest go first.
+ *
+ * Uses HttpURLConnection rather than the game's HttpClient so it also runs on
+ * a plain JVM, e.g. against the local stand-in.
+ */
+public class LeaderboardUploader extends Thread {
+
+	private static final long BATCH_MILLIS = 30000;
+	private static final long MAX_RETRY_MILLIS = 10 * 60000;
+	private static final int MAX_PENDING = 200;
+	private static final int TIMEOUT_MILLIS = 15000;
+
+	// Results of an upload
+	private static final int SENT = 0;
+	private static final int RETRY = 1;
+	private static final int REJECTED = 2;
+
+	private final String url;
+	private final List<LeaderboardProtocol.Score> pending = new ArrayList<LeaderboardProtocol.Score>();
+	private boolean flushing = false;
+	private boolean finished = false;
+	private long retryMillis = BATCH_MILLIS;
+
+	/** Scores at the start of pending being uploaded */
+	private int sending = 0;
+
+	// Counts for the stats
+	private int uploaded = 0;
+	private int failures = 0;
+	private int dropped = 0;
+	private String lastError = null;
+
+	public LeaderboardUploader(String url) {
+		super("LeaderboardUploader");
+		this.url = url;
+		setDaemon(true);
+	}
+
+	/**
+	 * Add a score to the next batch. Doesn't block.
+	 *
+	 * @param replay
+	 *            the game that made the score, kept until uploaded
+	 */
+	public synchronized void submit(String playerId, int points, long time,
+			Replay replay) {
+		if (pending.size() == MAX_PENDING) {
+			pending.remove(0);
+			dropped++;
+			if (sending > 0) {
+				sending--;
+			}
+		}
+		pending.add(new LeaderboardProtocol.Score(playerId, points, time,
+				replay));
+	}
+
+	/**
+	 * Upload what's been submitted now rather than with the next batch.
+	 */
+	public synchronized void flush() {
+		if (!pending.isEmpty()) {
+			flushing = true;
+			notify();
+		}
+	}
+
+	/**
+	 * Stop after uploading what's been submitted.
+	 */
+	public synchronized void finish() {
+		finished = true;
+		notify();
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			List<LeaderboardProtocol.Score> batch;
+			synchronized (this) {
+				long waitMillis = retryMillis;
+				while (!finished && !flushing && waitMillis > 0) {
+					long start = System.currentTimeMillis();
+					try {
+						wait(waitMillis);
+					} catch (InterruptedException e) {
+						return;
+					}
+					waitMillis -= System.currentTimeMillis() - start;
+				}
+				flushing = false;
+				if (pending.isEmpty()) {
+					if (finished) {
+						return;
+					}
+					continue;
+				}
+				batch = new ArrayList<LeaderboardProtocol.Score>(pending);
+				sending = batch.size();
+			}
+
+			int result = send(batch);
+			synchronized (this) {
+				if (result != RETRY) {
+					// Scores submitted while sending stay for the next batch
+					pending.subList(0, sending).clear();
+					sending = 0;
+					if (result == SENT) {
+						uploaded += batch.size();
+					} else {
+						dropped += batch.size();
+					}
+					retryMillis = BATCH_MILLIS;
+				} else {
+					sending = 0;
+					failures++;
+					retryMillis = Math.min(retryMillis * 2, MAX_RETRY_MILLIS);
+					if (finished) {
+						return;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Post a batch.
+	 *
+	 * @return SENT, RETRY if it failed on the way or the server couldn't take
+	 *         it now, or REJECTED if the server won't take it
+	 */
+	private int send(List<LeaderboardProtocol.Score> batch) {
+		HttpURLConnection connection = null;
+		try {
+			byte[] body = LeaderboardProtocol.encode(batch);
+			connection = (HttpURLConnection) new URL(url).openConnection();
+			connection.setConnectTimeout(TIMEOUT_MILLIS);
+			connection.setReadTimeout(TIMEOUT_MILLIS);
+			connection.setDoOutput(true);
+			connection.setRequestMethod("POST");
+			connection.setRequestProperty("Content-Type", "text/plain");
+			connection.setRequestProperty("Content-Encoding", "gzip");
+			connection.setFixedLengthStreamingMode(body.length);
+			OutputStream out = connection.getOutputStream();
+			out.write(body);
+			out.close();
+
+			int status = connection.getResponseCode();
+			InputStream in = status < 400 ? connection.getInputStream()
+					: connection.getErrorStream();
+			if (in != null) {
+				in.close();
+			}
+			if (status < 300) {
+				return SENT;
+			}
+			setLastError("HTTP " + status);
+			// Timed out or too many requests are worth another try, other
+			// client errors aren't
+			if (status >= 400 && status < 500 && status != 408
+					&& status != 429) {
+				return REJECTED;
+			}
+			return RETRY;
+		} catch (IOException e) {
+			setLastError(e.toString());
+			return RETRY;
+		} finally {
+			if (connection != null) {
+				connection.disconnect();
+			}
+		}
+	}
+
+	private synchronized void setLastError(String error) {
+		lastError = error;
+	}
+
+	public synchronized int getPendingCount() {
+		return pending.size();
+	}
+
+	public synchronized int getUploadedCount() {
+		return uploaded;
+	}
+
+	public synchronized int getFailureCount() {
+		return failures;
+	}
+
+	public synchronized int getDroppedCount() {
+		return dropped;
+	}
+
+	/**
+	 * @return the last upload's error, or null if none failed
+	 */
+	public synchronized String getLastError() {
+		return lastError;
+	}
+}
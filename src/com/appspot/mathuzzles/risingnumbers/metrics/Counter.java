@@ -0,0 +1,44 @@
+package com.appspot.mathuzzles.risingnumbers.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Count that many threads add to at once.
+ *
+ * Split into stripes picked by thread, each on its own cache line, so
+ * threads adding at the same time don't contend, as LongAdder does. Reading
+ * adds the stripes up.
+ */
+public class Counter {
+
+	/** Stripes, a power of two */
+	private static final int STRIPES = 8;
+
+	/** Longs between stripes, so each is on its own 64 byte line */
+	private static final int PAD = 8;
+
+	private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PAD);
+
+	public void increment() {
+		cells.incrementAndGet(stripe());
+	}
+
+	public void add(long value) {
+		cells.addAndGet(stripe(), value);
+	}
+
+	/**
+	 * @return the sum of what was added
+	 */
+	public long get() {
+		long sum = 0;
+		for (int i = 0; i < STRIPES; i++) {
+			sum += cells.get(i * PAD);
+		}
+		return sum;
+	}
+
+	private static int stripe() {
+		return ((int) Thread.currentThread().getId() & (STRIPES - 1)) * PAD;
+	}
+}
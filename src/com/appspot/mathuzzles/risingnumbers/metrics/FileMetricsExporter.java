@@ -0,0 +1,59 @@
+package com.appspot.mathuzzles.risingnumbers.metrics;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Appends snapshots to a local file as comma separated lines: a header of
+ * the names when they change, then the time and values of each snapshot.
+ *
+ * When the file grows past its limit it's moved to name.old and a new one
+ * started, so at most two files are kept.
+ */
+public class FileMetricsExporter implements MetricsExporter {
+
+	private final File file;
+	private final long maxBytes;
+	private String[] headerNames = null;
+
+	public FileMetricsExporter(File file, long maxBytes) {
+		this.file = file;
+		this.maxBytes = maxBytes;
+	}
+
+	public synchronized void export(MetricsSnapshot snapshot)
+			throws IOException {
+		if (file.length() > maxBytes) {
+			File old = new File(file.getPath() + ".old");
+			old.delete();
+			file.renameTo(old);
+			headerNames = null;
+		}
+
+		StringBuilder lines = new StringBuilder(256);
+		if (headerNames == null || !file.exists()
+				|| !Arrays.equals(headerNames, snapshot.names)) {
+			lines.append("time");
+			for (int i = 0; i < snapshot.names.length; i++) {
+				lines.append(',').append(snapshot.names[i]);
+			}
+			lines.append('\n');
+			headerNames = snapshot.names;
+		}
+		lines.append(snapshot.time);
+		for (int i = 0; i < snapshot.values.length; i++) {
+			lines.append(',').append(snapshot.values[i]);
+		}
+		lines.append('\n');
+
+		Writer out = new FileWriter(file, true);
+		try {
+			out.write(lines.toString());
+		} finally {
+			out.close();
+		}
+	}
+}
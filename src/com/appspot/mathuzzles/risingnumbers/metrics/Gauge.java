@@ -0,0 +1,17 @@
+package com.appspot.mathuzzles.risingnumbers.metrics;
+
+/**
+ * Latest value of something, e.g. the balls on the board.
+ */
+public class Gauge {
+
+	private volatile long value = 0;
+
+	public void set(long newValue) {
+		value = newValue;
+	}
+
+	public long get() {
+		return value;
+	}
+}
@@ -0,0 +1,130 @@
+package com.appspot.mathuzzles.risingnumbers.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of non-negative values with log-linear buckets.
+ *
+ * Each power of two is split into SUB_BUCKETS buckets so percentiles are
+ * within about 6% of the recorded value. Recording doesn't allocate and is
+ * safe from multiple threads.
+ */
+public class Histogram {
+
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int MAX_SHIFT = 40;
+	private static final int BUCKETS = (MAX_SHIFT + 2) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Record a value. Negative values are recorded as 0.
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		counts.incrementAndGet(bucketIndex(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+
+		long currMax = max.get();
+		while (value > currMax && !max.compareAndSet(currMax, value)) {
+			currMax = max.get();
+		}
+	}
+
+	/**
+	 * Get the value at the given percentile.
+	 *
+	 * @param percentile
+	 *            0 to 100
+	 * @return lower bound of the bucket holding the percentile, 0 if empty
+	 */
+	public long getPercentile(double percentile) {
+		long total = count.get();
+		if (total == 0) {
+			return 0;
+		}
+		long target = (long) Math.ceil(total * percentile / 100.0);
+		if (target < 1) {
+			target = 1;
+		}
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= target) {
+				return Math.min(bucketValue(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public double getMean() {
+		long total = count.get();
+		return total == 0 ? 0 : (double) sum.get() / total;
+	}
+
+	/**
+	 * Add the values of another histogram to this one.
+	 */
+	public void add(Histogram other) {
+		for (int i = 0; i < BUCKETS; i++) {
+			long c = other.counts.get(i);
+			if (c != 0) {
+				counts.addAndGet(i, c);
+			}
+		}
+		count.addAndGet(other.count.get());
+		sum.addAndGet(other.sum.get());
+		long otherMax = other.max.get();
+		long currMax = max.get();
+		while (otherMax > currMax && !max.compareAndSet(currMax, otherMax)) {
+			currMax = max.get();
+		}
+	}
+
+	/**
+	 * Clear all values.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	private static int bucketIndex(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		if (shift > MAX_SHIFT) {
+			return BUCKETS - 1;
+		}
+		return (shift * SUB_BUCKETS) + (int) (value >>> shift);
+	}
+
+	private static long bucketValue(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = (index / SUB_BUCKETS) - 1;
+		return ((long) (index - (shift * SUB_BUCKETS))) << shift;
+	}
+}
@@ -0,0 +1,11 @@
+package com.appspot.mathuzzles.risingnumbers.metrics;
+
+import java.io.IOException;
+
+/**
+ * Where snapshots of the metrics go, e.g. a local file.
+ */
+public interface MetricsExporter {
+
+	void export(MetricsSnapshot snapshot) throws IOException;
+}
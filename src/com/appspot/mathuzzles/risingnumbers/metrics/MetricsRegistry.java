@@ -0,0 +1,81 @@
+package com.appspot.mathuzzles.risingnumbers.metrics;
+
+import java.util.ArrayList;
+
+/**
+ * Named counters, gauges and histograms, to be snapshotted together.
+ *
+ * Metrics are registered once and then recorded to directly, so recording
+ * never looks anything up.
+ */
+public class MetricsRegistry {
+
+	private static final String[] HISTOGRAM_FIELDS = { ".count", ".p50",
+			".p99", ".max" };
+
+	private final ArrayList<String> names = new ArrayList<String>();
+	private final ArrayList<Object> metrics = new ArrayList<Object>();
+
+	public synchronized Counter counter(String name) {
+		Counter counter = new Counter();
+		register(name, counter);
+		return counter;
+	}
+
+	public synchronized Gauge gauge(String name) {
+		Gauge gauge = new Gauge();
+		register(name, gauge);
+		return gauge;
+	}
+
+	public synchronized Histogram histogram(String name) {
+		Histogram histogram = new Histogram();
+		register(name, histogram);
+		return histogram;
+	}
+
+	private void register(String name, Object metric) {
+		if (names.contains(name)) {
+			throw new IllegalArgumentException("Already registered: " + name);
+		}
+		names.add(name);
+		metrics.add(metric);
+	}
+
+	/**
+	 * Read every metric.
+	 */
+	public synchronized MetricsSnapshot snapshot() {
+		int size = 0;
+		for (int i = 0; i < metrics.size(); i++) {
+			size += metrics.get(i) instanceof Histogram ? HISTOGRAM_FIELDS.length
+					: 1;
+		}
+
+		String[] snapshotNames = new String[size];
+		long[] values = new long[size];
+		int j = 0;
+		for (int i = 0; i < metrics.size(); i++) {
+			Object metric = metrics.get(i);
+			String name = names.get(i);
+			if (metric instanceof Counter) {
+				snapshotNames[j] = name;
+				values[j++] = ((Counter) metric).get();
+			} else if (metric instanceof Gauge) {
+				snapshotNames[j] = name;
+				values[j++] = ((Gauge) metric).get();
+			} else {
+				Histogram histogram = (Histogram) metric;
+				for (int k = 0; k < HISTOGRAM_FIELDS.length; k++) {
+					snapshotNames[j + k] = name + HISTOGRAM_FIELDS[k];
+				}
+				values[j++] = histogram.getCount();
+				values[j++] = histogram.getPercentile(50);
+				values[j++] = histogram.getPercentile(99);
+				values[j++] = histogram.getMax();
+			}
+		}
+		return new MetricsSnapshot(System.currentTimeMillis(), snapshotNames,
+				values);
+	}
+}
@@ -0,0 +1,72 @@
+package com.appspot.mathuzzles.risingnumbers.metrics;
+
+import java.io.IOException;
+
+/**
+ * Snapshots a registry to an exporter every period, or when asked, on its
+ * own low priority thread so recording never waits for the export.
+ */
+public class MetricsReporter extends Thread {
+
+	private final MetricsRegistry registry;
+	private final MetricsExporter exporter;
+	private final long periodMillis;
+	private boolean reportNow = false;
+	private boolean finished = false;
+
+	public MetricsReporter(MetricsRegistry registry, MetricsExporter exporter,
+			long periodMillis) {
+		super("MetricsReporter");
+		this.registry = registry;
+		this.exporter = exporter;
+		this.periodMillis = periodMillis;
+		setDaemon(true);
+		setPriority(Thread.MIN_PRIORITY);
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (true) {
+				synchronized (this) {
+					if (!reportNow && !finished) {
+						wait(periodMillis);
+					}
+					reportNow = false;
+				}
+				report();
+				synchronized (this) {
+					if (finished) {
+						break;
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			// Finished
+		}
+	}
+
+	private void report() {
+		try {
+			exporter.export(registry.snapshot());
+		} catch (IOException e) {
+			// Try again next time
+		}
+	}
+
+	/**
+	 * Snapshot now, e.g. before the app is paused.
+	 */
+	public synchronized void reportNow() {
+		reportNow = true;
+		notify();
+	}
+
+	/**
+	 * Snapshot once more and stop.
+	 */
+	public synchronized void finish() {
+		finished = true;
+		notify();
+	}
+}
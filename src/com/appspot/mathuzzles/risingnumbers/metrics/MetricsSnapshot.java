@@ -0,0 +1,19 @@
+package com.appspot.mathuzzles.risingnumbers.metrics;
+
+/**
+ * Values of all the metrics of a registry at one time. Histograms are given
+ * as their count, p50, p99 and max, named e.g. saveMicros.p99.
+ */
+public class MetricsSnapshot {
+
+	/** Time taken in milliseconds */
+	public final long time;
+	public final String[] names;
+	public final long[] values;
+
+	public MetricsSnapshot(long time, String[] names, long[] values) {
+		this.time = time;
+		this.names = names;
+		this.values = values;
+	}
+}
@@ -0,0 +1,69 @@
+package com.appspot.mathuzzles.risingnumbers.metrics;
+
+/**
+ * Histogram of the values recorded over the last few intervals.
+ *
+ * Values go into the slot for the current interval. When an interval ends,
+ * the oldest slot is cleared and reused, so old values age out without
+ * keeping individual samples.
+ */
+public class RollingHistogram {
+
+	private final Histogram[] slots;
+	private final long slotMillis;
+	private final Histogram merged = new Histogram();
+	private long slotStart;
+	private int current;
+
+	/**
+	 * @param slotCount
+	 *            number of intervals kept
+	 * @param slotMillis
+	 *            length of each interval
+	 */
+	public RollingHistogram(int slotCount, long slotMillis) {
+		this.slots = new Histogram[slotCount];
+		for (int i = 0; i < slotCount; i++) {
+			slots[i] = new Histogram();
+		}
+		this.slotMillis = slotMillis;
+	}
+
+	/**
+	 * Record a value.
+	 */
+	public synchronized void record(long value, long nowMillis) {
+		rotate(nowMillis);
+		slots[current].record(value);
+	}
+
+	/**
+	 * Get a histogram of all values in the window. The returned histogram is
+	 * reused by the next call.
+	 */
+	public synchronized Histogram getWindow(long nowMillis) {
+		rotate(nowMillis);
+		merged.reset();
+		for (int i = 0; i < slots.length; i++) {
+			merged.add(slots[i]);
+		}
+		return merged;
+	}
+
+	private void rotate(long nowMillis) {
+		if (slotStart == 0) {
+			slotStart = nowMillis;
+		}
+		int steps = 0;
+		while (nowMillis - slotStart >= slotMillis && steps < slots.length) {
+			current = (current + 1) % slots.length;
+			slots[current].reset();
+			slotStart += slotMillis;
+			steps++;
+		}
+		if (nowMillis - slotStart >= slotMillis) {
+			// Idle for the whole window
+			slotStart = nowMillis;
+		}
+	}
+}
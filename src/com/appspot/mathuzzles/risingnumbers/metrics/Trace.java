@@ -0,0 +1,178 @@
+package com.appspot.mathuzzles.risingnumbers.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Begin and end events of named spans on any thread, kept in a ring so the
+ * latest CAPACITY events are always there to look at.
+ *
+ * Names are registered once, e.g. into a constant, and events refer to them
+ * by number, so recording doesn't allocate and costs a volatile read while
+ * tracing is off. Written out in the Chrome trace event format, which
+ * chrome://tracing or Perfetto show as a timeline per thread, e.g. to see
+ * a thread waiting on a lock another holds.
+ */
+public final class Trace {
+
+	/** Events kept, a power of two */
+	public static final int CAPACITY = 1 << 14;
+
+	private static final int MAX_NAMES = 64;
+	private static final int MAX_THREADS = 32;
+	private static final byte BEGIN = 'B';
+	private static final byte END = 'E';
+
+	private static volatile boolean enabled = false;
+	private static final AtomicLong next = new AtomicLong();
+	private static final long[] nanos = new long[CAPACITY];
+	private static final long[] threadIds = new long[CAPACITY];
+	private static final int[] nameIds = new int[CAPACITY];
+	private static final byte[] phases = new byte[CAPACITY];
+
+	private static final String[] names = new String[MAX_NAMES];
+	private static int nameCount = 0;
+	private static final long[] threadNameIds = new long[MAX_THREADS];
+	private static final String[] threadNames = new String[MAX_THREADS];
+	private static int threadCount = 0;
+
+	private Trace() {
+	}
+
+	/**
+	 * Register a span name.
+	 *
+	 * @return the number to record it with
+	 */
+	public static synchronized int name(String name) {
+		for (int i = 0; i < nameCount; i++) {
+			if (names[i].equals(name)) {
+				return i;
+			}
+		}
+		if (nameCount == MAX_NAMES) {
+			throw new IllegalStateException("Too many trace names");
+		}
+		names[nameCount] = name;
+		return nameCount++;
+	}
+
+	/**
+	 * Name the current thread in the trace.
+	 */
+	public static synchronized void nameThread(String name) {
+		long id = Thread.currentThread().getId();
+		for (int i = 0; i < threadCount; i++) {
+			if (threadNameIds[i] == id) {
+				threadNames[i] = name;
+				return;
+			}
+		}
+		if (threadCount < MAX_THREADS) {
+			threadNameIds[threadCount] = id;
+			threadNames[threadCount] = name;
+			threadCount++;
+		}
+	}
+
+	public static void setEnabled(boolean isEnabled) {
+		enabled = isEnabled;
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Forget the events recorded so far.
+	 */
+	public static void clear() {
+		next.set(0);
+	}
+
+	public static void begin(int name) {
+		if (enabled) {
+			record(name, BEGIN);
+		}
+	}
+
+	public static void end(int name) {
+		if (enabled) {
+			record(name, END);
+		}
+	}
+
+	private static void record(int name, byte phase) {
+		int slot = (int) (next.getAndIncrement() & (CAPACITY - 1));
+		nanos[slot] = System.nanoTime();
+		threadIds[slot] = Thread.currentThread().getId();
+		nameIds[slot] = name;
+		phases[slot] = phase;
+	}
+
+	/**
+	 * Write the events kept as Chrome trace JSON, oldest first. Best turned
+	 * off first, as events recorded while writing may be torn.
+	 */
+	public static void writeJson(Writer out) throws IOException {
+		long end = next.get();
+		long start = Math.max(0, end - CAPACITY);
+		out.write("{\"traceEvents\":[");
+		boolean first = true;
+		synchronized (Trace.class) {
+			for (int i = 0; i < threadCount; i++) {
+				first = writeSeparator(out, first);
+				out.write("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":");
+				out.write(Long.toString(threadNameIds[i]));
+				out.write(",\"args\":{\"name\":\"");
+				writeEscaped(out, threadNames[i]);
+				out.write("\"}}");
+			}
+		}
+		// Times from the oldest event
+		long base = end > start ? nanos[(int) (start & (CAPACITY - 1))] : 0;
+		for (long i = start; i < end; i++) {
+			int slot = (int) (i & (CAPACITY - 1));
+			int name = nameIds[slot];
+			first = writeSeparator(out, first);
+			out.write("{\"name\":\"");
+			writeEscaped(out, name < nameCount ? names[name] : "?");
+			out.write("\",\"ph\":\"");
+			out.write((char) phases[slot]);
+			out.write("\",\"ts\":");
+			long nano = Math.max(0, nanos[slot] - base);
+			out.write(Long.toString(nano / 1000));
+			out.write('.');
+			out.write(Long.toString(nano / 100 % 10));
+			out.write(",\"pid\":1,\"tid\":");
+			out.write(Long.toString(threadIds[slot]));
+			out.write('}');
+		}
+		out.write("]}");
+		out.flush();
+	}
+
+	private static boolean writeSeparator(Writer out, boolean first)
+			throws IOException {
+		if (!first) {
+			out.write(",\n");
+		}
+		return false;
+	}
+
+	private static void writeEscaped(Writer out, String text)
+			throws IOException {
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '"' || c == '\\') {
+				out.write('\\');
+				out.write(c);
+			} else if (c < ' ') {
+				out.write(' ');
+			} else {
+				out.write(c);
+			}
+		}
+	}
+}
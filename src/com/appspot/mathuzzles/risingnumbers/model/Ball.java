@@ -10,4 +10,21 @@ public class Ball implements Serializable{
 	public int y;
 	public int number;
 
+	/** Local time the ball was shot to the opponent */
+	public transient long shotAt;
+
+	/** Order the ball was added to the board, earlier balls are hit first */
+	transient int order;
+
+	/** Next ball in the same cell of the board's grid */
+	transient Ball nextInCell;
+
+	public Ball copy() {
+		Ball copy = new Ball();
+		copy.x = x;
+		copy.y = y;
+		copy.number = number;
+		return copy;
+	}
+
 }
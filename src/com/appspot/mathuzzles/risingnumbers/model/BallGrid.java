@@ -0,0 +1,85 @@
+package com.appspot.mathuzzles.risingnumbers.model;
+
+import java.util.Arrays;
+
+/**
+ * The balls on the board by where they are, so finding the balls a ball
+ * touches doesn't look at the whole board.
+ *
+ * Cells are a ball wide, so balls that touch are in the same or next cells.
+ * Each cell is a list linked through the balls, so adding and removing balls
+ * allocates nothing. Not thread safe, used under the same lock as the game.
+ */
+class BallGrid {
+
+	static final int CELL = Game.BALL_DISTANCE;
+
+	private final int columns;
+	private final int rows;
+	private final Ball[] cells;
+
+	/**
+	 * @param width
+	 *            width of the board
+	 * @param height
+	 *            height of the board, balls further down share the last row
+	 */
+	BallGrid(int width, int height) {
+		columns = width / CELL + 1;
+		rows = height / CELL + 1;
+		cells = new Ball[columns * rows];
+	}
+
+	int getColumns() {
+		return columns;
+	}
+
+	int getRows() {
+		return rows;
+	}
+
+	int column(int x) {
+		return Math.max(0, Math.min(columns - 1, x / CELL));
+	}
+
+	int row(int y) {
+		return Math.max(0, Math.min(rows - 1, y / CELL));
+	}
+
+	/**
+	 * First ball of a cell, the rest follow through nextInCell.
+	 */
+	Ball first(int column, int row) {
+		return cells[row * columns + column];
+	}
+
+	void add(Ball ball) {
+		int cell = row(ball.y) * columns + column(ball.x);
+		ball.nextInCell = cells[cell];
+		cells[cell] = ball;
+	}
+
+	/**
+	 * Remove a ball, at the same place it was added.
+	 */
+	void remove(Ball ball) {
+		int cell = row(ball.y) * columns + column(ball.x);
+		Ball prev = null;
+		for (Ball curr = cells[cell]; curr != null; curr = curr.nextInCell) {
+			if (curr == ball) {
+				if (prev == null) {
+					cells[cell] = ball.nextInCell;
+				} else {
+					prev.nextInCell = ball.nextInCell;
+				}
+				ball.nextInCell = null;
+				return;
+			}
+			prev = curr;
+		}
+	}
+
+	void clear() {
+		Arrays.fill(cells, null);
+	}
+}
@@ -0,0 +1,50 @@
+package com.appspot.mathuzzles.risingnumbers.model;
+
+/**
+ * Balls to reuse, so play doesn't leave garbage for the collector.
+ *
+ * Not thread safe, used under the same lock as the game.
+ */
+public class BallPool {
+
+	private Ball[] free;
+	private int count = 0;
+
+	/**
+	 * @param capacity
+	 *            most balls kept, more are left to the collector
+	 */
+	public BallPool(int capacity) {
+		free = new Ball[capacity];
+	}
+
+	/**
+	 * @return a released ball or a new one
+	 */
+	public Ball obtain() {
+		if (count > 0) {
+			count--;
+			Ball ball = free[count];
+			free[count] = null;
+			return ball;
+		}
+		return new Ball();
+	}
+
+	/**
+	 * Give back a ball nothing refers to any more.
+	 */
+	public void release(Ball ball) {
+		ball.x = 0;
+		ball.y = 0;
+		ball.number = 0;
+		ball.shotAt = 0;
+		if (count < free.length) {
+			free[count++] = ball;
+		}
+	}
+
+	public int getFreeCount() {
+		return count;
+	}
+}
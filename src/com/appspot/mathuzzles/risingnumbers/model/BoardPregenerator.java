@@ -0,0 +1,112 @@
+package com.appspot.mathuzzles.risingnumbers.model;
+
+import com.appspot.mathuzzles.risingnumbers.metrics.Trace;
+
+/**
+ * Generates the next level's board ahead of time at low priority, so
+ * clearing the board only swaps it in rather than generating it inside a
+ * frame.
+ *
+ * Holds one board at a time: the game asks for the next level's board when a
+ * level starts and takes it when the level is cleared. Boards come from the
+ * seed alone, so a board made here is the one the game would have made; if
+ * it isn't ready in time the game makes it itself.
+ */
+public class BoardPregenerator extends Thread {
+
+	private static final int TRACE_GENERATE = Trace.name("generateLevel");
+
+	// Requested board
+	private GameConfig config = null;
+	private int level = 0;
+	private long seed = 0;
+	private boolean requested = false;
+
+	// Ready board, for readyConfig, readyLevel and readySeed
+	private int[] ready = null;
+	private GameConfig readyConfig = null;
+	private int readyLevel = 0;
+	private long readySeed = 0;
+
+	private LevelGenerator generator = null;
+	private boolean finished = false;
+
+	public BoardPregenerator() {
+		super("BoardPregenerator");
+		setDaemon(true);
+		setPriority(Thread.MIN_PRIORITY);
+	}
+
+	@Override
+	public void run() {
+		Trace.nameThread(getName());
+		try {
+			while (true) {
+				GameConfig forConfig;
+				int forLevel;
+				long forSeed;
+				synchronized (this) {
+					while (!requested && !finished) {
+						wait();
+					}
+					if (finished) {
+						break;
+					}
+					forConfig = config;
+					forLevel = level;
+					forSeed = seed;
+					requested = false;
+				}
+
+				if (generator == null || generator.getConfig() != forConfig) {
+					generator = new LevelGenerator(forConfig);
+				}
+				Trace.begin(TRACE_GENERATE);
+				int count = generator.generate(forLevel, forSeed);
+				Trace.end(TRACE_GENERATE);
+				int[] numbers = new int[count];
+				System.arraycopy(generator.getNumbers(), 0, numbers, 0, count);
+
+				synchronized (this) {
+					ready = numbers;
+					readyConfig = forConfig;
+					readyLevel = forLevel;
+					readySeed = forSeed;
+				}
+			}
+		} catch (InterruptedException e) {
+			// Finished
+		}
+	}
+
+	/**
+	 * Generate a board, replacing any request not started.
+	 */
+	public synchronized void request(GameConfig config, int level, long seed) {
+		this.config = config;
+		this.level = level;
+		this.seed = seed;
+		requested = true;
+		notify();
+	}
+
+	/**
+	 * Take the board if it's ready.
+	 *
+	 * @return the numbers of the board row by row, or null if it isn't ready
+	 */
+	public synchronized int[] take(GameConfig config, int level, long seed) {
+		if (ready == null || readyConfig != config || readyLevel != level
+				|| readySeed != seed) {
+			return null;
+		}
+		int[] numbers = ready;
+		ready = null;
+		return numbers;
+	}
+
+	public synchronized void finish() {
+		finished = true;
+		notify();
+	}
+}
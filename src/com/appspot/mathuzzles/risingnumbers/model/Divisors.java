@@ -0,0 +1,79 @@
+package com.appspot.mathuzzles.risingnumbers.model;
+
+/**
+ * Divisibility of the numbers balls can have, worked out once.
+ *
+ * New balls are 2 to NEW_BALL_MAX + 1 and a ball over GAME_OVER_NUMBER ends
+ * the game, so the sum of two balls is the most a number gets. Larger
+ * numbers, e.g. from an opponent, fall back to the remainder.
+ */
+public class Divisors {
+
+	public static final int MAX_NUMBER = Game.GAME_OVER_NUMBER * 2 + 1;
+
+	/** DIVIDES[divisor][number] */
+	private static final boolean[][] DIVIDES = new boolean[MAX_NUMBER + 1][];
+
+	/** Divisors of each number from 2 up, including itself */
+	private static final int[][] DIVISORS = new int[MAX_NUMBER + 1][];
+
+	static {
+		for (int divisor = 0; divisor <= MAX_NUMBER; divisor++) {
+			DIVIDES[divisor] = new boolean[MAX_NUMBER + 1];
+		}
+
+		int[] found = new int[MAX_NUMBER + 1];
+		for (int number = 0; number <= MAX_NUMBER; number++) {
+			int count = 0;
+			for (int divisor = 1; divisor <= MAX_NUMBER; divisor++) {
+				if (number % divisor == 0) {
+					DIVIDES[divisor][number] = true;
+					if (divisor >= 2 && divisor <= number) {
+						found[count++] = divisor;
+					}
+				}
+			}
+			DIVISORS[number] = new int[count];
+			System.arraycopy(found, 0, DIVISORS[number], 0, count);
+		}
+	}
+
+	/**
+	 * @return true if number divides by divisor with no remainder
+	 */
+	public static boolean divides(int divisor, int number) {
+		if (divisor > 0 && divisor <= MAX_NUMBER && number >= 0
+				&& number <= MAX_NUMBER) {
+			return DIVIDES[divisor][number];
+		}
+		return number % divisor == 0;
+	}
+
+	/**
+	 * @return the divisors of number from 2 up, not to be changed, or null if
+	 *         number is outside the table
+	 */
+	public static int[] getDivisors(int number) {
+		if (number >= 0 && number <= MAX_NUMBER) {
+			return DIVISORS[number];
+		}
+		return null;
+	}
+
+	/**
+	 * Points for dividing a ball, as the rules score them.
+	 *
+	 * @return the points or 0 if the ball doesn't divide
+	 */
+	public static int points(int divisor, int number) {
+		if (!divides(divisor, number)) {
+			return 0;
+		}
+		int newValue = number / divisor;
+		int points = number - newValue;
+		if (newValue == 1) {
+			points += 1;
+		}
+		return points;
+	}
+}
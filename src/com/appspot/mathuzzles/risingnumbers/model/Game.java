@@ -0,0 +1,1117 @@
+package com.appspot.mathuzzles.risingnumbers.model;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import com.appspot.mathuzzles.risingnumbers.metrics.Trace;
+
+/**
+ * Rising numbers game rules.
+ *
+ * Holds the board and plays it one step at a time. Doesn't depend on Android
+ * so the same rules can be run headless, e.g. on a server.
+ */
+public class Game {
+
+	// Set-up constants
+	public static final int BALLS_IN_ROW = 6;
+	public static final int NEW_BALL_MAX = 25;
+	public static final int BALLS_IN_QUEUE = 3;
+	public static final int BALL_SPACING = 48;
+	public static final int STARTING_BALL_SPACING_LEFT = 12;
+	public static final int MARGIN_LEFT = 18;
+	public static final int MARGIN_RIGHT = 282;
+	public static final int MARGIN_TOP = 18;
+	public static final int QUEUE_Y = 282;
+	public static final int Y_DELTA = 1;
+	public static final int BALL_RADIUS = 15;
+	public static final int BALL_DISTANCE = BALL_RADIUS * 2;
+	public static final int CLEAR_BOARD_BONUS = 1000;
+	public static final int POINTS_TO_REMOVE = 100;
+	public static final int GAME_OVER_NUMBER = 99;
+	public static final int GAME_OVER_Y = 260;
+	public static final int BOARD_WIDTH = 300;
+	public static final int BOARD_HEIGHT = 300;
+	public static final int STARTING_ROWS = 2;
+	private static final int POOL_CAPACITY = 64;
+
+	// Undo history
+	public static final int HISTORY_SHOTS = 32;
+	private static final int HISTORY_CHANGES = 4096;
+
+	// Random streams of a game
+	private static final long BOARD_STREAM = 1;
+	private static final long BALL_STREAM = 2;
+
+	/**
+	 * Told about events other players need to know about, and what happens
+	 * in play, e.g. to count it.
+	 */
+	public interface Listener {
+
+		/**
+		 * A ball was added to ballsToOpponent.
+		 */
+		void onBallToOpponent(Ball ball);
+
+		/**
+		 * The board is over.
+		 */
+		void onGameOver();
+
+		/**
+		 * The current ball was shot.
+		 */
+		void onShot();
+
+		/**
+		 * The current ball divided a ball on the board.
+		 * 
+		 * @param removed
+		 *            true if it was divided down to 1 and removed
+		 */
+		void onDivide(boolean removed);
+
+		/**
+		 * The current ball stuck to a ball or the top without dividing.
+		 */
+		void onStick();
+
+		/**
+		 * Points went past a hundred and numbers were taken off the board.
+		 * 
+		 * @param removed
+		 *            balls taken down to nothing and removed
+		 */
+		void onPointsRemoved(int removed);
+
+		/**
+		 * The board was cleared.
+		 */
+		void onBoardCleared();
+	}
+
+	// Running game fields
+	public Ball currBall = null;
+	public ArrayList<Ball> balls = new ArrayList<Ball>();
+	public ArrayList<Ball> ballsInQueue = new ArrayList<Ball>();
+	public int points = 0;
+	public boolean isGameOver = false;
+	public int lastX = 0;
+	public int boardsCleared = 0;
+	public int level = 1;
+
+	// Multiplay fields
+	public boolean isPlayOnline = false;
+	public ArrayList<Ball> ballsFromOpponent = new ArrayList<Ball>();
+	public ArrayList<Ball> ballsToOpponent = new ArrayList<Ball>();
+
+	/**
+	 * REACH[dX] is how far above or below a ball another ball dX to the side
+	 * still touches it.
+	 */
+	private static final int[] REACH = new int[BALL_DISTANCE + 1];
+
+	static {
+		int distance = BALL_DISTANCE * BALL_DISTANCE;
+		for (int dX = 0; dX <= BALL_DISTANCE; dX++) {
+			int h = 0;
+			while ((h + 1) * (h + 1) + dX * dX <= distance) {
+				h++;
+			}
+			REACH[dX] = h;
+		}
+	}
+
+	private Random random;
+	private GameConfig config;
+
+	// Taken from the config
+	private int marginRight;
+	private int queueY;
+	private int gameOverY;
+
+	/** The board balls by where they are */
+	private BallGrid grid;
+
+	/** Order of the next ball added to the board */
+	private int nextOrder = 0;
+
+	/** Steps played, for pushing in new rows */
+	private int steps = 0;
+
+	/** Made on the first level after the first */
+	private LevelGenerator levelGenerator = null;
+
+	/** Changes of the last shots, if undo is on */
+	private History history = null;
+
+	/** Makes the next level's board ahead of time, if set */
+	private BoardPregenerator pregenerator = null;
+
+	// Random streams: new balls, and the balls of each level's board
+	private long ballSeed;
+	private int ballIndex = 0;
+	private long boardSeed;
+	private long levelSeed;
+	private int boardIndex = 0;
+
+	/** Balls to reuse, made on first release */
+	private BallPool pool = null;
+
+	/** Ball found by findShotY, null for the top */
+	private Ball shotTarget = null;
+	private long seed;
+
+	/** Hash of the balls on the board, kept as they change */
+	private long hash = 0;
+
+	/** Changed whenever the board, current ball or queue changes */
+	private int version = 0;
+	private Replay replay = null;
+	private Listener listener = null;
+
+	/** Played games are traced, copies tried by a bot aren't */
+	private boolean traced = false;
+	private static final int TRACE_COLLISION = Trace.name("detectCollision");
+
+	public Game() {
+		this(new Random());
+	}
+
+	public Game(Random random) {
+		this(random, GameConfig.DEFAULT);
+	}
+
+	public Game(Random random, GameConfig config) {
+		this.random = random;
+		setConfig(config);
+	}
+
+	public GameConfig getConfig() {
+		return config;
+	}
+
+	/**
+	 * Change the rules, e.g. to endless play. Call before start().
+	 */
+	public void setConfig(GameConfig config) {
+		this.config = config;
+		levelGenerator = null;
+		marginRight = config.getMarginRight();
+		queueY = config.getQueueY();
+		gameOverY = config.getGameOverY();
+		grid = new BallGrid(config.boardWidth, config.boardHeight);
+	}
+
+	/**
+	 * Right most x of the current ball.
+	 */
+	public int getMarginRight() {
+		return marginRight;
+	}
+
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Record the input of each game into the replay.
+	 */
+	public void setReplay(Replay replay) {
+		this.replay = replay;
+	}
+
+	public Replay getReplay() {
+		return replay;
+	}
+
+	/**
+	 * Keep the last HISTORY_SHOTS shots of solo games to undo.
+	 */
+	public void setUndoable(boolean undoable) {
+		history = undoable ? new History(HISTORY_SHOTS, HISTORY_CHANGES)
+				: null;
+	}
+
+	/**
+	 * Shots that can be undone.
+	 */
+	public int getUndoCount() {
+		if (history == null || isPlayOnline) {
+			return 0;
+		}
+		return Math.max(0, history.getSnapshotCount() - (isGameOver ? 0 : 1));
+	}
+
+	/**
+	 * Undo the last shot: the board, queue and points go back to when the
+	 * ball was new. If the game is over, undoes the shot that ended it. Not
+	 * for online games, the opponent has the balls already.
+	 *
+	 * @return false if there's no shot to undo
+	 */
+	public boolean undo() {
+		if (getUndoCount() == 0) {
+			return false;
+		}
+		if (replay != null) {
+			replay.recordUndo();
+		}
+
+		int snapshot = history.getSnapshotCount() - (isGameOver ? 1 : 2);
+		long mark = history.getMark(snapshot);
+		while (history.getHead() > mark) {
+			int i = history.pop();
+			switch (history.getKind(i)) {
+			case History.ADDED:
+				Ball added = balls.remove(balls.size() - 1);
+				grid.remove(added);
+				hash ^= ballKey(added);
+				if (added != currBall) {
+					releaseBall(added);
+				}
+				break;
+			case History.REMOVED:
+				Ball removed = obtainBall();
+				removed.x = history.getX(i);
+				removed.y = history.getY(i);
+				removed.number = history.getNumber(i);
+				removed.order = history.getOrder(i);
+				balls.add(history.getIndex(i), removed);
+				grid.add(removed);
+				hash ^= ballKey(removed);
+				break;
+			case History.NUMBER:
+				Ball changed = balls.get(indexOf(history.getOrder(i)));
+				hash ^= ballKey(changed);
+				changed.number = history.getNumber(i);
+				hash ^= ballKey(changed);
+				break;
+			case History.SHIFTED:
+				shiftBoard(-BALL_DISTANCE);
+				break;
+			}
+		}
+
+		int[] fields = history.getFields(snapshot);
+		points = fields[History.POINTS];
+		lastX = fields[History.LAST_X];
+		level = fields[History.LEVEL];
+		boardsCleared = fields[History.BOARDS_CLEARED];
+		ballIndex = fields[History.BALL_INDEX];
+		boardIndex = fields[History.BOARD_INDEX];
+		steps = fields[History.STEPS];
+		nextOrder = fields[History.NEXT_ORDER];
+		levelSeed = RandomStreams.split(boardSeed, level);
+		currBall.x = lastX;
+		currBall.y = queueY;
+		currBall.number = fields[History.CURR_NUMBER];
+		for (int i = 0; i < BALLS_IN_QUEUE; i++) {
+			ballsInQueue.get(i).number = fields[History.QUEUE_NUMBERS + i];
+		}
+		isGameOver = false;
+		history.truncate(snapshot + 1);
+		version++;
+		requestNextBoard();
+		return true;
+	}
+
+	/**
+	 * Snapshot for undo, when a new ball is ready to shoot.
+	 */
+	private void takeSnapshot() {
+		int[] fields = history.snapshot();
+		fields[History.POINTS] = points;
+		fields[History.LAST_X] = lastX;
+		fields[History.LEVEL] = level;
+		fields[History.BOARDS_CLEARED] = boardsCleared;
+		fields[History.BALL_INDEX] = ballIndex;
+		fields[History.BOARD_INDEX] = boardIndex;
+		fields[History.STEPS] = steps;
+		fields[History.NEXT_ORDER] = nextOrder;
+		fields[History.CURR_NUMBER] = currBall.number;
+		for (int i = 0; i < BALLS_IN_QUEUE; i++) {
+			fields[History.QUEUE_NUMBERS + i] = ballsInQueue.get(i).number;
+		}
+	}
+
+	/**
+	 * Make the next level's boards on another thread.
+	 */
+	public void setPregenerator(BoardPregenerator pregenerator) {
+		this.pregenerator = pregenerator;
+		requestNextBoard();
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * New balls made so far. Saved with the game so a replay still matches
+	 * after restoring it.
+	 */
+	public int getBallIndex() {
+		return ballIndex;
+	}
+
+	/**
+	 * Balls made for the board of this level so far, e.g. by new rows.
+	 */
+	public int getBoardIndex() {
+		return boardIndex;
+	}
+
+	/**
+	 * Pick up the random streams of a saved game. Set the level first.
+	 */
+	public void restoreStreams(long seed, int ballIndex, int boardIndex) {
+		setSeeds(seed);
+		levelSeed = RandomStreams.split(boardSeed, level);
+		this.ballIndex = ballIndex;
+		this.boardIndex = boardIndex;
+		requestNextBoard();
+	}
+
+	private void setSeeds(long seed) {
+		this.seed = seed;
+		ballSeed = RandomStreams.split(seed, BALL_STREAM);
+		boardSeed = RandomStreams.split(seed, BOARD_STREAM);
+	}
+
+	/**
+	 * Start a new game with a new seed.
+	 */
+	public void start() {
+		start(random.nextLong());
+	}
+
+	/**
+	 * Start a new game.
+	 *
+	 * @param seed
+	 *            seed for the board and new balls
+	 */
+	public void start(long seed) {
+		setSeeds(seed);
+		ballIndex = 0;
+		if (replay != null) {
+			replay.reset(seed);
+		}
+
+		releaseAll(ballsFromOpponent);
+		releaseAll(ballsToOpponent);
+		level = 1;
+		createBoard();
+		lastX = MARGIN_LEFT + STARTING_BALL_SPACING_LEFT
+				+ (BALLS_IN_QUEUE * BALL_SPACING);
+		points = 0;
+		isGameOver = false;
+		boardsCleared = 0;
+		steps = 0;
+		if (history != null) {
+			history.clear();
+		}
+		createNewBall();
+	}
+
+	/**
+	 * Play one step: move the current ball by the input and let it rise, or
+	 * shoot it until it hits something.
+	 *
+	 * @param moveX
+	 *            distance to move left
+	 * @param moveY
+	 *            distance to move up
+	 * @param shooting
+	 *            true to shoot
+	 */
+	public void step(float moveX, float moveY, boolean shooting) {
+
+		if (isGameOver) {
+			return;
+		}
+
+		if (replay != null) {
+			replay.record(moveX, moveY, shooting);
+		}
+
+		if (config.newRowSteps > 0 && ++steps % config.newRowSteps == 0) {
+			pushRow();
+			if (isGameOver) {
+				return;
+			}
+		}
+
+		if (!shooting) {
+			currBall.x -= moveX;
+			currBall.y -= moveY;
+
+			// Keep in side
+			if (currBall.x > marginRight) {
+				currBall.x = marginRight;
+			} else if (currBall.x < MARGIN_LEFT) {
+				currBall.x = MARGIN_LEFT;
+			}
+
+			// Keep in top
+			if (currBall.y < MARGIN_TOP) {
+				currBall.y = MARGIN_TOP;
+			}
+
+			detectCollision(currBall);
+		} else {
+			if (listener != null) {
+				listener.onShot();
+			}
+
+			// Straight to where it first touches a ball or the top, rather
+			// than up a step at a time.
+			currBall.y = findShotY(currBall.x, currBall.y);
+			detectCollision(currBall);
+		}
+	}
+
+	/**
+	 * The ball the current ball would hit if shot from x.
+	 *
+	 * @return the ball or null if it would reach the top
+	 */
+	public Ball findShotTarget(int x) {
+		findShotY(x, currBall.y);
+		return shotTarget;
+	}
+
+	/**
+	 * Where a ball shot from x, y stops: the first y going up where it
+	 * touches a ball, else the top. The same place rising a step at a time
+	 * would reach. Sets shotTarget to the ball it touches first.
+	 */
+	int findShotY(int x, int y) {
+		int top = Math.min(y, MARGIN_TOP);
+		int stop = Integer.MIN_VALUE;
+		shotTarget = null;
+
+		// Only the columns of cells it passes, from its row to the top
+		int column = grid.column(x);
+		int lastColumn = Math.min(grid.getColumns() - 1, column + 1);
+		int lastRow = grid.row(y + BALL_DISTANCE);
+		for (int row = 0; row <= lastRow; row++) {
+			for (int c = Math.max(0, column - 1); c <= lastColumn; c++) {
+				for (Ball ball = grid.first(c, row); ball != null;
+						ball = ball.nextInCell) {
+					int dX = Math.abs(x - ball.x);
+					if (dX > BALL_DISTANCE) {
+						continue;
+					}
+
+					int h = REACH[dX];
+					int first = Math.min(y, ball.y + h);
+					// Ties go to the first on the board, as in detectCollision
+					if (first >= ball.y - h
+							&& first >= top
+							&& (first > stop || first == stop
+									&& ball.order < shotTarget.order)) {
+						stop = first;
+						shotTarget = ball;
+					}
+				}
+			}
+		}
+		return stop == Integer.MIN_VALUE ? top : stop;
+	}
+
+	/**
+	 * Ball found by the last findShotY, null for the top.
+	 */
+	Ball getShotTarget() {
+		return shotTarget;
+	}
+
+	/**
+	 * Copy of the board to try moves on, e.g. by a bot. The copy has no
+	 * listener or replay.
+	 *
+	 * @param random
+	 *            random numbers for the balls the copy creates
+	 */
+	public Game copy(Random random) {
+		Game copy = new Game(random, config);
+		copy.currBall = currBall.copy();
+		copy.balls = copyBalls(balls);
+		copy.ballsInQueue = copyBalls(ballsInQueue);
+		copy.points = points;
+		copy.isGameOver = isGameOver;
+		copy.lastX = lastX;
+		copy.boardsCleared = boardsCleared;
+		copy.level = level;
+		copy.isPlayOnline = isPlayOnline;
+		copy.ballsFromOpponent = copyBalls(ballsFromOpponent);
+		copy.seed = seed;
+		copy.boardSeed = boardSeed;
+		copy.levelSeed = levelSeed;
+		copy.boardIndex = boardIndex;
+		copy.ballSeed = random.nextLong();
+		copy.steps = steps;
+		copy.hash = hash;
+		copy.index();
+		return copy;
+	}
+
+	/**
+	 * Sets if collisions are recorded in the trace.
+	 */
+	public void setTraced(boolean isTraced) {
+		traced = isTraced;
+	}
+
+	/**
+	 * Copy of a list of balls, e.g. to save while the game goes on.
+	 */
+	public static ArrayList<Ball> copyBalls(ArrayList<Ball> from) {
+		int size = from.size();
+		ArrayList<Ball> to = new ArrayList<Ball>(size + 1);
+		for (int i = 0; i < size; i++) {
+			to.add(from.get(i).copy());
+		}
+		return to;
+	}
+
+	/**
+	 * Hash of the balls on the board. Equal boards have equal hashes, reached
+	 * by any order of shots.
+	 */
+	public long getBoardHash() {
+		return hash;
+	}
+
+	/**
+	 * Changes whenever a ball is added to or removed from the board, a
+	 * number changes or there's a new current ball, so views of the board
+	 * only need working out again when it changes.
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * Hash of everything the next shots depend on: the board, the points,
+	 * the current ball and the queue.
+	 */
+	public long getStateHash() {
+		long state = hash ^ mix(points + 1);
+		state ^= mix(((long) currBall.y << 32) | currBall.number);
+		int size = ballsInQueue.size();
+		for (int i = 0; i < size; i++) {
+			state ^= mix(((long) (i + 1) << 48) | ballsInQueue.get(i).number);
+		}
+		return state;
+	}
+
+	/**
+	 * Work out the board hash and grid again, after the balls were replaced
+	 * e.g. when restoring a saved game.
+	 */
+	public void rehash() {
+		version++;
+		hash = 0;
+		int size = balls.size();
+		for (int i = 0; i < size; i++) {
+			hash ^= ballKey(balls.get(i));
+		}
+		index();
+		if (history != null) {
+			history.clear();
+		}
+	}
+
+	/**
+	 * Put the balls in the grid again and number them in board order.
+	 */
+	private void index() {
+		grid.clear();
+		int size = balls.size();
+		for (int i = 0; i < size; i++) {
+			Ball ball = balls.get(i);
+			ball.order = i;
+			grid.add(ball);
+		}
+		nextOrder = size;
+	}
+
+	/**
+	 * Random looking key of a ball on the board. Computed rather than looked
+	 * up in tables as positions and numbers have no small bound.
+	 */
+	private static long ballKey(Ball ball) {
+		return mix(((long) ball.x << 42) ^ ((long) ball.y << 21) ^ ball.number);
+	}
+
+	private static long mix(long value) {
+		return RandomStreams.mix(value);
+	}
+
+	/**
+	 * A ball from the pool, e.g. for a ball from the opponent.
+	 */
+	public Ball obtainBall() {
+		if (pool == null) {
+			return new Ball();
+		}
+		return pool.obtain();
+	}
+
+	/**
+	 * Give back a ball that left the game, e.g. one sent to the opponent.
+	 */
+	public void releaseBall(Ball ball) {
+		if (pool == null) {
+			pool = new BallPool(POOL_CAPACITY);
+		}
+		pool.release(ball);
+	}
+
+	private void releaseAll(ArrayList<Ball> list) {
+		int size = list.size();
+		for (int i = 0; i < size; i++) {
+			releaseBall(list.get(i));
+		}
+		list.clear();
+	}
+
+	private void addToBoard(Ball ball) {
+		if (history != null) {
+			history.record(History.ADDED, 0, null);
+		}
+		ball.order = nextOrder++;
+		balls.add(ball);
+		grid.add(ball);
+		hash ^= ballKey(ball);
+		version++;
+	}
+
+	private void removeFromBoard(int index) {
+		if (history != null) {
+			history.record(History.REMOVED, index, balls.get(index));
+		}
+		Ball ball = balls.remove(index);
+		grid.remove(ball);
+		hash ^= ballKey(ball);
+		version++;
+		releaseBall(ball);
+	}
+
+	/**
+	 * Remove a ball found in the grid. The board is in order, so it's found
+	 * by a binary search rather than a scan.
+	 */
+	private void removeFromBoard(Ball ball) {
+		removeFromBoard(indexOf(ball.order));
+	}
+
+	/**
+	 * Index of the ball of the given order on the board.
+	 */
+	private int indexOf(int order) {
+		int low = 0;
+		int high = balls.size() - 1;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (balls.get(mid).order < order) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private void setNumber(Ball ball, int number) {
+		if (history != null) {
+			history.record(History.NUMBER, 0, ball);
+		}
+		version++;
+		hash ^= ballKey(ball);
+		ball.number = number;
+		hash ^= ballKey(ball);
+	}
+
+	/**
+	 * Number of the next new ball.
+	 */
+	private int nextBallNumber() {
+		return RandomStreams.nextInt(ballSeed, ballIndex++,
+				config.newBallMax) + 2;
+	}
+
+	/**
+	 * Number of the next ball of this level's board.
+	 */
+	private int nextBoardNumber() {
+		return RandomStreams.nextInt(levelSeed, boardIndex++,
+				config.newBallMax) + 2;
+	}
+
+	/**
+	 * Ask for the next level's board to be made ahead of time.
+	 */
+	private void requestNextBoard() {
+		if (pregenerator != null && config.levels) {
+			pregenerator.request(config, level + 1, RandomStreams.split(
+					boardSeed, level + 1));
+		}
+	}
+
+	/**
+	 * Create the board.
+	 */
+	private void createBoard() {
+
+		if (history != null) {
+			// One at a time so they can be put back
+			for (int i = balls.size() - 1; i >= 0; i--) {
+				removeFromBoard(i);
+			}
+		} else {
+			releaseAll(balls);
+		}
+		releaseAll(ballsInQueue);
+		grid.clear();
+		hash = 0;
+		version++;
+
+		levelSeed = RandomStreams.split(boardSeed, level);
+		boardIndex = 0;
+		if (config.levels && level > 1) {
+			int[] numbers = pregenerator != null ? pregenerator.take(config,
+					level, levelSeed) : null;
+			if (numbers != null) {
+				addBoard(numbers, numbers.length);
+			} else {
+				// Not ready, make it now
+				if (levelGenerator == null) {
+					levelGenerator = new LevelGenerator(config);
+				}
+				int count = levelGenerator.generate(level, levelSeed);
+				addBoard(levelGenerator.getNumbers(), count);
+			}
+		} else {
+			// Rows, each one down
+			for (int row = 0; row < config.startingRows; row++) {
+				addRow(MARGIN_TOP + row * BALL_DISTANCE);
+			}
+		}
+
+		// Balls in queue
+		int x = MARGIN_LEFT + STARTING_BALL_SPACING_LEFT;
+		int y = queueY;
+		for (int i = 0; i < BALLS_IN_QUEUE; i++) {
+			Ball ball = obtainBall();
+			ball.x = x;
+			ball.y = y;
+			ball.number = nextBallNumber();
+			ballsInQueue.add(ball);
+			x += BALL_SPACING;
+		}
+
+		requestNextBoard();
+	}
+
+	/**
+	 * Replace the board with balls of the given numbers, row by row. For
+	 * trying out boards, e.g. by the level generator.
+	 */
+	void setBoard(int[] numbers, int count) {
+		releaseAll(balls);
+		grid.clear();
+		hash = 0;
+		version++;
+		addBoard(numbers, count);
+	}
+
+	private void addBoard(int[] numbers, int count) {
+		for (int i = 0; i < count; i++) {
+			Ball ball = obtainBall();
+			ball.x = MARGIN_LEFT + STARTING_BALL_SPACING_LEFT
+					+ (i % config.ballsInRow) * BALL_SPACING;
+			ball.y = MARGIN_TOP + (i / config.ballsInRow) * BALL_DISTANCE;
+			ball.number = numbers[i];
+			addToBoard(ball);
+		}
+	}
+
+	private void addRow(int y) {
+		int x = MARGIN_LEFT + STARTING_BALL_SPACING_LEFT;
+		for (int i = 0; i < config.ballsInRow; i++) {
+			Ball ball = obtainBall();
+			ball.x = x;
+			ball.y = y;
+			ball.number = nextBoardNumber();
+			addToBoard(ball);
+			x += BALL_SPACING;
+		}
+	}
+
+	/**
+	 * Endless play: move the board down a row and add a new row at the top.
+	 * Game over if a ball is pushed past the bottom.
+	 */
+	private void pushRow() {
+		if (history != null) {
+			history.record(History.SHIFTED, 0, null);
+		}
+		shiftBoard(BALL_DISTANCE);
+		boolean pastBottom = false;
+		int size = balls.size();
+		for (int i = 0; i < size; i++) {
+			pastBottom |= balls.get(i).y > gameOverY;
+		}
+		addRow(MARGIN_TOP);
+
+		if (pastBottom) {
+			isGameOver = true;
+			if (listener != null) {
+				listener.onGameOver();
+			}
+		}
+	}
+
+	/**
+	 * Move every ball on the board down, or up if dY is negative.
+	 */
+	private void shiftBoard(int dY) {
+		version++;
+		hash = 0;
+		grid.clear();
+		int size = balls.size();
+		for (int i = 0; i < size; i++) {
+			Ball ball = balls.get(i);
+			ball.y += dY;
+			hash ^= ballKey(ball);
+			grid.add(ball);
+		}
+	}
+
+	/**
+	 * Create a new ball.
+	 */
+	private void createNewBall() {
+
+		// Get latest from regular queue
+		currBall = ballsInQueue.remove(ballsInQueue.size() - 1);
+		version++;
+
+		// For new ball to queue, if mulitplay, get from opponents balls.
+		// Else, create a new ball.
+		Ball newBall;
+		if (isPlayOnline && ballsFromOpponent.size() > 0) {
+			// Get oldest from opponent balls
+			newBall = ballsFromOpponent.remove(0);
+		} else {
+			// Create new ball
+			newBall = obtainBall();
+			newBall.number = nextBallNumber();
+		}
+
+		newBall.y = queueY;
+		ballsInQueue.add(0, newBall);
+
+		// Move up rest of queue
+		int x = MARGIN_LEFT + STARTING_BALL_SPACING_LEFT;
+		int size = ballsInQueue.size();
+		for (int i = 0; i < size; i++) {
+			ballsInQueue.get(i).x = x;
+			x += BALL_SPACING;
+		}
+
+		currBall.x = lastX;
+
+		if (history != null && !isPlayOnline) {
+			takeSnapshot();
+		}
+	}
+
+	/**
+	 * Detect collision between balls.
+	 */
+	private boolean detectBallCollision(Ball ball_1, Ball ball_2) {
+		int dY = ball_1.y - ball_2.y;
+		int dX = ball_1.x - ball_2.x;
+		return Math.sqrt((dY * dY) + (dX * dX)) <= BALL_DISTANCE;
+	}
+
+	/**
+	 * The first ball on the board the moving ball touches, looking only in
+	 * the cells around it.
+	 */
+	private Ball findCollision(Ball movingBall) {
+		Ball found = null;
+		int column = grid.column(movingBall.x);
+		int row = grid.row(movingBall.y);
+		int lastColumn = Math.min(grid.getColumns() - 1, column + 1);
+		int lastRow = Math.min(grid.getRows() - 1, row + 1);
+		for (int r = Math.max(0, row - 1); r <= lastRow; r++) {
+			for (int c = Math.max(0, column - 1); c <= lastColumn; c++) {
+				for (Ball ball = grid.first(c, r); ball != null;
+						ball = ball.nextInCell) {
+					if ((found == null || ball.order < found.order)
+							&& detectBallCollision(movingBall, ball)) {
+						found = ball;
+					}
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Detect collision with other balls or border.
+	 */
+	private boolean detectCollision(Ball movingBall) {
+		if (traced) {
+			Trace.begin(TRACE_COLLISION);
+		}
+
+		boolean collision = false;
+
+		// Detect collision with other balls
+		Ball ball = findCollision(currBall);
+		if (ball != null) {
+			collision = true;
+
+			// If divides with no remainder, then divide target.
+			if (Divisors.divides(currBall.number, ball.number)) {
+
+				// Calculate new value
+				int newValue = ball.number / currBall.number;
+
+				// Calculate points
+				int pointsToAdd = ball.number - newValue;
+
+				// Update ball
+				setNumber(ball, newValue);
+
+				// If target is now 1, remove it as well.
+				boolean removed = ball.number == 1;
+				if (removed) {
+					removeFromBoard(ball);
+
+					// Add 1 to points
+					pointsToAdd += 1;
+				}
+				if (listener != null) {
+					listener.onDivide(removed);
+				}
+
+				// If solo, check for clear
+				if (!isPlayOnline) {
+
+					// Get old hundreds for clear
+					int hundredsOld = (int) points / 100;
+
+					// Update points
+					points += pointsToAdd;
+
+					// Check if new hundreds attained
+					int hundredsNew = (int) points / 100;
+					if (hundredsNew > hundredsOld) {
+
+						// Remove points
+						int pointsToRemove = config.pointsToRemove;
+						int ballsRemoved = 0;
+						for (int j = balls.size() - 1; j > -1; j--) {
+							if (balls.get(j).number < pointsToRemove) {
+								pointsToRemove -= balls.get(j).number;
+								removeFromBoard(j);
+								ballsRemoved++;
+							} else if (pointsToRemove > 0) {
+								setNumber(balls.get(j), balls.get(j).number
+										- pointsToRemove);
+								if (balls.get(j).number == 0) {
+									removeFromBoard(j);
+									ballsRemoved++;
+								}
+								pointsToRemove = 0;
+								break;
+							}
+						}
+						if (listener != null) {
+							listener.onPointsRemoved(ballsRemoved);
+						}
+					}
+
+					// If no balls left, add bonus and create new board
+					if (balls.isEmpty()) {
+						if (listener != null) {
+							listener.onBoardCleared();
+						}
+						points += config.clearBoardBonus;
+						boardsCleared++;
+						level++;
+						createBoard();
+
+						// Ideas:
+						// Time bonus? Balls used bonus?
+					}
+				} else {
+					// Update points
+					points += pointsToAdd;
+
+					// Send to opponent
+					Ball ballTo = obtainBall();
+					ballTo.x = movingBall.x;
+					ballTo.number = pointsToAdd;
+					ballsToOpponent.add(ballTo);
+					if (listener != null) {
+						listener.onBallToOpponent(ballTo);
+					}
+				}
+
+				lastX = currBall.x;
+				createNewBall();
+			} else {
+				// Add to current ball.
+				currBall.number += ball.number;
+				if (listener != null) {
+					listener.onStick();
+				}
+
+				// Add to board.
+				addToBoard(currBall);
+
+				// If over 99 or at bottom, game over!
+				if (currBall.number > config.gameOverNumber
+						|| currBall.y > gameOverY) {
+					isGameOver = true;
+					if (listener != null) {
+						listener.onGameOver();
+					}
+				} else {
+					lastX = currBall.x;
+					createNewBall();
+				}
+			}
+		}
+
+		// Check if collision with top
+		if (!collision) {
+			if (currBall.y <= MARGIN_TOP) {
+				collision = true;
+				if (listener != null) {
+					listener.onStick();
+				}
+				addToBoard(currBall);
+				lastX = currBall.x;
+				createNewBall();
+			} else {
+				currBall.y -= Y_DELTA;
+			}
+		}
+
+		if (traced) {
+			Trace.end(TRACE_COLLISION);
+		}
+		return collision;
+	}
+}
@@ -0,0 +1,99 @@
+package com.appspot.mathuzzles.risingnumbers.model;
+
+/**
+ * Tuning of the rules. The defaults are the game as shipped; other values are
+ * for trying out balance changes, or for endless play on bigger boards.
+ */
+public class GameConfig {
+
+	/** The game as shipped */
+	public static final GameConfig DEFAULT = new GameConfig();
+
+	/** Endless play as offered in the game, a new row every 10 seconds */
+	public static final GameConfig ENDLESS = endless(12, 10, 500);
+
+	public int newBallMax = Game.NEW_BALL_MAX;
+	public int ballsInRow = Game.BALLS_IN_ROW;
+	public int pointsToRemove = Game.POINTS_TO_REMOVE;
+	public int clearBoardBonus = Game.CLEAR_BOARD_BONUS;
+	public int gameOverNumber = Game.GAME_OVER_NUMBER;
+
+	// Board
+	public int boardWidth = Game.BOARD_WIDTH;
+	public int boardHeight = Game.BOARD_HEIGHT;
+	public int startingRows = Game.STARTING_ROWS;
+
+	/** Steps between new rows pushed in at the top, 0 for none */
+	public int newRowSteps = 0;
+
+	/** Generate a harder board for each level after the first */
+	public boolean levels = true;
+
+	/**
+	 * Endless play: a wide board that keeps getting new rows.
+	 *
+	 * @param ballsInRow
+	 *            balls in each row
+	 * @param rows
+	 *            rows to start with, the board is twice as deep
+	 * @param newRowSteps
+	 *            steps between new rows
+	 */
+	public static GameConfig endless(int ballsInRow, int rows, int newRowSteps) {
+		GameConfig config = new GameConfig();
+		config.ballsInRow = ballsInRow;
+		config.startingRows = rows;
+		config.newRowSteps = newRowSteps;
+		config.boardWidth = ballsInRow * Game.BALL_SPACING
+				+ Game.STARTING_BALL_SPACING_LEFT;
+		config.boardHeight = Game.MARGIN_TOP + rows * 2 * Game.BALL_DISTANCE
+				+ Game.BOARD_HEIGHT - Game.GAME_OVER_Y + Game.BALL_DISTANCE;
+		return config;
+	}
+
+	/**
+	 * Right most x of a ball.
+	 */
+	public int getMarginRight() {
+		return boardWidth - (Game.BOARD_WIDTH - Game.MARGIN_RIGHT);
+	}
+
+	/**
+	 * Where the queue is.
+	 */
+	public int getQueueY() {
+		return boardHeight - (Game.BOARD_HEIGHT - Game.QUEUE_Y);
+	}
+
+	/**
+	 * A ball stuck below this ends the game.
+	 */
+	public int getGameOverY() {
+		return boardHeight - (Game.BOARD_HEIGHT - Game.GAME_OVER_Y);
+	}
+
+	public GameConfig copy() {
+		GameConfig copy = new GameConfig();
+		copy.newBallMax = newBallMax;
+		copy.ballsInRow = ballsInRow;
+		copy.pointsToRemove = pointsToRemove;
+		copy.clearBoardBonus = clearBoardBonus;
+		copy.gameOverNumber = gameOverNumber;
+		copy.boardWidth = boardWidth;
+		copy.boardHeight = boardHeight;
+		copy.startingRows = startingRows;
+		copy.newRowSteps = newRowSteps;
+		copy.levels = levels;
+		return copy;
+	}
+
+	@Override
+	public String toString() {
+		return "newBallMax=" + newBallMax + " ballsInRow=" + ballsInRow
+				+ " pointsToRemove=" + pointsToRemove + " clearBoardBonus="
+				+ clearBoardBonus + " gameOverNumber=" + gameOverNumber
+				+ " board=" + boardWidth + "x" + boardHeight
+				+ " startingRows=" + startingRows + " newRowSteps="
+				+ newRowSteps + " levels=" + levels;
+	}
+}
@@ -0,0 +1,88 @@
+package com.appspot.mathuzzles.risingnumbers.model;
+
+/**
+ * The board balls the current and queued balls can divide, and the points
+ * the current ball would earn on each.
+ *
+ * Only worked out again when the game's version changes, so drawing the hints
+ * each frame costs no more than drawing the rings.
+ */
+public class Hints {
+
+	// Hinted balls
+	public int count = 0;
+	public Ball[] balls = new Ball[16];
+
+	/** Points for the current ball, 0 if only a queued ball divides it */
+	public int[] points = new int[16];
+
+	/** Labels of the points */
+	public String[] labels = new String[16];
+
+	/** Labels made once for the points a hit usually earns */
+	private static final String[] LABELS = new String[Divisors.MAX_NUMBER + 2];
+
+	static {
+		LABELS[0] = "";
+		for (int i = 1; i < LABELS.length; i++) {
+			LABELS[i] = "+" + i;
+		}
+	}
+
+	private int version = -1;
+
+	/**
+	 * Bring the hints up to date with the game.
+	 *
+	 * @return true if they changed
+	 */
+	public boolean update(Game game) {
+		if (game.getVersion() == version) {
+			return false;
+		}
+		version = game.getVersion();
+
+		count = 0;
+		if (game.currBall == null || game.isGameOver) {
+			return true;
+		}
+
+		int currNumber = game.currBall.number;
+		int queueSize = game.ballsInQueue.size();
+		int size = game.balls.size();
+		for (int i = 0; i < size; i++) {
+			Ball ball = game.balls.get(i);
+			int ballPoints = Divisors.points(currNumber, ball.number);
+			boolean hinted = ballPoints > 0;
+			for (int j = 0; j < queueSize && !hinted; j++) {
+				hinted = Divisors.divides(game.ballsInQueue.get(j).number,
+						ball.number);
+			}
+
+			if (hinted) {
+				if (count == balls.length) {
+					grow();
+				}
+				balls[count] = ball;
+				points[count] = ballPoints;
+				labels[count] = ballPoints < LABELS.length ? LABELS[ballPoints]
+						: "+" + ballPoints;
+				count++;
+			}
+		}
+		return true;
+	}
+
+	private void grow() {
+		int length = balls.length * 2;
+		Ball[] newBalls = new Ball[length];
+		int[] newPoints = new int[length];
+		String[] newLabels = new String[length];
+		System.arraycopy(balls, 0, newBalls, 0, count);
+		System.arraycopy(points, 0, newPoints, 0, count);
+		System.arraycopy(labels, 0, newLabels, 0, count);
+		balls = newBalls;
+		points = newPoints;
+		labels = newLabels;
+	}
+}
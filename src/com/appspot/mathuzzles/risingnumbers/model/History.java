@@ -0,0 +1,172 @@
+package com.appspot.mathuzzles.risingnumbers.model;
+
+/**
+ * The last shots of a game, to undo them.
+ *
+ * Rather than copying the board before each shot, each change to the board
+ * is written to a journal: a ball added, removed or renumbered, or the board
+ * pushed down. A snapshot is the place in the journal plus the few numbers
+ * that aren't on the board, so it costs only the balls the shot changed.
+ * Undoing plays the journal back to the snapshot.
+ *
+ * The journal and the snapshots are fixed size rings, so memory stays the
+ * same however long the game: the oldest shots drop out as new ones come
+ * in. Not thread safe, used under the same lock as the game.
+ */
+class History {
+
+	// Kinds of change
+	static final int ADDED = 0;
+	static final int REMOVED = 1;
+	static final int NUMBER = 2;
+	static final int SHIFTED = 3;
+
+	// Fields of a snapshot
+	static final int POINTS = 0;
+	static final int LAST_X = 1;
+	static final int LEVEL = 2;
+	static final int BOARDS_CLEARED = 3;
+	static final int BALL_INDEX = 4;
+	static final int BOARD_INDEX = 5;
+	static final int STEPS = 6;
+	static final int NEXT_ORDER = 7;
+	static final int CURR_NUMBER = 8;
+	static final int QUEUE_NUMBERS = 9;
+	static final int FIELDS = QUEUE_NUMBERS + Game.BALLS_IN_QUEUE;
+
+	// Journal, a ring of changes
+	private final int[] kinds;
+	private final int[] indexes;
+	private final int[] xs;
+	private final int[] ys;
+	private final int[] numbers;
+	private final int[] orders;
+	private long head = 0;
+
+	// Snapshots, a ring of marks in the journal
+	private final long[] marks;
+	private final int[][] fields;
+	private int first = 0;
+	private int count = 0;
+
+	/**
+	 * @param shots
+	 *            snapshots kept
+	 * @param changes
+	 *            changes kept
+	 */
+	History(int shots, int changes) {
+		kinds = new int[changes];
+		indexes = new int[changes];
+		xs = new int[changes];
+		ys = new int[changes];
+		numbers = new int[changes];
+		orders = new int[changes];
+		marks = new long[shots];
+		fields = new int[shots][FIELDS];
+	}
+
+	void clear() {
+		first = 0;
+		count = 0;
+	}
+
+	/**
+	 * Write a change. Ball is the ball added, or the ball as it was before
+	 * it was removed or renumbered.
+	 */
+	void record(int kind, int index, Ball ball) {
+		int i = (int) (head % kinds.length);
+		kinds[i] = kind;
+		indexes[i] = index;
+		if (ball != null) {
+			xs[i] = ball.x;
+			ys[i] = ball.y;
+			numbers[i] = ball.number;
+			orders[i] = ball.order;
+		}
+		head++;
+
+		// Drop the snapshots whose changes were written over
+		while (count > 0 && marks[first] < head - kinds.length) {
+			first = (first + 1) % marks.length;
+			count--;
+		}
+	}
+
+	/**
+	 * Take a snapshot at the end of the journal.
+	 *
+	 * @return the fields to fill in
+	 */
+	int[] snapshot() {
+		if (count == marks.length) {
+			first = (first + 1) % marks.length;
+			count--;
+		}
+		int slot = (first + count) % marks.length;
+		marks[slot] = head;
+		count++;
+		return fields[slot];
+	}
+
+	int getSnapshotCount() {
+		return count;
+	}
+
+	/**
+	 * Mark of a snapshot, 0 the oldest.
+	 */
+	long getMark(int snapshot) {
+		return marks[(first + snapshot) % marks.length];
+	}
+
+	int[] getFields(int snapshot) {
+		return fields[(first + snapshot) % marks.length];
+	}
+
+	/**
+	 * Drop the newest snapshots, leaving count.
+	 */
+	void truncate(int snapshots) {
+		count = snapshots;
+	}
+
+	long getHead() {
+		return head;
+	}
+
+	/**
+	 * Take the last change off the journal, to undo it.
+	 *
+	 * @return its place in the rings
+	 */
+	int pop() {
+		head--;
+		return (int) (head % kinds.length);
+	}
+
+	int getKind(int i) {
+		return kinds[i];
+	}
+
+	int getIndex(int i) {
+		return indexes[i];
+	}
+
+	int getX(int i) {
+		return xs[i];
+	}
+
+	int getY(int i) {
+		return ys[i];
+	}
+
+	int getNumber(int i) {
+		return numbers[i];
+	}
+
+	int getOrder(int i) {
+		return orders[i];
+	}
+}
@@ -0,0 +1,221 @@
+package com.appspot.mathuzzles.risingnumbers.model;
+
+import java.util.Random;
+
+/**
+ * Boards for the levels after the first.
+ *
+ * Each level has more rows and more balls made of two factors, which only
+ * divide down in steps. A candidate board is played out by a greedy player
+ * on a copy of the rules; it's solvable if the player clears it without the
+ * game ending, and its difficulty is the shots that took. The candidate
+ * closest to the level's target difficulty is kept, tried at most
+ * MAX_ATTEMPTS times so a level takes a few milliseconds.
+ *
+ * Boards come from the seed alone, so a replay gets the same levels. Not
+ * thread safe.
+ */
+public class LevelGenerator {
+
+	public static final int MAX_ATTEMPTS = 6;
+
+	/** Step between the x the greedy player tries, less than a ball */
+	private static final int GREEDY_STEP = 12;
+
+	/** Rows kept free above the game over line */
+	private static final int FREE_ROWS = 3;
+
+	private final GameConfig config;
+	private final Game sim;
+	private final Random random = new Random();
+
+	// Boards
+	private int[] numbers = new int[0];
+	private int[] candidate = new int[0];
+	private int count = 0;
+
+	// Last board
+	private int attempts = 0;
+	private int difficulty = 0;
+
+	public LevelGenerator(GameConfig config) {
+		this.config = config;
+		GameConfig simConfig = config.copy();
+		simConfig.levels = false;
+		simConfig.newRowSteps = 0;
+		sim = new Game(new Random(), simConfig);
+	}
+
+	/**
+	 * Generate the board of a level.
+	 *
+	 * @param level
+	 *            2 and up
+	 * @param seed
+	 *            seed of the board
+	 * @return number of balls, their numbers are in getNumbers() row by row
+	 */
+	public int generate(int level, long seed) {
+		int rows = getRows(level);
+		int size = rows * config.ballsInRow;
+		if (numbers.length < size) {
+			numbers = new int[size];
+			candidate = new int[size];
+		}
+
+		int target = getTargetDifficulty(level);
+		int bestDistance = Integer.MAX_VALUE;
+		count = 0;
+		difficulty = 0;
+		for (attempts = 1; attempts <= MAX_ATTEMPTS; attempts++) {
+			random.setSeed(seed + attempts);
+			fill(level, size);
+			int shots = solve(size, seed, target * 3);
+			if (shots < 0) {
+				continue;
+			}
+
+			int distance = Math.abs(shots - target);
+			if (distance < bestDistance) {
+				bestDistance = distance;
+				System.arraycopy(candidate, 0, numbers, 0, size);
+				count = size;
+				difficulty = shots;
+			}
+			if (distance <= target / 3) {
+				break;
+			}
+		}
+
+		// None solvable: the first level's kind of board
+		if (count == 0) {
+			random.setSeed(seed);
+			count = config.startingRows * config.ballsInRow;
+			if (numbers.length < count) {
+				numbers = new int[count];
+			}
+			for (int i = 0; i < count; i++) {
+				numbers[i] = random.nextInt(config.newBallMax) + 2;
+			}
+		}
+		attempts = Math.min(attempts, MAX_ATTEMPTS);
+		return count;
+	}
+
+	public GameConfig getConfig() {
+		return config;
+	}
+
+	/**
+	 * Numbers of the last board, row by row.
+	 */
+	public int[] getNumbers() {
+		return numbers;
+	}
+
+	/**
+	 * Candidates tried for the last board.
+	 */
+	public int getAttempts() {
+		return attempts;
+	}
+
+	/**
+	 * Shots the greedy player took to clear the last board, 0 if none of the
+	 * candidates was solvable.
+	 */
+	public int getDifficulty() {
+		return difficulty;
+	}
+
+	/**
+	 * A row more every second level, while it leaves room to play.
+	 */
+	public int getRows(int level) {
+		int maxRows = (config.getGameOverY() - Game.MARGIN_TOP)
+				/ Game.BALL_DISTANCE - FREE_ROWS;
+		return Math.max(config.startingRows, Math.min(config.startingRows
+				+ (level - 1) / 2, maxRows));
+	}
+
+	/**
+	 * Shots to clear the level: about 1.8 a ball on the second level, a
+	 * tenth of a shot a ball more each level after.
+	 */
+	public int getTargetDifficulty(int level) {
+		return getRows(level) * config.ballsInRow * (16 + level) / 10;
+	}
+
+	/**
+	 * Random candidate: a tenth more of the balls are made of two factors
+	 * each level, up to half.
+	 */
+	private void fill(int level, int size) {
+		int composites = Math.min(50, (level - 1) * 10);
+		int max = config.newBallMax + 1;
+		for (int i = 0; i < size; i++) {
+			int number = random.nextInt(config.newBallMax) + 2;
+			if (random.nextInt(100) < composites) {
+				int factorMax = Math.min(max, config.gameOverNumber / number);
+				if (factorMax >= 2) {
+					number *= random.nextInt(factorMax - 1) + 2;
+				}
+			}
+			candidate[i] = number;
+		}
+	}
+
+	/**
+	 * Play the candidate with the greedy player.
+	 *
+	 * @return shots to clear it, -1 if not cleared within maxShots
+	 */
+	private int solve(int size, long seed, int maxShots) {
+		sim.start(seed);
+		sim.setBoard(candidate, size);
+		for (int shots = 1; shots <= maxShots; shots++) {
+			sim.currBall.x = greedyX(sim);
+			sim.step(0, 0, true);
+			if (sim.boardsCleared > 0) {
+				return shots;
+			}
+			if (sim.isGameOver) {
+				return -1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Most points now; if nothing divides, the top, else the smallest stick
+	 * highest up.
+	 */
+	static int greedyX(Game game) {
+		int number = game.currBall.number;
+		int gameOverNumber = game.getConfig().gameOverNumber;
+		int bestX = game.currBall.x;
+		int best = Integer.MIN_VALUE;
+		int marginRight = game.getMarginRight();
+		for (int x = Game.MARGIN_LEFT; x <= marginRight; x += GREEDY_STEP) {
+			Ball target = game.findShotTarget(x);
+			int score;
+			if (target == null) {
+				score = -number;
+			} else {
+				int points = Divisors.points(number, target.number);
+				if (points > 0) {
+					score = points * 10;
+				} else if (number + target.number > gameOverNumber) {
+					score = -1000000;
+				} else {
+					score = -(number + target.number) - target.y / 2;
+				}
+			}
+			if (score > best) {
+				best = score;
+				bestX = x;
+			}
+		}
+		return bestX;
+	}
+}
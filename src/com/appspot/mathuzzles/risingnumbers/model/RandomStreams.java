@@ -0,0 +1,44 @@
+package com.appspot.mathuzzles.risingnumbers.model;
+
+/**
+ * Random numbers split from a game's seed into independent streams, e.g. one
+ * for the boards and one for the balls.
+ *
+ * Each number is worked out from its stream and index alone, as in
+ * SplitMix64, so a stream's numbers can be made ahead on another thread, or
+ * picked up again after a restore from just the index, and always match.
+ */
+final class RandomStreams {
+
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+	private RandomStreams() {
+	}
+
+	/**
+	 * Seed of a stream of the given seed.
+	 */
+	static long split(long seed, long stream) {
+		return mix(seed ^ mix(stream));
+	}
+
+	/**
+	 * Number at an index of a stream.
+	 *
+	 * @return 0 to bound - 1
+	 */
+	static int nextInt(long stream, long index, int bound) {
+		long bits = mix(stream + index * GOLDEN_GAMMA) >>> 33;
+		return (int) ((bits * bound) >>> 31);
+	}
+
+	/**
+	 * Mixes the bits of a value, as in SplitMix64.
+	 */
+	static long mix(long value) {
+		long z = value + GOLDEN_GAMMA;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
@@ -0,0 +1,213 @@
+package com.appspot.mathuzzles.risingnumbers.model;
+
+import java.io.Serializable;
+
+/**
+ * Seed and input of a game, enough to play it again step by step.
+ *
+ * Only steps with input are stored, so a replay is a few bytes per shot. An
+ * input with no move and no shot, never stored otherwise, is an undo.
+ */
+public class Replay implements Serializable {
+
+	public static final long serialVersionUID = 1L;
+
+	private long seed;
+	private int steps = 0;
+
+	// Steps with input
+	private int count = 0;
+	private int[] inputSteps = new int[16];
+	private float[] movesX = new float[16];
+	private float[] movesY = new float[16];
+	private boolean[] shots = new boolean[16];
+
+	/**
+	 * Start recording a new game.
+	 */
+	public void reset(long seed) {
+		this.seed = seed;
+		steps = 0;
+		count = 0;
+	}
+
+	/**
+	 * Record the input of one step.
+	 */
+	public void record(float moveX, float moveY, boolean shooting) {
+		if (moveX != 0 || moveY != 0 || shooting) {
+			if (count == inputSteps.length) {
+				grow();
+			}
+			inputSteps[count] = steps;
+			movesX[count] = moveX;
+			movesY[count] = moveY;
+			shots[count] = shooting;
+			count++;
+		}
+		steps++;
+	}
+
+	/**
+	 * Record an undo of the last shot, before the next step.
+	 */
+	public void recordUndo() {
+		if (count == inputSteps.length) {
+			grow();
+		}
+		inputSteps[count] = steps;
+		movesX[count] = 0;
+		movesY[count] = 0;
+		shots[count] = false;
+		count++;
+	}
+
+	private boolean isUndo(int input) {
+		return movesX[input] == 0 && movesY[input] == 0 && !shots[input];
+	}
+
+	/**
+	 * Play the game again.
+	 *
+	 * @param maxSteps
+	 *            give up after this many steps
+	 * @return the game as it was after the last step
+	 */
+	public Game play(int maxSteps) {
+		Game game = new Game();
+		for (int i = 0; i < count; i++) {
+			if (isUndo(i)) {
+				game.setUndoable(true);
+				break;
+			}
+		}
+		game.start(seed);
+
+		int next = 0;
+		int last = Math.min(steps, maxSteps);
+		for (int step = 0; step < last; step++) {
+			while (next < count && inputSteps[next] == step && isUndo(next)) {
+				game.undo();
+				next++;
+			}
+			if (game.isGameOver) {
+				break;
+			}
+			if (next < count && inputSteps[next] == step) {
+				game.step(movesX[next], movesY[next], shots[next]);
+				next++;
+			} else {
+				game.step(0, 0, false);
+			}
+		}
+		return game;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public int getSteps() {
+		return steps;
+	}
+
+	public int getInputCount() {
+		return count;
+	}
+
+	/**
+	 * Write as text, e.g. to upload with a score: the seed, the steps, then
+	 * the step, moves and shot of each input, separated by spaces.
+	 */
+	public String toText() {
+		StringBuilder text = new StringBuilder(32 + count * 16);
+		text.append(seed).append(' ').append(steps);
+		for (int i = 0; i < count; i++) {
+			text.append(' ').append(inputSteps[i]).append(' ').append(
+					movesX[i]).append(' ').append(movesY[i]).append(' ')
+					.append(shots[i] ? 1 : 0);
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Read a replay written by toText.
+	 *
+	 * @throws NumberFormatException
+	 *             if the text isn't a replay
+	 */
+	public static Replay fromText(String text) {
+		String[] fields = text.trim().split(" ");
+		if (fields.length < 2 || (fields.length - 2) % 4 != 0) {
+			throw new NumberFormatException("Not a replay");
+		}
+		Replay replay = new Replay();
+		replay.seed = Long.parseLong(fields[0]);
+		replay.steps = Integer.parseInt(fields[1]);
+		if (replay.steps < 0) {
+			throw new NumberFormatException("Negative steps");
+		}
+
+		int count = (fields.length - 2) / 4;
+		replay.inputSteps = new int[Math.max(count, 1)];
+		replay.movesX = new float[replay.inputSteps.length];
+		replay.movesY = new float[replay.inputSteps.length];
+		replay.shots = new boolean[replay.inputSteps.length];
+		int lastStep = 0;
+		for (int i = 0; i < count; i++) {
+			int field = 2 + i * 4;
+			int step = Integer.parseInt(fields[field]);
+			float moveX = Float.parseFloat(fields[field + 1]);
+			float moveY = Float.parseFloat(fields[field + 2]);
+
+			// In order, and moves the game can take
+			if (step < lastStep || step > replay.steps || Float.isNaN(moveX)
+					|| Float.isInfinite(moveX) || Float.isNaN(moveY)
+					|| Float.isInfinite(moveY)) {
+				throw new NumberFormatException("Bad input " + i);
+			}
+			replay.inputSteps[i] = step;
+			replay.movesX[i] = moveX;
+			replay.movesY[i] = moveY;
+			replay.shots[i] = Integer.parseInt(fields[field + 3]) != 0;
+			lastStep = step;
+		}
+		replay.count = count;
+		return replay;
+	}
+
+	/**
+	 * Copy, e.g. to save or submit while the game goes on.
+	 */
+	public Replay copy() {
+		Replay copy = new Replay();
+		copy.seed = seed;
+		copy.steps = steps;
+		copy.count = count;
+		copy.inputSteps = new int[Math.max(count, 1)];
+		copy.movesX = new float[copy.inputSteps.length];
+		copy.movesY = new float[copy.inputSteps.length];
+		copy.shots = new boolean[copy.inputSteps.length];
+		System.arraycopy(inputSteps, 0, copy.inputSteps, 0, count);
+		System.arraycopy(movesX, 0, copy.movesX, 0, count);
+		System.arraycopy(movesY, 0, copy.movesY, 0, count);
+		System.arraycopy(shots, 0, copy.shots, 0, count);
+		return copy;
+	}
+
+	private void grow() {
+		int length = inputSteps.length * 2;
+		int[] newSteps = new int[length];
+		float[] newMovesX = new float[length];
+		float[] newMovesY = new float[length];
+		boolean[] newShots = new boolean[length];
+		System.arraycopy(inputSteps, 0, newSteps, 0, count);
+		System.arraycopy(movesX, 0, newMovesX, 0, count);
+		System.arraycopy(movesY, 0, newMovesY, 0, count);
+		System.arraycopy(shots, 0, newShots, 0, count);
+		inputSteps = newSteps;
+		movesX = newMovesX;
+		movesY = newMovesY;
+		shots = newShots;
+	}
+}
@@ -0,0 +1,123 @@
+package com.appspot.mathuzzles.risingnumbers.model;
+
+/**
+ * Where the current ball would land if shot now, and what would happen there:
+ * the ball it hits, the number left, whether it sticks and the points.
+ *
+ * Only worked out again when the current ball moves sideways, its number or
+ * the game's version changes, or it rises past where it would land, with one
+ * look up of the shot, so it can be drawn every frame while aiming. Rising
+ * alone doesn't change where it lands.
+ */
+public class ShotPreview {
+
+	/** Where the ball stops */
+	public int x;
+	public int y;
+
+	/** Ball it hits, null if it reaches the top */
+	public Ball target = null;
+
+	/** Number of the target after a divide, or of the ball once stuck */
+	public int number;
+
+	/** True if it divides the target */
+	public boolean divides = false;
+
+	/** True if the target would be divided down to 1 and removed */
+	public boolean removes = false;
+
+	/** True if it would stick to the target or the top */
+	public boolean sticks = false;
+
+	/** True if sticking would end the game */
+	public boolean gameOver = false;
+
+	/** True if the hit would clear the board */
+	public boolean clears = false;
+
+	/** Points for the hit, with the clear bonus */
+	public int points = 0;
+
+	/** Label of the points, or of the number when it sticks */
+	public String label = "";
+
+	/** Labels made once for the usual points and numbers */
+	private static final String[] POINTS_LABELS = new String[Divisors.MAX_NUMBER + 2];
+	private static final String[] NUMBER_LABELS = new String[Divisors.MAX_NUMBER + 1];
+
+	static {
+		for (int i = 0; i < POINTS_LABELS.length; i++) {
+			POINTS_LABELS[i] = "+" + i;
+		}
+		for (int i = 0; i < NUMBER_LABELS.length; i++) {
+			NUMBER_LABELS[i] = "=" + i;
+		}
+	}
+
+	private Game game = null;
+	private int version = -1;
+	private Ball ball = null;
+	private int ballX;
+	private int ballNumber;
+
+	/**
+	 * Bring the preview up to date with the current ball.
+	 *
+	 * @return true if it changed
+	 */
+	public boolean update(Game game) {
+		Ball curr = game.currBall;
+		if (curr == null) {
+			return false;
+		}
+		if (game == this.game && game.getVersion() == version && curr == ball
+				&& curr.x == ballX && curr.number == ballNumber && curr.y >= y) {
+			return false;
+		}
+		this.game = game;
+		version = game.getVersion();
+		ball = curr;
+		ballX = curr.x;
+		ballNumber = curr.number;
+
+		x = curr.x;
+		y = game.findShotY(curr.x, curr.y);
+		target = game.getShotTarget();
+		divides = false;
+		removes = false;
+		clears = false;
+		gameOver = false;
+		points = 0;
+
+		GameConfig config = game.getConfig();
+		if (target == null) {
+			sticks = true;
+			number = curr.number;
+		} else if (Divisors.divides(curr.number, target.number)) {
+			divides = true;
+			sticks = false;
+			number = target.number / curr.number;
+			points = Divisors.points(curr.number, target.number);
+			removes = number == 1;
+			if (removes && !game.isPlayOnline && game.balls.size() == 1) {
+				clears = true;
+				points += config.clearBoardBonus;
+			}
+		} else {
+			sticks = true;
+			number = curr.number + target.number;
+			gameOver = number > config.gameOverNumber
+					|| y > config.getGameOverY();
+		}
+
+		if (divides) {
+			label = points < POINTS_LABELS.length ? POINTS_LABELS[points] : "+"
+					+ points;
+		} else {
+			label = number < NUMBER_LABELS.length ? NUMBER_LABELS[number] : "="
+					+ number;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,452 @@
+package com.appspot.mathuzzles.risingnumbers.multiplay;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Peer to peer multi play over UDP on the local network.
+ *
+ * Each peer binds the first free port of PORT_RANGE ports from the base port
+ * and announces itself to every port in the range, both by broadcast and on
+ * the loopback address, so two instances on one device find each other too.
+ * The first peer to answer is paired with. Peers keep announcing themselves
+ * until paired, however long that takes.
+ *
+ * Balls and status messages carry a sequence number, are resent until acked
+ * and are delivered in order. Everything runs on the thread that calls
+ * runOnce; the send methods may be called from any thread.
+ */
+public class LanPeer {
+
+	public static final int BASE_PORT = 47470;
+	public static final int PORT_RANGE = 4;
+
+	private static final int HELLO_MILLIS = 500;
+	private static final int RESEND_MILLIS = 100;
+	private static final int PING_MILLIS = 1000;
+	private static final int LOST_CONNECTION_MILLIS = 10000;
+	private static final int MAX_PACKET = 64;
+
+	// Message types
+	private static final byte HELLO = 1;
+	private static final byte ACK = 2;
+	private static final byte PING = 3;
+	private static final byte BALL = 4;
+	private static final byte STATUS = 5;
+
+	/**
+	 * Receives messages from the peer. Called on the thread calling runOnce.
+	 */
+	public interface Listener {
+
+		void onConnected();
+
+		void onBall(int number);
+
+		/**
+		 * The peer's status, from the peer's point of view.
+		 */
+		void onStatus(int status);
+
+		void onLostConnection();
+	}
+
+	private final int basePort;
+	private final Listener listener;
+	private final long peerId;
+
+	private DatagramChannel channel;
+	private Selector selector;
+	private int localPort;
+	private final ByteBuffer receiveBuffer = ByteBuffer.allocate(MAX_PACKET);
+	private final ByteBuffer sendBuffer = ByteBuffer.allocate(MAX_PACKET);
+
+	// Paired peer
+	private SocketAddress remoteAddress = null;
+	private long remoteId = 0;
+	private long lastReceived;
+	private boolean lost = false;
+
+	// Reliable, ordered messages
+	private final ConcurrentLinkedQueue<int[]> outbox = new ConcurrentLinkedQueue<int[]>();
+	private final ArrayList<Pending> unacked = new ArrayList<Pending>();
+	private final ArrayList<Pending> outOfOrder = new ArrayList<Pending>();
+	private int nextSendSeq = 1;
+	private int nextReceiveSeq = 1;
+
+	private long lastHello = 0;
+	private long lastPing = 0;
+	private volatile long rttMillis = -1;
+
+	/**
+	 * @param basePort
+	 *            first port of the range, BASE_PORT normally
+	 */
+	public LanPeer(int basePort, Listener listener) {
+		this.basePort = basePort;
+		this.listener = listener;
+		long id = 0;
+		Random random = new Random();
+		while (id == 0) {
+			id = random.nextLong();
+		}
+		this.peerId = id;
+	}
+
+	/**
+	 * Bind the first free port in the range.
+	 */
+	public void open() throws IOException {
+		selector = Selector.open();
+		for (int i = 0; i < PORT_RANGE && channel == null; i++) {
+			DatagramChannel candidate = DatagramChannel.open();
+			try {
+				candidate.socket().setBroadcast(true);
+				candidate.socket().bind(new InetSocketAddress(basePort + i));
+				candidate.configureBlocking(false);
+				candidate.register(selector, SelectionKey.OP_READ);
+				channel = candidate;
+				localPort = basePort + i;
+			} catch (SocketException e) {
+				candidate.close();
+			}
+		}
+		if (channel == null) {
+			selector.close();
+			throw new IOException("No free port from " + basePort);
+		}
+		lastReceived = System.currentTimeMillis();
+	}
+
+	public void close() {
+		try {
+			if (selector != null) {
+				selector.close();
+			}
+			if (channel != null) {
+				channel.close();
+			}
+		} catch (IOException e) {
+			// Ignore, closing
+		}
+	}
+
+	/**
+	 * Wake the thread blocked in runOnce.
+	 */
+	public void wakeup() {
+		if (selector != null) {
+			selector.wakeup();
+		}
+	}
+
+	/**
+	 * Send a ball to the peer.
+	 */
+	public void sendBall(int number) {
+		outbox.add(new int[] { BALL, number });
+		wakeup();
+	}
+
+	/**
+	 * Send this player's status to the peer.
+	 */
+	public void sendStatus(int status) {
+		outbox.add(new int[] { STATUS, status });
+		wakeup();
+	}
+
+	public boolean isConnected() {
+		return remoteAddress != null && !lost;
+	}
+
+	/**
+	 * @return true when everything sent has been acked
+	 */
+	public boolean isFlushed() {
+		return outbox.isEmpty() && unacked.isEmpty();
+	}
+
+	public int getLocalPort() {
+		return localPort;
+	}
+
+	/**
+	 * Round trip of the last message acked on its first send, -1 if none.
+	 */
+	public long getRttMillis() {
+		return rttMillis;
+	}
+
+	/**
+	 * Wait up to the timeout for packets, then handle them and any timers.
+	 */
+	public void runOnce(long timeoutMillis) throws IOException {
+		long now = System.currentTimeMillis();
+		long wait = Math.min(timeoutMillis, nextTimer(now));
+		if (wait > 0) {
+			selector.select(wait);
+		} else {
+			selector.selectNow();
+		}
+		selector.selectedKeys().clear();
+
+		now = System.currentTimeMillis();
+		receive(now);
+		send(now);
+	}
+
+	/**
+	 * Milliseconds until something has to be sent.
+	 */
+	private long nextTimer(long now) {
+		if (remoteAddress == null) {
+			return Math.max(0, lastHello + HELLO_MILLIS - now);
+		}
+		long next = lastPing + PING_MILLIS - now;
+		for (int i = 0; i < unacked.size(); i++) {
+			next = Math.min(next, unacked.get(i).lastSent + RESEND_MILLIS - now);
+		}
+		return Math.max(0, next);
+	}
+
+	/**
+	 * @return bytes of a message of the type after the type, or -1 if the
+	 *         type isn't known
+	 */
+	private static int getLength(byte type) {
+		switch (type) {
+		case HELLO:
+			// Sender and who it's paired with
+			return 16;
+		case ACK:
+			// Sender and sequence number
+			return 12;
+		case PING:
+			return 8;
+		case BALL:
+		case STATUS:
+			// Sender, sequence number and value
+			return 16;
+		default:
+			return -1;
+		}
+	}
+
+	private void receive(long now) throws IOException {
+		while (true) {
+			receiveBuffer.clear();
+			SocketAddress from = channel.receive(receiveBuffer);
+			if (from == null) {
+				return;
+			}
+			receiveBuffer.flip();
+			if (!receiveBuffer.hasRemaining()) {
+				continue;
+			}
+			byte type = receiveBuffer.get();
+
+			// Drop unknown or short packets, e.g. strays on the port
+			int length = getLength(type);
+			if (length < 0 || receiveBuffer.remaining() < length) {
+				continue;
+			}
+			long senderId = receiveBuffer.getLong();
+			if (senderId == peerId) {
+				// Our own broadcast
+				continue;
+			}
+
+			if (type == HELLO) {
+				long pairedWith = receiveBuffer.getLong();
+				if (remoteAddress == null
+						&& (pairedWith == 0 || pairedWith == peerId)) {
+					remoteAddress = from;
+					remoteId = senderId;
+					lastReceived = now;
+					sendHello(from);
+					listener.onConnected();
+				} else if (senderId == remoteId) {
+					// Our answer was lost, answer again.
+					sendHello(from);
+				}
+				continue;
+			}
+			if (senderId != remoteId) {
+				continue;
+			}
+			lastReceived = now;
+
+			if (type == ACK) {
+				int seq = receiveBuffer.getInt();
+				for (int i = 0; i < unacked.size(); i++) {
+					Pending pending = unacked.get(i);
+					if (pending.seq == seq) {
+						if (pending.sends == 1) {
+							rttMillis = now - pending.lastSent;
+						}
+						unacked.remove(i);
+						break;
+					}
+				}
+			} else if (type == BALL || type == STATUS) {
+				int seq = receiveBuffer.getInt();
+				int value = receiveBuffer.getInt();
+				sendAck(seq);
+				if (seq == nextReceiveSeq) {
+					deliver(type, value);
+					deliverOutOfOrder();
+				} else if (seq > nextReceiveSeq && !isBuffered(seq)) {
+					Pending pending = new Pending();
+					pending.seq = seq;
+					pending.type = type;
+					pending.value = value;
+					outOfOrder.add(pending);
+				}
+			}
+		}
+	}
+
+	private void deliver(byte type, int value) {
+		nextReceiveSeq++;
+		if (type == BALL) {
+			listener.onBall(value);
+		} else {
+			listener.onStatus(value);
+		}
+	}
+
+	private void deliverOutOfOrder() {
+		boolean delivered = true;
+		while (delivered) {
+			delivered = false;
+			for (int i = 0; i < outOfOrder.size(); i++) {
+				Pending pending = outOfOrder.get(i);
+				if (pending.seq == nextReceiveSeq) {
+					outOfOrder.remove(i);
+					deliver(pending.type, pending.value);
+					delivered = true;
+					break;
+				}
+			}
+		}
+	}
+
+	private boolean isBuffered(int seq) {
+		for (int i = 0; i < outOfOrder.size(); i++) {
+			if (outOfOrder.get(i).seq == seq) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void send(long now) throws IOException {
+		if (remoteAddress == null) {
+			if (now - lastHello >= HELLO_MILLIS) {
+				announce();
+				lastHello = now;
+			}
+			return;
+		}
+
+		if (now - lastReceived > LOST_CONNECTION_MILLIS) {
+			if (!lost) {
+				lost = true;
+				listener.onLostConnection();
+			}
+			return;
+		}
+
+		// New messages
+		int[] message;
+		while ((message = outbox.poll()) != null) {
+			Pending pending = new Pending();
+			pending.seq = nextSendSeq++;
+			pending.type = (byte) message[0];
+			pending.value = message[1];
+			unacked.add(pending);
+			sendReliable(pending, now);
+		}
+
+		// Resend anything not acked
+		for (int i = 0; i < unacked.size(); i++) {
+			Pending pending = unacked.get(i);
+			if (now - pending.lastSent >= RESEND_MILLIS) {
+				sendReliable(pending, now);
+			}
+		}
+
+		if (now - lastPing >= PING_MILLIS) {
+			sendBuffer.clear();
+			sendBuffer.put(PING).putLong(peerId);
+			sendBuffer.flip();
+			channel.send(sendBuffer, remoteAddress);
+			lastPing = now;
+		}
+	}
+
+	/**
+	 * Send a hello to every port in the range, on the network and locally.
+	 */
+	private void announce() throws IOException {
+		InetAddress broadcast = InetAddress.getByName("255.255.255.255");
+		InetAddress loopback = InetAddress.getByName("127.0.0.1");
+		for (int i = 0; i < PORT_RANGE; i++) {
+			int port = basePort + i;
+			try {
+				sendHello(new InetSocketAddress(broadcast, port));
+			} catch (IOException e) {
+				// No network, loopback may still work.
+			}
+			if (port != localPort) {
+				sendHello(new InetSocketAddress(loopback, port));
+			}
+		}
+	}
+
+	private void sendHello(SocketAddress to) throws IOException {
+		sendBuffer.clear();
+		sendBuffer.put(HELLO).putLong(peerId).putLong(remoteId);
+		sendBuffer.flip();
+		channel.send(sendBuffer, to);
+	}
+
+	private void sendAck(int seq) throws IOException {
+		sendBuffer.clear();
+		sendBuffer.put(ACK).putLong(peerId).putInt(seq);
+		sendBuffer.flip();
+		channel.send(sendBuffer, remoteAddress);
+	}
+
+	private void sendReliable(Pending pending, long now) throws IOException {
+		sendBuffer.clear();
+		sendBuffer.put(pending.type).putLong(peerId).putInt(pending.seq)
+				.putInt(pending.value);
+		sendBuffer.flip();
+		channel.send(sendBuffer, remoteAddress);
+		pending.lastSent = now;
+		pending.sends++;
+	}
+
+	/**
+	 * Message waiting for an ack or for earlier messages.
+	 */
+	private static class Pending {
+		int seq;
+		byte type;
+		int value;
+		long lastSent;
+		int sends;
+	}
+}
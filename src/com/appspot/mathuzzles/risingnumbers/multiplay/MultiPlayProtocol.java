@@ -0,0 +1,237 @@
+package com.appspot.mathuzzles.risingnumbers.multiplay;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+
+/**
+ * Multi play protocol.
+ *
+ * Requests are a query string on the MultiPlay URL. Responses are a comma
+ * separated status followed by an optional ball number from the opponent,
+ * the server time it was shot, if the server echoes it, and the seed of the
+ * player's board once the match is in play, so the client plays the board the
+ * server plays. Fields left out are empty.
+ */
+public class MultiPlayProtocol {
+
+	public static final String CONNECTION_URL = "http://mathuzzles.appspot.com/MultiPlay";
+
+	// Multiplay game status
+	public static final int PENDING = 1;
+	public static final int IN_PLAY = 2;
+	public static final int OPPONENT_LOST_CONNECTION = 3;
+	public static final int USER_WON = 4;
+	public static final int USER_LOST = 5;
+
+	/** Number used when no ball is sent or received. */
+	public static final int NO_NUMBER = -1;
+
+	/** Time used when a time isn't known. */
+	public static final long NO_TIME = -1;
+
+	/** Response header with the server time in milliseconds. */
+	public static final String SERVER_TIME_HEADER = "X-Server-Time";
+
+	/**
+	 * Build the query string for a request.
+	 *
+	 * @param userId
+	 *            multi play user Id
+	 * @param gameOver
+	 *            true if this player's game is over
+	 * @param number
+	 *            ball to send to the opponent or NO_NUMBER
+	 * @param sentAt
+	 *            server time the ball was shot or NO_TIME
+	 * @return query string starting with '?'
+	 */
+	public static String buildQuery(String userId, boolean gameOver,
+			int number, long sentAt) {
+
+		// Always add user Id
+		StringBuilder data = new StringBuilder(48);
+		data.append("?userId=").append(userId);
+
+		// Flag if game is over
+		if (gameOver) {
+			data.append("&gameOver=").append(gameOver);
+		}
+		// Next ball to shoot
+		else if (number != NO_NUMBER) {
+			data.append("&number=").append(number);
+			if (sentAt != NO_TIME) {
+				data.append("&sentAt=").append(sentAt);
+			}
+		}
+
+		return data.toString();
+	}
+
+	/**
+	 * Build a response, leaving out trailing fields that aren't set.
+	 *
+	 * @param response
+	 *            appended to
+	 * @param status
+	 *            status of the player
+	 * @param number
+	 *            ball from the opponent or NO_NUMBER
+	 * @param sentAt
+	 *            server time the ball was shot or NO_TIME
+	 * @param hasSeed
+	 *            true to send the seed of the player's board
+	 */
+	public static void appendResponse(StringBuilder response, int status,
+			int number, long sentAt, boolean hasSeed, long seed) {
+		response.append(status);
+		int fields = hasSeed ? 3 : sentAt != NO_TIME ? 2
+				: number != NO_NUMBER ? 1 : 0;
+		if (fields >= 1) {
+			response.append(',');
+			if (number != NO_NUMBER) {
+				response.append(number);
+			}
+		}
+		if (fields >= 2) {
+			response.append(',');
+			if (sentAt != NO_TIME) {
+				response.append(sentAt);
+			}
+		}
+		if (fields >= 3) {
+			response.append(',').append(seed);
+		}
+	}
+
+	/**
+	 * Parse a response from the server. Reads the fields in place rather than
+	 * splitting, so nothing is allocated.
+	 *
+	 * @param response
+	 *            body of the response
+	 * @param result
+	 *            filled in with the status, number and seed
+	 * @return true if a status was found
+	 * @throws NumberFormatException
+	 *             if a field isn't a number
+	 */
+	public static boolean parseResponse(String response, Response result) {
+		result.status = 0;
+		result.number = NO_NUMBER;
+		result.sentAt = NO_TIME;
+		result.hasSeed = false;
+
+		if (response == null) {
+			return false;
+		}
+
+		boolean hasStatus = false;
+		int length = response.length();
+		int start = 0;
+		for (int field = 0; field < 4 && start <= length; field++) {
+			int end = response.indexOf(',', start);
+			if (end < 0) {
+				end = length;
+			}
+
+			// Empty fields are left out
+			if (!isBlank(response, start, end)) {
+				long value = parseNumber(response, start, end);
+				if (field == 0) {
+					// Should always have status
+					result.status = (int) value;
+					hasStatus = true;
+				} else if (field == 1) {
+					// Next result is ball from the opponent
+					result.number = (int) value;
+				} else if (field == 2) {
+					// Then when it was shot
+					result.sentAt = value;
+				} else {
+					// Seed of the board to play
+					result.seed = value;
+					result.hasSeed = true;
+				}
+			}
+			start = end + 1;
+		}
+		return hasStatus;
+	}
+
+	private static boolean isBlank(String text, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (!Character.isWhitespace(text.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Parse a whole number between start and end, ignoring white space
+	 * around it.
+	 */
+	private static long parseNumber(String text, int start, int end) {
+		while (start < end && Character.isWhitespace(text.charAt(start))) {
+			start++;
+		}
+		while (end > start && Character.isWhitespace(text.charAt(end - 1))) {
+			end--;
+		}
+
+		boolean negative = start < end && text.charAt(start) == '-';
+		int i = negative ? start + 1 : start;
+		if (i == end) {
+			throw new NumberFormatException(text.substring(start, end));
+		}
+		long value = 0;
+		for (; i < end; i++) {
+			int digit = text.charAt(i) - '0';
+			if (digit < 0 || digit > 9) {
+				throw new NumberFormatException(text.substring(start, end));
+			}
+			value = value * 10 + digit;
+		}
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Parsed response. Reused between requests.
+	 */
+	public static class Response {
+		public int status;
+		public int number = NO_NUMBER;
+		public long sentAt = NO_TIME;
+		public boolean hasSeed = false;
+		public long seed;
+	}
+
+	/**
+	 * Parse the server time from the response headers.
+	 *
+	 * @param serverTime
+	 *            value of the SERVER_TIME_HEADER or null
+	 * @param date
+	 *            value of the Date header or null
+	 * @return server time in milliseconds or NO_TIME
+	 */
+	public static long parseServerTime(String serverTime, String date) {
+		try {
+			if (serverTime != null) {
+				return Long.parseLong(serverTime.trim());
+			}
+			if (date != null) {
+				// Only to the second, so assume the middle of it.
+				SimpleDateFormat format = new SimpleDateFormat(
+						"EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+				return format.parse(date.trim()).getTime() + 500;
+			}
+		} catch (NumberFormatException e) {
+			// Ignore, unknown
+		} catch (ParseException e) {
+			// Ignore, unknown
+		}
+		return NO_TIME;
+	}
+}
@@ -0,0 +1,167 @@
+package com.appspot.mathuzzles.risingnumbers.multiplay;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.appspot.mathuzzles.risingnumbers.metrics.Histogram;
+import com.appspot.mathuzzles.risingnumbers.metrics.RollingHistogram;
+
+/**
+ * Network statistics for multi play.
+ *
+ * Tracks request round trip time, an estimate of the offset between the
+ * server clock and the local clock, and how long balls take from being shot
+ * by the opponent to arriving here.
+ */
+public class NetworkStats {
+
+	private static final int WINDOW_SLOTS = 6;
+	private static final long SLOT_MILLIS = 10000;
+	private static final int OFFSET_SAMPLES = 8;
+
+	private final RollingHistogram rttMillis = new RollingHistogram(
+			WINDOW_SLOTS, SLOT_MILLIS);
+	private final RollingHistogram deliveryMillis = new RollingHistogram(
+			WINDOW_SLOTS, SLOT_MILLIS);
+
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+
+	// Recent clock offset samples and the round trip each was measured with
+	private final long[] offsetSamples = new long[OFFSET_SAMPLES];
+	private final long[] offsetRtts = new long[OFFSET_SAMPLES];
+	private int offsetSampleCount = 0;
+	private int nextOffsetSample = 0;
+
+	private volatile long clockOffsetMillis = 0;
+	private volatile boolean hasClockOffset = false;
+
+	// Overlay text, built when the stats change rather than per frame
+	private volatile String[] overlayLines = new String[0];
+
+	/**
+	 * Record a completed request.
+	 *
+	 * @param sentMillis
+	 *            local time the request was sent
+	 * @param receivedMillis
+	 *            local time the response arrived
+	 * @param serverMillis
+	 *            server time from the response or -1 if unknown
+	 */
+	public void recordRequest(long sentMillis, long receivedMillis,
+			long serverMillis) {
+		requests.incrementAndGet();
+		long rtt = receivedMillis - sentMillis;
+		rttMillis.record(rtt, receivedMillis);
+
+		if (serverMillis >= 0) {
+			// Assume the server answered half way through the round trip.
+			long offset = serverMillis - (sentMillis + (rtt / 2));
+			synchronized (offsetSamples) {
+				offsetSamples[nextOffsetSample] = offset;
+				offsetRtts[nextOffsetSample] = rtt;
+				nextOffsetSample = (nextOffsetSample + 1) % OFFSET_SAMPLES;
+				if (offsetSampleCount < OFFSET_SAMPLES) {
+					offsetSampleCount++;
+				}
+
+				// The sample with the shortest round trip has the least
+				// uncertainty.
+				int best = 0;
+				for (int i = 1; i < offsetSampleCount; i++) {
+					if (offsetRtts[i] < offsetRtts[best]) {
+						best = i;
+					}
+				}
+				clockOffsetMillis = offsetSamples[best];
+				hasClockOffset = true;
+			}
+		}
+	}
+
+	/**
+	 * Record a request that failed.
+	 */
+	public void recordFailure() {
+		requests.incrementAndGet();
+		failures.incrementAndGet();
+	}
+
+	/**
+	 * Record a ball from the opponent.
+	 *
+	 * @param sentServerMillis
+	 *            server time the opponent shot the ball
+	 * @param receivedMillis
+	 *            local time it arrived
+	 */
+	public void recordBallDelivery(long sentServerMillis, long receivedMillis) {
+		if (hasClockOffset) {
+			deliveryMillis.record(toServerTime(receivedMillis)
+					- sentServerMillis, receivedMillis);
+		}
+	}
+
+	/**
+	 * Convert local time to server time.
+	 */
+	public long toServerTime(long localMillis) {
+		return localMillis + clockOffsetMillis;
+	}
+
+	public boolean hasClockOffset() {
+		return hasClockOffset;
+	}
+
+	public long getClockOffsetMillis() {
+		return clockOffsetMillis;
+	}
+
+	public long getRequestCount() {
+		return requests.get();
+	}
+
+	public long getFailureCount() {
+		return failures.get();
+	}
+
+	/**
+	 * Round trip times over the last minute.
+	 */
+	public Histogram getRttMillis(long nowMillis) {
+		return rttMillis.getWindow(nowMillis);
+	}
+
+	/**
+	 * Ball delivery delays over the last minute.
+	 */
+	public Histogram getDeliveryMillis(long nowMillis) {
+		return deliveryMillis.getWindow(nowMillis);
+	}
+
+	/**
+	 * Lines of text for the overlay.
+	 */
+	public String[] getOverlayLines() {
+		return overlayLines;
+	}
+
+	/**
+	 * Rebuild the overlay text. Called by the connection thread after each
+	 * request.
+	 */
+	public synchronized void updateOverlay(long nowMillis) {
+		Histogram rtt = getRttMillis(nowMillis);
+		String rttLine = "RTT " + rtt.getPercentile(50) + " / "
+				+ rtt.getPercentile(95) + " ms";
+		String offsetLine = hasClockOffset ? "Offset " + clockOffsetMillis
+				+ " ms" : "Offset ?";
+		Histogram delivery = getDeliveryMillis(nowMillis);
+		String deliveryLine = "Delay " + delivery.getPercentile(50) + " / "
+				+ delivery.getPercentile(95) + " ms";
+		String failureLine = "Failed " + failures.get() + " / "
+				+ requests.get();
+		overlayLines = new String[] { rttLine, offsetLine, deliveryLine,
+				failureLine };
+	}
+}
@@ -0,0 +1,197 @@
+package com.appspot.mathuzzles.risingnumbers.tools;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import com.appspot.mathuzzles.risingnumbers.NumberText;
+import com.appspot.mathuzzles.risingnumbers.model.Ball;
+import com.appspot.mathuzzles.risingnumbers.model.Game;
+import com.appspot.mathuzzles.risingnumbers.model.Hints;
+import com.appspot.mathuzzles.risingnumbers.model.Replay;
+import com.appspot.mathuzzles.risingnumbers.multiplay.MultiPlayProtocol;
+
+/**
+ * Guards the game loop against allocating.
+ *
+ * Drives the game a tick at a time with scripted input, the way GameThread
+ * does: step the game with a replay recording, then do the work of drawing
+ * (ball number text, points text and hints). The online run also receives
+ * opponent balls, parses a server response and sends balls as the
+ * connection threads do. Heap allocated by this thread is read from the
+ * JVM's ThreadMXBean after a warm up, and the run fails if it is over the
+ * budget.
+ *
+ * Usage: AllocationHarness [--ticks n] [--warmup n] [--budget bytes per tick]
+ * [--seed n]
+ *
+ * Exits 1 if a run is over the budget, 2 if the JVM can't count allocations.
+ */
+public class AllocationHarness {
+
+	// Scripted input: drag now and then, shoot about once a second.
+	private static final int DRAG_TICKS = 7;
+	private static final int SHOOT_TICKS = 50;
+
+	// Online events
+	private static final int OPPONENT_BALL_TICKS = 60;
+	private static final int RESPONSE_TICKS = 100;
+	private static final String RESPONSE = "2,17,1300000000000";
+
+	private int ticks = 100000;
+	private int warmup = 50000;
+	private double budget = 1.0;
+	private long seed = 1;
+
+	private com.sun.management.ThreadMXBean threadBean;
+
+	// Drawing state, as kept by GameThread
+	private final Hints hints = new Hints();
+	private final char[] pointsDisplay = new char[32];
+	private int pointsDisplayed = -1;
+	private int pointsLength = 0;
+	private final MultiPlayProtocol.Response response = new MultiPlayProtocol.Response();
+
+	/** Keeps results live so the JIT can't drop the work */
+	private long sink = 0;
+
+	public static void main(String[] args) {
+		AllocationHarness harness = new AllocationHarness();
+		harness.parseArgs(args);
+		System.exit(harness.run());
+	}
+
+	private void parseArgs(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if ("--ticks".equals(arg)) {
+				ticks = Integer.parseInt(args[++i]);
+			} else if ("--warmup".equals(arg)) {
+				warmup = Integer.parseInt(args[++i]);
+			} else if ("--budget".equals(arg)) {
+				budget = Double.parseDouble(args[++i]);
+			} else if ("--seed".equals(arg)) {
+				seed = Long.parseLong(args[++i]);
+			} else {
+				throw new IllegalArgumentException("Unknown argument: " + arg);
+			}
+		}
+	}
+
+	/**
+	 * @return the exit code
+	 */
+	public int run() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory
+				.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+			System.out.println("This JVM can't count allocated bytes");
+			return 2;
+		}
+		threadBean = (com.sun.management.ThreadMXBean) bean;
+		if (!threadBean.isThreadAllocatedMemorySupported()) {
+			System.out.println("This JVM can't count allocated bytes");
+			return 2;
+		}
+		threadBean.setThreadAllocatedMemoryEnabled(true);
+
+		boolean ok = measure("solo", false);
+		ok &= measure("online", true);
+		return ok ? 0 : 1;
+	}
+
+	/**
+	 * Warm up, then count the bytes allocated over the measured ticks.
+	 *
+	 * @return true if within the budget
+	 */
+	private boolean measure(String name, boolean online) {
+		Random random = new Random(seed);
+		Game game = new Game(new Random(seed));
+		game.setReplay(new Replay());
+		game.isPlayOnline = online;
+		game.start();
+
+		for (int tick = 0; tick < warmup; tick++) {
+			tick(game, random, tick);
+		}
+
+		long thread = Thread.currentThread().getId();
+		long before = threadBean.getThreadAllocatedBytes(thread);
+		int games = 0;
+		for (int tick = 0; tick < ticks; tick++) {
+			if (tick(game, random, tick)) {
+				games++;
+			}
+		}
+		long bytes = threadBean.getThreadAllocatedBytes(thread) - before;
+
+		double perTick = bytes / (double) ticks;
+		boolean ok = perTick <= budget;
+		System.out.println(String.format(
+				"%-8s %d ticks, %d new games: %d bytes, %.3f bytes/tick"
+						+ " (budget %.3f) %s", name, ticks, games, bytes,
+				perTick, budget, ok ? "OK" : "OVER BUDGET"));
+		return ok;
+	}
+
+	/**
+	 * One tick of GameThread.
+	 *
+	 * @return true if a new game was started
+	 */
+	private boolean tick(Game game, Random random, int tick) {
+		boolean newGame = false;
+		if (game.isGameOver) {
+			game.start();
+			newGame = true;
+		}
+
+		// Input
+		float moveX = 0;
+		boolean shooting = tick % SHOOT_TICKS == 0;
+		if (!shooting && tick % DRAG_TICKS == 0) {
+			moveX = random.nextInt(41) - 20;
+		}
+
+		// Connection threads
+		if (game.isPlayOnline) {
+			if (tick % OPPONENT_BALL_TICKS == 0) {
+				Ball ball = game.obtainBall();
+				ball.number = random.nextInt(Game.NEW_BALL_MAX) + 2;
+				game.ballsFromOpponent.add(ball);
+			}
+			if (tick % RESPONSE_TICKS == 0) {
+				MultiPlayProtocol.parseResponse(RESPONSE, response);
+				sink += response.number;
+			}
+			int size = game.ballsToOpponent.size();
+			for (int i = 0; i < size; i++) {
+				Ball ball = game.ballsToOpponent.get(i);
+				sink += ball.number;
+				game.releaseBall(ball);
+			}
+			game.ballsToOpponent.clear();
+		}
+
+		// incrementBoard
+		game.step(moveX, 0, shooting);
+		if (game.points != pointsDisplayed) {
+			pointsLength = NumberText.format(game.points, pointsDisplay, 0);
+			pointsDisplayed = game.points;
+		}
+
+		// doDraw
+		int size = game.balls.size();
+		for (int i = 0; i < size; i++) {
+			sink += NumberText.get(game.balls.get(i).number).length();
+		}
+		size = game.ballsInQueue.size();
+		for (int i = 0; i < size; i++) {
+			sink += NumberText.get(game.ballsInQueue.get(i).number).length();
+		}
+		sink += NumberText.get(game.currBall.number).length();
+		hints.update(game);
+		sink += hints.count + pointsLength;
+		return newGame;
+	}
+}
@@ -0,0 +1,276 @@
+package com.appspot.mathuzzles.risingnumbers.tools;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.appspot.mathuzzles.risingnumbers.metrics.Histogram;
+import com.appspot.mathuzzles.risingnumbers.model.Ball;
+import com.appspot.mathuzzles.risingnumbers.model.Divisors;
+import com.appspot.mathuzzles.risingnumbers.model.Game;
+import com.appspot.mathuzzles.risingnumbers.model.GameConfig;
+
+/**
+ * Plays many seeded solo games with a scripted player to see how the tuning
+ * constants change the game.
+ *
+ * For each config reports the score distribution, how many shots a game
+ * lasts and how often the board is cleared. With --sweep each constant is
+ * moved on its own and the change against the shipped game is shown. With
+ * --set the given values of each named constant are all combined, e.g.
+ * --set newBallMax=20,25,30 --set ballsInRow=5,6.
+ *
+ * Usage: BalanceAnalyzer [--games n] [--threads n] [--seed n]
+ * [--player greedy|random] [--max-shots n] [--sweep] [--set name=v1,v2...]
+ */
+public class BalanceAnalyzer {
+
+	/** Games handed to a thread at a time */
+	private static final int CHUNK = 256;
+
+	/** Step between the x the greedy player tries */
+	private static final int GREEDY_STEP = 6;
+
+	private static final String[] NAMES = { "newBallMax", "ballsInRow",
+			"pointsToRemove", "clearBoardBonus", "gameOverNumber" };
+	private static final int[][] SWEEP = { { 15, 20, 30, 35 }, { 4, 5 },
+			{ 50, 150, 200 }, { 500, 2000 }, { 79, 119 } };
+
+	private int games = 20000;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private long seed = 1;
+	private boolean greedy = true;
+	private int maxShots = 5000;
+	private boolean sweep = false;
+	private ArrayList<String> sets = new ArrayList<String>();
+
+	/**
+	 * Totals of the games played with one config.
+	 */
+	static class Result {
+		final Histogram points = new Histogram();
+		final Histogram shots = new Histogram();
+		final AtomicLong boardsCleared = new AtomicLong();
+		final AtomicLong capped = new AtomicLong();
+		long nanos;
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		BalanceAnalyzer analyzer = new BalanceAnalyzer();
+		analyzer.parseArgs(args);
+		analyzer.run();
+	}
+
+	private void parseArgs(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if ("--games".equals(arg)) {
+				games = Integer.parseInt(args[++i]);
+			} else if ("--threads".equals(arg)) {
+				threads = Integer.parseInt(args[++i]);
+			} else if ("--seed".equals(arg)) {
+				seed = Long.parseLong(args[++i]);
+			} else if ("--player".equals(arg)) {
+				greedy = !"random".equals(args[++i]);
+			} else if ("--max-shots".equals(arg)) {
+				maxShots = Integer.parseInt(args[++i]);
+			} else if ("--sweep".equals(arg)) {
+				sweep = true;
+			} else if ("--set".equals(arg)) {
+				sets.add(args[++i]);
+			} else {
+				throw new IllegalArgumentException("Unknown argument: " + arg);
+			}
+		}
+	}
+
+	public void run() throws InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		System.out.println(games + " games per config, " + threads
+				+ " threads, " + (greedy ? "greedy" : "random") + " player");
+
+		GameConfig baseline = GameConfig.DEFAULT;
+		Result base = play(executor, baseline);
+		printHeader();
+		printRow("shipped", base, null);
+
+		if (sweep) {
+			for (int i = 0; i < NAMES.length; i++) {
+				for (int j = 0; j < SWEEP[i].length; j++) {
+					GameConfig config = baseline.copy();
+					set(config, NAMES[i], SWEEP[i][j]);
+					printRow(NAMES[i] + "=" + SWEEP[i][j], play(executor,
+							config), base);
+				}
+			}
+		}
+
+		if (!sets.isEmpty()) {
+			ArrayList<GameConfig> grid = new ArrayList<GameConfig>();
+			grid.add(baseline.copy());
+			for (int i = 0; i < sets.size(); i++) {
+				String[] nameValues = sets.get(i).split("=");
+				String[] values = nameValues[1].split(",");
+				ArrayList<GameConfig> next = new ArrayList<GameConfig>();
+				for (int g = 0; g < grid.size(); g++) {
+					for (int v = 0; v < values.length; v++) {
+						GameConfig config = grid.get(g).copy();
+						set(config, nameValues[0], Integer.parseInt(values[v]));
+						next.add(config);
+					}
+				}
+				grid = next;
+			}
+			for (int g = 0; g < grid.size(); g++) {
+				GameConfig config = grid.get(g);
+				printRow(config.toString(), play(executor, config), base);
+			}
+		}
+
+		executor.shutdown();
+	}
+
+	/**
+	 * Play the games of one config on all threads.
+	 */
+	private Result play(ExecutorService executor, final GameConfig config)
+			throws InterruptedException {
+		final Result result = new Result();
+		long start = System.nanoTime();
+		ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+		for (int first = 0; first < games; first += CHUNK) {
+			final int from = first;
+			final int to = Math.min(games, first + CHUNK);
+			futures.add(executor.submit(new Runnable() {
+				public void run() {
+					for (int i = from; i < to; i++) {
+						playGame(config, gameSeed(i), result);
+					}
+				}
+			}));
+		}
+		for (int i = 0; i < futures.size(); i++) {
+			try {
+				futures.get(i).get();
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			}
+		}
+		result.nanos = System.nanoTime() - start;
+		return result;
+	}
+
+	/**
+	 * Same seeds for every config, so configs are compared on the same games.
+	 */
+	private long gameSeed(int game) {
+		return new Random(seed * 1000003L + game).nextLong();
+	}
+
+	private void playGame(GameConfig config, long gameSeed, Result result) {
+		Random random = new Random(gameSeed);
+		Game game = new Game(new Random(), config);
+		game.start(gameSeed);
+		int shots = 0;
+		while (!game.isGameOver && shots < maxShots) {
+			game.currBall.x = greedy ? greedyX(game) : Game.MARGIN_LEFT
+					+ random.nextInt(game.getMarginRight() - Game.MARGIN_LEFT
+							+ 1);
+			game.step(0, 0, true);
+			shots++;
+		}
+
+		result.points.record(game.points);
+		result.shots.record(shots);
+		result.boardsCleared.addAndGet(game.boardsCleared);
+		if (!game.isGameOver) {
+			result.capped.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Most points now; if nothing divides, the top, else the smallest stick
+	 * highest up.
+	 */
+	private static int greedyX(Game game) {
+		int number = game.currBall.number;
+		int gameOverNumber = game.getConfig().gameOverNumber;
+		int bestX = game.currBall.x;
+		int best = Integer.MIN_VALUE;
+		int marginRight = game.getMarginRight();
+		for (int x = Game.MARGIN_LEFT; x <= marginRight; x += GREEDY_STEP) {
+			Ball target = game.findShotTarget(x);
+			int score;
+			if (target == null) {
+				score = -number;
+			} else {
+				int points = Divisors.points(number, target.number);
+				if (points > 0) {
+					score = points * 10;
+				} else if (number + target.number > gameOverNumber) {
+					score = -1000000;
+				} else {
+					score = -(number + target.number) - target.y / 2;
+				}
+			}
+			if (score > best) {
+				best = score;
+				bestX = x;
+			}
+		}
+		return bestX;
+	}
+
+	private static void set(GameConfig config, String name, int value) {
+		if ("newBallMax".equals(name)) {
+			config.newBallMax = value;
+		} else if ("ballsInRow".equals(name)) {
+			config.ballsInRow = value;
+		} else if ("pointsToRemove".equals(name)) {
+			config.pointsToRemove = value;
+		} else if ("clearBoardBonus".equals(name)) {
+			config.clearBoardBonus = value;
+		} else if ("gameOverNumber".equals(name)) {
+			config.gameOverNumber = value;
+		} else if ("levels".equals(name)) {
+			config.levels = value != 0;
+		} else {
+			throw new IllegalArgumentException("Unknown constant: " + name);
+		}
+	}
+
+	private static void printHeader() {
+		System.out.println(String.format(
+				"%-24s %10s %8s %8s %8s %8s %8s %7s %8s %8s",
+				"config", "games/min", "mean", "p10", "p50", "p90", "shots",
+				"clears", "d.mean", "d.shots"));
+	}
+
+	private void printRow(String name, Result result, Result base) {
+		double meanPoints = result.points.getMean();
+		double meanShots = result.shots.getMean();
+		String pointsChange = "";
+		String shotsChange = "";
+		if (base != null) {
+			pointsChange = String.format("%+.1f%%", (meanPoints
+					/ base.points.getMean() - 1) * 100);
+			shotsChange = String.format("%+.1f%%", (meanShots
+					/ base.shots.getMean() - 1) * 100);
+		}
+		System.out.println(String.format(
+				"%-24s %10.0f %8.0f %8d %8d %8d %8.1f %7.2f %8s %8s", name,
+				games * 60e9 / result.nanos, meanPoints, result.points
+						.getPercentile(10), result.points.getPercentile(50),
+				result.points.getPercentile(90), meanShots,
+				result.boardsCleared.get() / (double) games, pointsChange,
+				shotsChange));
+		if (result.capped.get() > 0) {
+			System.out.println(String.format("%-24s %d games stopped at %d"
+					+ " shots", "", result.capped.get(), maxShots));
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package com.appspot.mathuzzles.risingnumbers.tools;
+
+import java.util.Random;
+
+import com.appspot.mathuzzles.risingnumbers.bot.ShotSearch;
+import com.appspot.mathuzzles.risingnumbers.metrics.Histogram;
+import com.appspot.mathuzzles.risingnumbers.model.Game;
+
+/**
+ * Plays solo games with the bot and reports how well and how fast it plays.
+ *
+ * Usage: BotBenchmark [games] [threads] [depth] [budget millis]
+ */
+public class BotBenchmark {
+
+	/** Give up on a game after this many shots */
+	private static final int MAX_SHOTS = 2000;
+
+	public static void main(String[] args) {
+		int games = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime
+				.getRuntime().availableProcessors();
+		int depth = args.length > 2 ? Integer.parseInt(args[2])
+				: ShotSearch.MAX_DEPTH;
+		long budgetMillis = args.length > 3 ? Long.parseLong(args[3]) : 100;
+
+		ShotSearch shotSearch = new ShotSearch(threads, depth);
+		Histogram searchMicros = new Histogram();
+		Histogram points = new Histogram();
+		int[] depthReached = new int[ShotSearch.MAX_DEPTH + 1];
+		long shots = 0;
+		Random random = new Random(1);
+
+		for (int i = 0; i < games; i++) {
+			Game game = new Game();
+			game.start(random.nextLong());
+			int gameShots = 0;
+			while (!game.isGameOver && gameShots < MAX_SHOTS) {
+				long start = System.nanoTime();
+				ShotSearch.Shot shot = shotSearch.findShot(game, budgetMillis);
+				searchMicros.record((System.nanoTime() - start) / 1000);
+				depthReached[shot.depth]++;
+				game.currBall.x = shot.x;
+				game.step(0, 0, true);
+				gameShots++;
+			}
+			shots += gameShots;
+			points.record(game.points);
+			System.out.println("Game " + (i + 1) + ": " + game.points
+					+ " points in " + gameShots + " shots"
+					+ (game.isGameOver ? "" : " (stopped)"));
+		}
+		shotSearch.shutdown();
+
+		System.out.println();
+		System.out.println("Threads " + threads + ", depth " + depth
+				+ ", budget " + budgetMillis + " ms");
+		System.out.println(String.format("Points:        mean=%.0f p50=%d max=%d",
+				points.getMean(), points.getPercentile(50), points.getMax()));
+		System.out.println(String.format("Shots/game:    %.1f", shots
+				/ (double) games));
+		System.out.println("Search (us):   p50=" + searchMicros.getPercentile(50)
+				+ " p99=" + searchMicros.getPercentile(99) + " max="
+				+ searchMicros.getMax());
+		StringBuilder depths = new StringBuilder("Depth reached:");
+		for (int d = 1; d < depthReached.length; d++) {
+			depths.append(" ").append(d).append("=").append(depthReached[d]);
+		}
+		System.out.println(depths);
+		System.out.println(String.format("Cache hits:    %.1f%% of %d look ups",
+				shotSearch.getProbes() == 0 ? 0 : shotSearch.getHits() * 100.0
+						/ shotSearch.getProbes(), shotSearch.getProbes()));
+	}
+}
@@ -0,0 +1,67 @@
+package com.appspot.mathuzzles.risingnumbers.tools;
+
+import java.util.Random;
+
+import com.appspot.mathuzzles.risingnumbers.bot.ShotSearch;
+import com.appspot.mathuzzles.risingnumbers.model.Ball;
+import com.appspot.mathuzzles.risingnumbers.model.Game;
+import com.appspot.mathuzzles.risingnumbers.multiplay.MultiPlayProtocol;
+
+/**
+ * Plays a real board with the bot, one shot per request cycle, and sends the
+ * balls it earns. Balls from the opponent join its queue as in the game.
+ */
+public class BotShotSource implements ShotSource {
+
+	private final ShotSearch shotSearch;
+	private final long budgetMillis;
+	private final Random random;
+	private Game game;
+
+	/**
+	 * @param shotSearch
+	 *            search, may be shared by many sources
+	 * @param budgetMillis
+	 *            search time per shot
+	 */
+	public BotShotSource(ShotSearch shotSearch, long budgetMillis, long seed) {
+		this.shotSearch = shotSearch;
+		this.budgetMillis = budgetMillis;
+		this.random = new Random(seed);
+		reset();
+	}
+
+	public synchronized void reset() {
+		game = new Game(new Random(random.nextLong()));
+		game.isPlayOnline = true;
+		game.start();
+	}
+
+	public synchronized int nextShot() {
+		if (!game.isGameOver) {
+			ShotSearch.Shot shot = shotSearch.findShot(game, budgetMillis);
+			if (shot != null) {
+				game.currBall.x = shot.x;
+				game.step(0, 0, true);
+			}
+		}
+
+		if (game.ballsToOpponent.isEmpty()) {
+			return MultiPlayProtocol.NO_NUMBER;
+		}
+		Ball ballTo = game.ballsToOpponent.remove(0);
+		int number = ballTo.number;
+		game.releaseBall(ballTo);
+		return number;
+	}
+
+	public synchronized void ballReceived(int number) {
+		Ball ball = game.obtainBall();
+		ball.number = number;
+		game.ballsFromOpponent.add(ball);
+	}
+
+	public synchronized boolean isGameOver() {
+		return game.isGameOver;
+	}
+}
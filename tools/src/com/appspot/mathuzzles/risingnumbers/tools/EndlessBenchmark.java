@@ -0,0 +1,143 @@
+package com.appspot.mathuzzles.risingnumbers.tools;
+
+import java.util.Random;
+
+import com.appspot.mathuzzles.risingnumbers.metrics.Histogram;
+import com.appspot.mathuzzles.risingnumbers.model.Game;
+import com.appspot.mathuzzles.risingnumbers.model.GameConfig;
+import com.appspot.mathuzzles.risingnumbers.model.Hints;
+
+/**
+ * Times the game loop on endless boards of growing size.
+ *
+ * Each tick is a step of the game and a hints update, the work GameThread
+ * does besides drawing, with scripted input as in AllocationHarness. New rows
+ * are pushed in often so the boards fill up to thousands of balls. The 99th
+ * percentile tick must be within the budget, a slice of the 20 ms frame that
+ * leaves the rest for drawing.
+ *
+ * Usage: EndlessBenchmark [--ticks n] [--budget micros] [--seed n]
+ * [--size ballsInRow x rows ...]
+ *
+ * Exits 1 if a size is over the budget.
+ */
+public class EndlessBenchmark {
+
+	// Scripted input: drag now and then, shoot about twice a second.
+	private static final int DRAG_TICKS = 7;
+	private static final int SHOOT_TICKS = 25;
+
+	/** New rows come in fast to fill the board */
+	private static final int NEW_ROW_STEPS = 50;
+
+	private static final int WARMUP_TICKS = 20000;
+
+	private int ticks = 100000;
+	private long budget = 2000;
+	private long seed = 1;
+	private String[] sizes = { "12x10", "40x30", "80x50" };
+
+	/** Keeps results live so the JIT can't drop the work */
+	private long sink = 0;
+
+	public static void main(String[] args) {
+		EndlessBenchmark benchmark = new EndlessBenchmark();
+		benchmark.parseArgs(args);
+		System.exit(benchmark.run());
+	}
+
+	private void parseArgs(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if ("--ticks".equals(arg)) {
+				ticks = Integer.parseInt(args[++i]);
+			} else if ("--budget".equals(arg)) {
+				budget = Long.parseLong(args[++i]);
+			} else if ("--seed".equals(arg)) {
+				seed = Long.parseLong(args[++i]);
+			} else if ("--size".equals(arg)) {
+				sizes = args[++i].split(",");
+			} else {
+				throw new IllegalArgumentException("Unknown argument: " + arg);
+			}
+		}
+	}
+
+	/**
+	 * @return the exit code
+	 */
+	public int run() {
+		System.out.println(String.format("%-8s %10s %7s %7s %8s %8s %8s %6s",
+				"size", "board", "games", "balls", "p50 us", "p99 us",
+				"max us", ""));
+		boolean ok = true;
+		for (int i = 0; i < sizes.length; i++) {
+			String[] size = sizes[i].split("x");
+			GameConfig config = GameConfig.endless(Integer.parseInt(size[0]),
+					Integer.parseInt(size[1]), NEW_ROW_STEPS);
+			ok &= measure(sizes[i], config);
+		}
+		System.out.println("sink " + sink);
+		return ok ? 0 : 1;
+	}
+
+	/**
+	 * @return true if within the budget
+	 */
+	private boolean measure(String name, GameConfig config) {
+		Random random = new Random(seed);
+		Game game = new Game(new Random(seed), config);
+		Hints hints = new Hints();
+		game.start();
+
+		for (int tick = 0; tick < WARMUP_TICKS; tick++) {
+			tick(game, hints, random, tick);
+		}
+
+		Histogram micros = new Histogram();
+		int games = 0;
+		long balls = 0;
+		for (int tick = 0; tick < ticks; tick++) {
+			long start = System.nanoTime();
+			if (tick(game, hints, random, tick)) {
+				games++;
+			}
+			micros.record((System.nanoTime() - start) / 1000);
+			balls += game.balls.size();
+		}
+
+		boolean ok = micros.getPercentile(99) <= budget;
+		System.out.println(String.format("%-8s %10s %7d %7d %8d %8d %8d %6s",
+				name, config.boardWidth + "x" + config.boardHeight, games,
+				balls / ticks, micros.getPercentile(50), micros
+						.getPercentile(99), micros.getMax(), ok ? "OK"
+						: "OVER"));
+		return ok;
+	}
+
+	/**
+	 * @return true if a new game was started
+	 */
+	private boolean tick(Game game, Hints hints, Random random, int tick) {
+		boolean newGame = false;
+		if (game.isGameOver) {
+			game.start();
+			newGame = true;
+		}
+
+		float moveX = 0;
+		boolean shooting = tick % SHOOT_TICKS == 0;
+		if (shooting) {
+			game.currBall.x = Game.MARGIN_LEFT
+					+ random.nextInt(game.getMarginRight() - Game.MARGIN_LEFT
+							+ 1);
+		} else if (tick % DRAG_TICKS == 0) {
+			moveX = random.nextInt(41) - 20;
+		}
+
+		game.step(moveX, 0, shooting);
+		hints.update(game);
+		sink += hints.count + game.points;
+		return newGame;
+	}
+}
@@ -0,0 +1,98 @@
+package com.appspot.mathuzzles.risingnumbers.tools;
+
+import java.io.IOException;
+
+import com.appspot.mathuzzles.risingnumbers.multiplay.LanPeer;
+import com.appspot.mathuzzles.risingnumbers.multiplay.MultiPlayProtocol;
+
+/**
+ * Runs a LAN peer without the game.
+ *
+ * Start two instances on the same machine (or two on the same network). They
+ * find each other, exchange balls, then one reports it lost and the other that
+ * it won.
+ *
+ * Usage: LanPeerDemo [balls] [basePort]
+ */
+public class LanPeerDemo implements LanPeer.Listener {
+
+	private volatile boolean connected = false;
+	private volatile boolean finished = false;
+	private volatile int ballsReceived = 0;
+	private volatile int expected = 0;
+	private volatile boolean outOfOrder = false;
+
+	public static void main(String[] args) throws IOException,
+			InterruptedException {
+		int balls = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+		int basePort = args.length > 1 ? Integer.parseInt(args[1])
+				: LanPeer.BASE_PORT;
+
+		LanPeerDemo demo = new LanPeerDemo();
+		LanPeer peer = new LanPeer(basePort, demo);
+		peer.open();
+		System.out.println("Listening on port " + peer.getLocalPort());
+
+		long start = System.currentTimeMillis();
+		int sent = 0;
+		long lastSent = 0;
+		while (!demo.finished) {
+			peer.runOnce(10);
+			long now = System.currentTimeMillis();
+			if (demo.connected && sent < balls && now - lastSent >= 10) {
+				peer.sendBall(sent++);
+				lastSent = now;
+			}
+
+			// The lower port gives up once everything has arrived.
+			if (sent == balls && demo.ballsReceived == balls
+					&& peer.getLocalPort() == basePort && peer.isFlushed()) {
+				peer.sendStatus(MultiPlayProtocol.USER_LOST);
+				while (!peer.isFlushed()) {
+					peer.runOnce(10);
+				}
+				demo.finished = true;
+			}
+			if (now - start > 60000) {
+				System.out.println("Timed out");
+				break;
+			}
+		}
+
+		// Let the last acks go out.
+		long end = System.currentTimeMillis() + 500;
+		while (System.currentTimeMillis() < end) {
+			peer.runOnce(10);
+		}
+		peer.close();
+
+		System.out.println("Received " + demo.ballsReceived + " balls"
+				+ (demo.outOfOrder ? " OUT OF ORDER" : " in order")
+				+ ", last RTT " + peer.getRttMillis() + " ms");
+		System.exit(demo.ballsReceived == balls && !demo.outOfOrder ? 0 : 1);
+	}
+
+	public void onConnected() {
+		System.out.println("Connected");
+		connected = true;
+	}
+
+	public void onBall(int number) {
+		if (number != expected) {
+			outOfOrder = true;
+		}
+		expected = number + 1;
+		ballsReceived++;
+	}
+
+	public void onStatus(int status) {
+		System.out.println(status == MultiPlayProtocol.USER_LOST ? "Won"
+				: "Lost");
+		finished = true;
+	}
+
+	public void onLostConnection() {
+		System.out.println("Lost connection");
+		finished = true;
+	}
+}
@@ -0,0 +1,92 @@
+package com.appspot.mathuzzles.risingnumbers.tools;
+
+import com.appspot.mathuzzles.risingnumbers.metrics.Histogram;
+import com.appspot.mathuzzles.risingnumbers.model.GameConfig;
+import com.appspot.mathuzzles.risingnumbers.model.LevelGenerator;
+
+/**
+ * Times level generation and shows how close the boards come to the target
+ * difficulty.
+ *
+ * For each level generates boards from many seeds and reports the time
+ * taken, the candidates tried, the difficulty reached and how often no
+ * candidate was solvable. Fails if the 99th percentile time is over the
+ * budget, as a level is generated inside a frame.
+ *
+ * Usage: LevelBenchmark [--boards n] [--levels n] [--budget millis]
+ *
+ * Exits 1 if a level is over the budget.
+ */
+public class LevelBenchmark {
+
+	private int boards = 200;
+	private int levels = 12;
+	private double budget = 10;
+
+	public static void main(String[] args) {
+		LevelBenchmark benchmark = new LevelBenchmark();
+		benchmark.parseArgs(args);
+		System.exit(benchmark.run());
+	}
+
+	private void parseArgs(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if ("--boards".equals(arg)) {
+				boards = Integer.parseInt(args[++i]);
+			} else if ("--levels".equals(arg)) {
+				levels = Integer.parseInt(args[++i]);
+			} else if ("--budget".equals(arg)) {
+				budget = Double.parseDouble(args[++i]);
+			} else {
+				throw new IllegalArgumentException("Unknown argument: " + arg);
+			}
+		}
+	}
+
+	/**
+	 * @return the exit code
+	 */
+	public int run() {
+		LevelGenerator generator = new LevelGenerator(GameConfig.DEFAULT);
+
+		// Warm up
+		for (int i = 0; i < boards; i++) {
+			generator.generate(2 + i % (levels - 1), -i);
+		}
+
+		System.out.println(String.format("%-6s %5s %7s %8s %8s %9s %11s %8s",
+				"level", "rows", "target", "p50 ms", "p99 ms", "attempts",
+				"difficulty", "fallback"));
+		boolean ok = true;
+		for (int level = 2; level <= levels; level++) {
+			Histogram micros = new Histogram();
+			long attempts = 0;
+			long difficulty = 0;
+			int fallbacks = 0;
+			for (int i = 0; i < boards; i++) {
+				long start = System.nanoTime();
+				generator.generate(level, i * 1000003L + level);
+				micros.record((System.nanoTime() - start) / 1000);
+				attempts += generator.getAttempts();
+				if (generator.getDifficulty() == 0) {
+					fallbacks++;
+				} else {
+					difficulty += generator.getDifficulty();
+				}
+			}
+
+			double p99 = micros.getPercentile(99) / 1000.0;
+			ok &= p99 <= budget;
+			System.out.println(String.format(
+					"%-6d %5d %7d %8.2f %8.2f %9.1f %11.1f %7.0f%%", level,
+					generator.getRows(level), generator
+							.getTargetDifficulty(level), micros
+							.getPercentile(50) / 1000.0, p99, attempts
+							/ (double) boards, difficulty
+							/ (double) Math.max(1, boards - fallbacks),
+					fallbacks * 100.0 / boards));
+		}
+		return ok ? 0 : 1;
+	}
+}
@@ -0,0 +1,179 @@
+package com.appspot.mathuzzles.risingnumbers.tools;
+
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.appspot.mathuzzles.risingnumbers.bot.ShotSearch;
+import com.appspot.mathuzzles.risingnumbers.metrics.Histogram;
+import com.appspot.mathuzzles.risingnumbers.multiplay.MultiPlayProtocol;
+
+/**
+ * Multi play load generator.
+ *
+ * Runs many simulated clients against a MultiPlay endpoint and reports
+ * requests per second, error rate, matchmaking time and ball delivery
+ * latency.
+ *
+ * Usage: LoadGenerator [--url url] [--clients n] [--seconds n]
+ * [--interval millis] [--threads n] [--report seconds] [--seed n] [--tagged]
+ * [--local] [--bot]
+ *
+ * --local starts a LocalMultiPlayServer and points the clients at it.
+ *
+ * --bot has each client play a real board with the bot instead of sending
+ * random balls.
+ */
+public class LoadGenerator {
+
+	private String url = MultiPlayProtocol.CONNECTION_URL;
+	private int clients = 1000;
+	private int seconds = 60;
+	private int intervalMillis = 2000;
+	private int threads = 64;
+	private int reportSeconds = 10;
+	private long seed = 1;
+	private boolean tagged = false;
+	private boolean local = false;
+	private boolean bot = false;
+	private ShotSearch shotSearch = null;
+
+	private final LoadStats stats = new LoadStats();
+
+	public static void main(String[] args) throws Exception {
+		LoadGenerator generator = new LoadGenerator();
+		generator.parseArgs(args);
+		boolean ok = generator.run();
+		System.exit(ok ? 0 : 1);
+	}
+
+	private void parseArgs(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if ("--url".equals(arg)) {
+				url = args[++i];
+			} else if ("--clients".equals(arg)) {
+				clients = Integer.parseInt(args[++i]);
+			} else if ("--seconds".equals(arg)) {
+				seconds = Integer.parseInt(args[++i]);
+			} else if ("--interval".equals(arg)) {
+				intervalMillis = Integer.parseInt(args[++i]);
+			} else if ("--threads".equals(arg)) {
+				threads = Integer.parseInt(args[++i]);
+			} else if ("--report".equals(arg)) {
+				reportSeconds = Integer.parseInt(args[++i]);
+			} else if ("--seed".equals(arg)) {
+				seed = Long.parseLong(args[++i]);
+			} else if ("--tagged".equals(arg)) {
+				tagged = true;
+			} else if ("--local".equals(arg)) {
+				local = true;
+			} else if ("--bot".equals(arg)) {
+				bot = true;
+			} else {
+				throw new IllegalArgumentException("Unknown argument: " + arg);
+			}
+		}
+	}
+
+	/**
+	 * Run the load.
+	 *
+	 * @return true if no errors occurred
+	 */
+	public boolean run() throws InterruptedException, java.io.IOException {
+		LocalMultiPlayServer server = null;
+		if (local) {
+			server = new LocalMultiPlayServer();
+			int port = server.start(0, threads);
+			url = "http://localhost:" + port + "/MultiPlay";
+		}
+
+		System.out.println("Load: " + clients + " clients, every "
+				+ intervalMillis + " ms, for " + seconds + " s against " + url);
+
+		if (bot) {
+			shotSearch = new ShotSearch(Runtime.getRuntime()
+					.availableProcessors(), 2);
+		}
+
+		// Spread clients over the interval so requests don't arrive in bursts.
+		ScheduledExecutorService executor = Executors
+				.newScheduledThreadPool(threads);
+		Random random = new Random(seed);
+		for (int i = 0; i < clients; i++) {
+			long clientSeed = random.nextLong();
+			SimulatedClient client = new SimulatedClient(url,
+					newShotSource(clientSeed), stats, clientSeed);
+			executor.scheduleWithFixedDelay(client,
+					random.nextInt(intervalMillis), intervalMillis,
+					TimeUnit.MILLISECONDS);
+		}
+
+		long start = System.currentTimeMillis();
+		long end = start + seconds * 1000L;
+		long lastRequests = 0;
+		long lastReport = start;
+		while (System.currentTimeMillis() < end) {
+			Thread.sleep(Math.min(reportSeconds * 1000L, Math.max(1, end
+					- System.currentTimeMillis())));
+			long now = System.currentTimeMillis();
+			long requests = stats.requests.get();
+			double perSecond = (requests - lastRequests) * 1000.0
+					/ Math.max(1, now - lastReport);
+			System.out.println(String.format("%6ds %9.1f req/s", (now - start)
+					/ 1000, perSecond));
+			lastRequests = requests;
+			lastReport = now;
+		}
+
+		executor.shutdown();
+		executor.awaitTermination(30, TimeUnit.SECONDS);
+		if (server != null) {
+			server.stop();
+		}
+		if (shotSearch != null) {
+			shotSearch.shutdown();
+		}
+
+		report(System.currentTimeMillis() - start);
+		return stats.errors.get() == 0;
+	}
+
+	/**
+	 * Create the shot source for a client.
+	 */
+	private ShotSource newShotSource(long clientSeed) {
+		if (bot) {
+			return new BotShotSource(shotSearch, 10, clientSeed);
+		}
+		return new RandomShotSource(clientSeed, tagged, 30);
+	}
+
+	private void report(long elapsedMillis) {
+		long requests = stats.requests.get();
+		long errors = stats.errors.get();
+		System.out.println();
+		System.out.println(String.format("Requests:      %d (%.1f req/s)",
+				requests, requests * 1000.0 / Math.max(1, elapsedMillis)));
+		System.out.println(String.format("Errors:        %d (%.3f%%)", errors,
+				requests == 0 ? 0 : errors * 100.0 / requests));
+		System.out.println("Matches:       " + stats.matchesStarted.get()
+				+ " started, " + stats.gamesFinished.get() + " finished, "
+				+ stats.lostConnections.get() + " lost connection");
+		System.out.println("Balls:         " + stats.ballsSent.get()
+				+ " sent, " + stats.ballsReceived.get() + " received");
+		printLatency("Request (us)", stats.requestMicros);
+		printLatency("Matchmaking (ms)", stats.matchmakingMillis);
+		printLatency("Delivery (ms)", stats.deliveryMillis);
+	}
+
+	private static void printLatency(String name, Histogram histogram) {
+		System.out.println(String.format(
+				"%-16s n=%d p50=%d p90=%d p99=%d p99.9=%d max=%d", name,
+				histogram.getCount(), histogram.getPercentile(50), histogram
+						.getPercentile(90), histogram.getPercentile(99),
+				histogram.getPercentile(99.9), histogram.getMax()));
+	}
+}
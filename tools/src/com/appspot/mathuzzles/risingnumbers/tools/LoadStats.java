@@ -0,0 +1,69 @@
+package com.appspot.mathuzzles.risingnumbers.tools;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.appspot.mathuzzles.risingnumbers.metrics.Histogram;
+
+/**
+ * Counters and latencies shared by all simulated clients.
+ */
+public class LoadStats {
+
+	public final AtomicLong requests = new AtomicLong();
+	public final AtomicLong errors = new AtomicLong();
+	public final AtomicLong ballsSent = new AtomicLong();
+	public final AtomicLong ballsReceived = new AtomicLong();
+	public final AtomicLong matchesStarted = new AtomicLong();
+	public final AtomicLong gamesFinished = new AtomicLong();
+	public final AtomicLong lostConnections = new AtomicLong();
+
+	/** Request round trip in microseconds */
+	public final Histogram requestMicros = new Histogram();
+
+	/** Time from first request to IN_PLAY in milliseconds */
+	public final Histogram matchmakingMillis = new Histogram();
+
+	/** Time from a ball being sent to the opponent receiving it */
+	public final Histogram deliveryMillis = new Histogram();
+
+	/** Send times by ball number, oldest first */
+	private final ConcurrentHashMap<Integer, ConcurrentLinkedQueue<Long>> sentTimes = new ConcurrentHashMap<Integer, ConcurrentLinkedQueue<Long>>();
+
+	/**
+	 * Record a ball sent to an opponent.
+	 */
+	public void ballSent(int number, long nowMillis) {
+		ballsSent.incrementAndGet();
+		ConcurrentLinkedQueue<Long> queue = sentTimes.get(number);
+		if (queue == null) {
+			ConcurrentLinkedQueue<Long> newQueue = new ConcurrentLinkedQueue<Long>();
+			queue = sentTimes.putIfAbsent(number, newQueue);
+			if (queue == null) {
+				queue = newQueue;
+			}
+		}
+		queue.add(nowMillis);
+	}
+
+	/**
+	 * Record a ball received from an opponent. Matched to the oldest ball sent
+	 * with the same number, which is exact when balls are tagged.
+	 */
+	public void ballReceived(int number, long nowMillis) {
+		ballsReceived.incrementAndGet();
+		ConcurrentLinkedQueue<Long> queue = sentTimes.get(number);
+		if (queue != null) {
+			Long sentAt = queue.poll();
+			if (sentAt != null) {
+				deliveryMillis.record(nowMillis - sentAt.longValue());
+			}
+
+			// Tags are used once, so don't keep their queues around.
+			if (queue.isEmpty()) {
+				sentTimes.remove(number, queue);
+			}
+		}
+	}
+}
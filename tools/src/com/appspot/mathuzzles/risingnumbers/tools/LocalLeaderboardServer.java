@@ -0,0 +1,139 @@
+package com.appspot.mathuzzles.risingnumbers.tools;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+import com.appspot.mathuzzles.risingnumbers.leaderboard.LeaderboardProtocol;
+import com.appspot.mathuzzles.risingnumbers.server.Leaderboard;
+import com.appspot.mathuzzles.risingnumbers.server.LeaderboardService;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local stand-in for the Leaderboard server.
+ *
+ * Takes uploads as a POST and answers ranking queries as a GET, as described
+ * in LeaderboardProtocol, with a LeaderboardService in memory. An upload with
+ * a score its replay doesn't earn is answered 400.
+ *
+ * Usage: LocalLeaderboardServer [port]
+ */
+public class LocalLeaderboardServer implements HttpHandler {
+
+	private final LeaderboardService service;
+	private HttpServer server;
+
+	public LocalLeaderboardServer(LeaderboardService service) {
+		this.service = service;
+	}
+
+	/**
+	 * Start the server.
+	 *
+	 * @param port
+	 *            port to listen on, 0 for any free port
+	 * @return the port listened on
+	 */
+	public int start(int port, int threads) throws IOException {
+		service.start();
+		server = HttpServer.create(new InetSocketAddress(port), 1024);
+		server.createContext("/Leaderboard", this);
+		server.setExecutor(Executors.newFixedThreadPool(threads));
+		server.start();
+		return server.getAddress().getPort();
+	}
+
+	public void stop() throws InterruptedException {
+		if (server != null) {
+			server.stop(0);
+		}
+		service.stop();
+	}
+
+	public void handle(HttpExchange exchange) throws IOException {
+		String body;
+		try {
+			if ("POST".equals(exchange.getRequestMethod())) {
+				InputStream in = exchange.getRequestBody();
+				service.upload(in);
+				in.close();
+				exchange.sendResponseHeaders(204, -1);
+				exchange.close();
+				return;
+			}
+			body = query(exchange.getRequestURI().getRawQuery());
+		} catch (IOException e) {
+			exchange.sendResponseHeaders(400, -1);
+			exchange.close();
+			return;
+		} catch (RuntimeException e) {
+			exchange.sendResponseHeaders(400, -1);
+			exchange.close();
+			return;
+		}
+
+		byte[] bytes = body.getBytes("UTF-8");
+		exchange.getResponseHeaders().set("Content-Type", "text/plain");
+		exchange.sendResponseHeaders(200, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(bytes);
+		out.close();
+	}
+
+	/**
+	 * Answer a ranking query.
+	 *
+	 * @return lines of rank, player Id and points
+	 */
+	String query(String query) throws IOException {
+		String playerId = null;
+		int start = 0;
+		int count = 10;
+		if (query != null) {
+			for (String pair : query.split("&")) {
+				int equals = pair.indexOf('=');
+				if (equals < 0) {
+					continue;
+				}
+				String name = pair.substring(0, equals);
+				String value = URLDecoder.decode(pair.substring(equals + 1),
+						"UTF-8");
+				if ("playerId".equals(name)) {
+					playerId = value;
+				} else if ("start".equals(name)) {
+					start = Math.max(0, Integer.parseInt(value));
+				} else if ("count".equals(name)) {
+					count = Math.max(0, Math.min(LeaderboardProtocol.MAX_COUNT,
+							Integer.parseInt(value)));
+				}
+			}
+		}
+
+		Leaderboard leaderboard = service.getLeaderboard();
+		List<Leaderboard.Ranking> rankings = playerId != null ? leaderboard
+				.getAround(playerId, count) : leaderboard.getTop(start, count);
+		StringBuilder response = new StringBuilder(rankings.size() * 32);
+		for (int i = 0; i < rankings.size(); i++) {
+			Leaderboard.Ranking ranking = rankings.get(i);
+			response.append(ranking.rank).append(',')
+					.append(ranking.playerId).append(',')
+					.append(ranking.points).append('\n');
+		}
+		return response.toString();
+	}
+
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 8081;
+		LocalLeaderboardServer server = new LocalLeaderboardServer(
+				new LeaderboardService(new Leaderboard()));
+		port = server.start(port, Runtime.getRuntime().availableProcessors() * 4);
+		System.out.println("Leaderboard stand-in on http://localhost:" + port
+				+ "/Leaderboard");
+	}
+}
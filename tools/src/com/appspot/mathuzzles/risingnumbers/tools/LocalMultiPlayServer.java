@@ -0,0 +1,201 @@
+package com.appspot.mathuzzles.risingnumbers.tools;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Random;
+import java.util.concurrent.Executors;
+
+import com.appspot.mathuzzles.risingnumbers.multiplay.MultiPlayProtocol;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local stand-in for the MultiPlay server.
+ *
+ * Pairs users in the order they first connect, relays balls between them and
+ * reports a lost connection when an opponent stops polling. Sends its clock
+ * in the SERVER_TIME_HEADER, echoes when each ball was shot and hands each
+ * player the seed of its board while in play.
+ *
+ * Usage: LocalMultiPlayServer [port]
+ */
+public class LocalMultiPlayServer implements HttpHandler {
+
+	private static final long LOST_CONNECTION_MILLIS = 10000;
+	private static final long SWEEP_MILLIS = 30000;
+
+	private final HashMap<String, Player> players = new HashMap<String, Player>();
+	private Player waiting = null;
+	private long lastSweep = 0;
+	private final Random random = new Random();
+
+	private HttpServer server;
+
+	/**
+	 * Start the server.
+	 *
+	 * @param port
+	 *            port to listen on, 0 for any free port
+	 * @return the port listened on
+	 */
+	public int start(int port, int threads) throws IOException {
+		server = HttpServer.create(new InetSocketAddress(port), 1024);
+		server.createContext("/MultiPlay", this);
+		server.setExecutor(Executors.newFixedThreadPool(threads));
+		server.start();
+		return server.getAddress().getPort();
+	}
+
+	public void stop() {
+		if (server != null) {
+			server.stop(0);
+		}
+	}
+
+	public void handle(HttpExchange exchange) throws IOException {
+		String body;
+		try {
+			body = respond(exchange.getRequestURI().getRawQuery(),
+					System.currentTimeMillis());
+		} catch (RuntimeException e) {
+			exchange.sendResponseHeaders(400, -1);
+			exchange.close();
+			return;
+		}
+
+		byte[] bytes = body.getBytes("UTF-8");
+		exchange.getResponseHeaders().set("Content-Type", "text/plain");
+		exchange.getResponseHeaders().set(MultiPlayProtocol.SERVER_TIME_HEADER,
+				Long.toString(System.currentTimeMillis()));
+		exchange.sendResponseHeaders(200, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(bytes);
+		out.close();
+	}
+
+	/**
+	 * Handle one request.
+	 *
+	 * @param query
+	 *            query string from the client
+	 * @return response body
+	 */
+	synchronized String respond(String query, long now) throws IOException {
+		String userId = null;
+		boolean gameOver = false;
+		int number = MultiPlayProtocol.NO_NUMBER;
+		long sentAt = MultiPlayProtocol.NO_TIME;
+		if (query != null) {
+			for (String pair : query.split("&")) {
+				int equals = pair.indexOf('=');
+				if (equals < 0) {
+					continue;
+				}
+				String name = pair.substring(0, equals);
+				String value = URLDecoder.decode(pair.substring(equals + 1),
+						"UTF-8");
+				if ("userId".equals(name)) {
+					userId = value;
+				} else if ("gameOver".equals(name)) {
+					gameOver = Boolean.parseBoolean(value);
+				} else if ("number".equals(name)) {
+					number = Integer.parseInt(value);
+				} else if ("sentAt".equals(name)) {
+					sentAt = Long.parseLong(value);
+				}
+			}
+		}
+		if (userId == null) {
+			throw new IllegalArgumentException("No userId");
+		}
+
+		sweep(now);
+
+		Player player = players.get(userId);
+		if (player == null) {
+			player = new Player();
+			players.put(userId, player);
+
+			// Match with the waiting player, else wait.
+			if (waiting != null) {
+				player.opponent = waiting;
+				waiting.opponent = player;
+				player.status = MultiPlayProtocol.IN_PLAY;
+				waiting.status = MultiPlayProtocol.IN_PLAY;
+				player.seed = random.nextLong();
+				waiting.seed = random.nextLong();
+				waiting = null;
+			} else {
+				waiting = player;
+			}
+		}
+		player.lastSeen = now;
+
+		Player opponent = player.opponent;
+		if (opponent != null && player.status == MultiPlayProtocol.IN_PLAY) {
+			if (gameOver) {
+				player.status = MultiPlayProtocol.USER_LOST;
+				opponent.status = MultiPlayProtocol.USER_WON;
+			} else if (now - opponent.lastSeen > LOST_CONNECTION_MILLIS) {
+				player.status = MultiPlayProtocol.OPPONENT_LOST_CONNECTION;
+			} else if (number != MultiPlayProtocol.NO_NUMBER) {
+				opponent.balls.add(new long[] { number, sentAt });
+			}
+		}
+
+		int ballNumber = MultiPlayProtocol.NO_NUMBER;
+		long ballSentAt = MultiPlayProtocol.NO_TIME;
+		if (!player.balls.isEmpty()) {
+			long[] ball = player.balls.removeFirst();
+			ballNumber = (int) ball[0];
+			ballSentAt = ball[1];
+		}
+		StringBuilder response = new StringBuilder(48);
+		MultiPlayProtocol.appendResponse(response, player.status, ballNumber,
+				ballSentAt, player.status == MultiPlayProtocol.IN_PLAY,
+				player.seed);
+		return response.toString();
+	}
+
+	/**
+	 * Forget players that stopped polling.
+	 */
+	private void sweep(long now) {
+		if (now - lastSweep < SWEEP_MILLIS) {
+			return;
+		}
+		lastSweep = now;
+		Iterator<Player> iterator = players.values().iterator();
+		while (iterator.hasNext()) {
+			Player player = iterator.next();
+			if (now - player.lastSeen > SWEEP_MILLIS) {
+				if (waiting == player) {
+					waiting = null;
+				}
+				iterator.remove();
+			}
+		}
+	}
+
+	private static class Player {
+		Player opponent;
+		int status = MultiPlayProtocol.PENDING;
+		long seed;
+		long lastSeen;
+		LinkedList<long[]> balls = new LinkedList<long[]>();
+	}
+
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+		LocalMultiPlayServer server = new LocalMultiPlayServer();
+		port = server.start(port, Runtime.getRuntime().availableProcessors() * 4);
+		System.out.println("MultiPlay stand-in on http://localhost:" + port
+				+ "/MultiPlay");
+	}
+}
@@ -0,0 +1,53 @@
+package com.appspot.mathuzzles.risingnumbers.tools;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.appspot.mathuzzles.risingnumbers.multiplay.MultiPlayProtocol;
+
+/**
+ * Sends random balls and ends the game after a random number of cycles.
+ *
+ * When tagged, every ball sent is a unique number so delivery latency can be
+ * matched exactly.
+ */
+public class RandomShotSource implements ShotSource {
+
+	private static final AtomicInteger nextTag = new AtomicInteger(1000);
+
+	private final Random random;
+	private final boolean tagged;
+	private final int averageCycles;
+	private int cyclesLeft;
+
+	public RandomShotSource(long seed, boolean tagged, int averageCycles) {
+		this.random = new Random(seed);
+		this.tagged = tagged;
+		this.averageCycles = averageCycles;
+		reset();
+	}
+
+	public void reset() {
+		cyclesLeft = averageCycles / 2 + random.nextInt(averageCycles + 1);
+	}
+
+	public int nextShot() {
+		cyclesLeft--;
+
+		// About every other cycle, a shot divides and sends the points.
+		if (!random.nextBoolean()) {
+			return MultiPlayProtocol.NO_NUMBER;
+		}
+		if (tagged) {
+			return nextTag.getAndIncrement();
+		}
+		return random.nextInt(60) + 2;
+	}
+
+	public void ballReceived(int number) {
+	}
+
+	public boolean isGameOver() {
+		return cyclesLeft <= 0;
+	}
+}
@@ -0,0 +1,29 @@
+package com.appspot.mathuzzles.risingnumbers.tools;
+
+/**
+ * Source of the balls a simulated client sends to its opponent.
+ */
+public interface ShotSource {
+
+	/**
+	 * Start a new game.
+	 */
+	void reset();
+
+	/**
+	 * Called once per request cycle.
+	 *
+	 * @return the ball to send to the opponent or MultiPlayProtocol.NO_NUMBER
+	 */
+	int nextShot();
+
+	/**
+	 * Ball received from the opponent.
+	 */
+	void ballReceived(int number);
+
+	/**
+	 * @return true when this player's game is over
+	 */
+	boolean isGameOver();
+}
@@ -0,0 +1,160 @@
+package com.appspot.mathuzzles.risingnumbers.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Random;
+
+import com.appspot.mathuzzles.risingnumbers.multiplay.MultiPlayProtocol;
+
+/**
+ * Simulated multi play client.
+ *
+ * Each run is one request/response cycle, the same as
+ * MultiPlayConnectionThread.sendRequest/handleRequest. When a game ends, the
+ * client starts a new one with a new user Id.
+ */
+public class SimulatedClient implements Runnable {
+
+	private final String connectionUrl;
+	private final ShotSource shotSource;
+	private final LoadStats stats;
+	private final Random random;
+	private final MultiPlayProtocol.Response parsedResponse = new MultiPlayProtocol.Response();
+
+	private String multiPlayUserId;
+	private int multiPlayGameStatus;
+	private boolean multiPlayGameStarted;
+	private boolean gameOverSent;
+	private long matchRequestedMillis;
+
+	public SimulatedClient(String connectionUrl, ShotSource shotSource,
+			LoadStats stats, long seed) {
+		this.connectionUrl = connectionUrl;
+		this.shotSource = shotSource;
+		this.stats = stats;
+		this.random = new Random(seed);
+		newGame();
+	}
+
+	/**
+	 * Start a new game.
+	 */
+	private void newGame() {
+		multiPlayUserId = Long.toString(random.nextLong());
+		multiPlayGameStatus = MultiPlayProtocol.PENDING;
+		multiPlayGameStarted = false;
+		gameOverSent = false;
+		matchRequestedMillis = 0;
+		shotSource.reset();
+	}
+
+	public void run() {
+		long now = System.currentTimeMillis();
+		if (matchRequestedMillis == 0) {
+			matchRequestedMillis = now;
+		}
+
+		// Only shoot once the game has started.
+		boolean gameOver = false;
+		int number = MultiPlayProtocol.NO_NUMBER;
+		if (multiPlayGameStarted) {
+			gameOver = shotSource.isGameOver();
+			if (!gameOver) {
+				number = shotSource.nextShot();
+			}
+		}
+
+		String response;
+		long startNanos = System.nanoTime();
+		try {
+			response = get(connectionUrl
+					+ MultiPlayProtocol.buildQuery(multiPlayUserId, gameOver,
+							number, MultiPlayProtocol.NO_TIME));
+		} catch (IOException e) {
+			stats.errors.incrementAndGet();
+			return;
+		} finally {
+			stats.requests.incrementAndGet();
+			stats.requestMicros.record((System.nanoTime() - startNanos) / 1000);
+		}
+
+		now = System.currentTimeMillis();
+		if (number != MultiPlayProtocol.NO_NUMBER) {
+			stats.ballSent(number, now);
+		}
+		if (gameOver) {
+			gameOverSent = true;
+		}
+
+		try {
+			handleResponse(response, now);
+		} catch (NumberFormatException e) {
+			stats.errors.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Handle the response, as in MultiPlayConnectionThread.handleRequest.
+	 */
+	private void handleResponse(String response, long now) {
+		if (MultiPlayProtocol.parseResponse(response, parsedResponse)) {
+			multiPlayGameStatus = parsedResponse.status;
+		}
+
+		if (parsedResponse.number != MultiPlayProtocol.NO_NUMBER) {
+			stats.ballReceived(parsedResponse.number, now);
+			shotSource.ballReceived(parsedResponse.number);
+		}
+
+		if (!multiPlayGameStarted) {
+			if (multiPlayGameStatus == MultiPlayProtocol.IN_PLAY) {
+				multiPlayGameStarted = true;
+				stats.matchesStarted.incrementAndGet();
+				stats.matchmakingMillis.record(now - matchRequestedMillis);
+			}
+		} else if (multiPlayGameStatus == MultiPlayProtocol.OPPONENT_LOST_CONNECTION
+				|| multiPlayGameStatus == MultiPlayProtocol.USER_WON
+				|| multiPlayGameStatus == MultiPlayProtocol.USER_LOST
+				|| gameOverSent) {
+			if (multiPlayGameStatus == MultiPlayProtocol.OPPONENT_LOST_CONNECTION) {
+				stats.lostConnections.incrementAndGet();
+			}
+			stats.gamesFinished.incrementAndGet();
+			newGame();
+		}
+	}
+
+	/**
+	 * Get the body of the URL.
+	 */
+	private static String get(String url) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url)
+				.openConnection();
+		connection.setConnectTimeout(10000);
+		connection.setReadTimeout(10000);
+		int code = connection.getResponseCode();
+		InputStream in = code < 400 ? connection.getInputStream() : connection
+				.getErrorStream();
+		ByteArrayOutputStream out = new ByteArrayOutputStream(32);
+		try {
+			if (in != null) {
+				byte[] buffer = new byte[256];
+				int read;
+				while ((read = in.read(buffer)) != -1) {
+					out.write(buffer, 0, read);
+				}
+			}
+		} finally {
+			if (in != null) {
+				in.close();
+			}
+		}
+		if (code >= 400) {
+			throw new IOException("HTTP " + code + " from " + url);
+		}
+		return out.toString("UTF-8");
+	}
+}
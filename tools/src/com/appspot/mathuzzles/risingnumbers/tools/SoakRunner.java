@@ -0,0 +1,476 @@
+package com.appspot.mathuzzles.risingnumbers.tools;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import com.appspot.mathuzzles.risingnumbers.bot.ShotSearch;
+import com.appspot.mathuzzles.risingnumbers.metrics.Histogram;
+import com.appspot.mathuzzles.risingnumbers.model.Ball;
+import com.appspot.mathuzzles.risingnumbers.model.Game;
+import com.appspot.mathuzzles.risingnumbers.model.Hints;
+import com.appspot.mathuzzles.risingnumbers.model.Replay;
+
+/**
+ * Plays the game headlessly for a long time and fails if the heap, the tick
+ * time or the balls waiting for the network trend upwards.
+ *
+ * One game is kept for the whole run, as GameHolder keeps it for the process,
+ * with a replay and undo. The bot picks the shots. Phases switch between solo
+ * and online games, starting a new game each time. Online, the opponent sends
+ * balls and a slow connection takes the balls to send only now and then.
+ * Every so often the game is paused and resumed: saved to bytes and read back
+ * into the same game the way GameView does. Solo games are rewound now and
+ * then, and each finished solo game is played again from its replay, which
+ * must end with the same points.
+ *
+ * Every sample period the collectors' counts and times are read, then the
+ * heap left after a full collection, so the samples show what is live rather
+ * than what is waiting to be collected. The trend of each is a least squares
+ * line through the samples after the warm up ones.
+ *
+ * Usage: SoakRunner [--minutes n] [--sample-seconds n] [--seed n]
+ * [--bot-millis n] [--network-ticks n] [--phase-ticks n] [--warmup-samples n]
+ * [--max-heap-growth KB] [--max-latency-growth percent]
+ * [--max-backlog-growth balls]
+ *
+ * Exits 1 if a trend is over its limit or a replay doesn't match.
+ */
+public class SoakRunner {
+
+	// Scripted input between bot shots
+	private static final int DRAG_TICKS = 7;
+	private static final int SHOT_TICKS = 50;
+
+	// Online events
+	private static final int OPPONENT_BALL_TICKS = 60;
+
+	// Transitions
+	private static final int PAUSE_TICKS = 1500;
+	private static final int REWIND_TICKS = 2500;
+	private static final int REWIND_SHOTS = 10;
+
+	/** Ignore latency growth below this, it's timer noise */
+	private static final long MIN_LATENCY_GROWTH_MICROS = 20;
+
+	private int minutes = 60;
+	private int sampleSeconds = 30;
+	private long seed = 1;
+	private long botMillis = 1;
+	private int networkTicks = 100;
+	private int phaseTicks = 30000;
+	private int warmupSamples = 3;
+	private long maxHeapGrowthKb = 512;
+	private int maxLatencyGrowth = 50;
+	private int maxBacklogGrowth = 20;
+
+	private final MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+	private final List<GarbageCollectorMXBean> gcBeans = ManagementFactory
+			.getGarbageCollectorMXBeans();
+
+	private Random random;
+	private Game game;
+	private ShotSearch shotSearch;
+	private final Hints hints = new Hints();
+	private final Histogram tickMicros = new Histogram();
+
+	// Forced collections so far, taken off the collectors' totals
+	private long forcedGcCount = 0;
+	private long forcedGcMillis = 0;
+
+	// Counts since the start
+	private long ticks = 0;
+	private int games = 0;
+	private int pauses = 0;
+	private int rewinds = 0;
+	private int replays = 0;
+	private int replayMismatches = 0;
+
+	/** Keeps results live so the JIT can't drop the work */
+	private long sink = 0;
+
+	/**
+	 * What's measured every sample period.
+	 */
+	private static class Sample {
+		double minutes;
+		long heapBytes;
+		long gcCount;
+		long gcMillis;
+		long tickP50;
+		long tickP99;
+		long tickMax;
+		int backlog;
+	}
+
+	public static void main(String[] args) {
+		SoakRunner runner = new SoakRunner();
+		runner.parseArgs(args);
+		System.exit(runner.run());
+	}
+
+	private void parseArgs(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if ("--minutes".equals(arg)) {
+				minutes = Integer.parseInt(args[++i]);
+			} else if ("--sample-seconds".equals(arg)) {
+				sampleSeconds = Integer.parseInt(args[++i]);
+			} else if ("--seed".equals(arg)) {
+				seed = Long.parseLong(args[++i]);
+			} else if ("--bot-millis".equals(arg)) {
+				botMillis = Long.parseLong(args[++i]);
+			} else if ("--network-ticks".equals(arg)) {
+				networkTicks = Integer.parseInt(args[++i]);
+			} else if ("--phase-ticks".equals(arg)) {
+				phaseTicks = Integer.parseInt(args[++i]);
+			} else if ("--warmup-samples".equals(arg)) {
+				warmupSamples = Integer.parseInt(args[++i]);
+			} else if ("--max-heap-growth".equals(arg)) {
+				maxHeapGrowthKb = Long.parseLong(args[++i]);
+			} else if ("--max-latency-growth".equals(arg)) {
+				maxLatencyGrowth = Integer.parseInt(args[++i]);
+			} else if ("--max-backlog-growth".equals(arg)) {
+				maxBacklogGrowth = Integer.parseInt(args[++i]);
+			} else {
+				throw new IllegalArgumentException("Unknown argument: " + arg);
+			}
+		}
+	}
+
+	/**
+	 * @return the exit code
+	 */
+	public int run() {
+		random = new Random(seed);
+		game = new Game(new Random(seed));
+		game.setReplay(new Replay());
+		game.setUndoable(true);
+		game.start();
+		shotSearch = new ShotSearch(1, ShotSearch.MAX_DEPTH);
+
+		System.out.println(String.format(
+				"%7s %10s %6s %9s %6s %7s %7s %7s %7s %7s %7s", "min",
+				"ticks", "games", "heap KB", "gcs", "gc ms", "pause", "p50 us",
+				"p99 us", "max us", "backlog"));
+		List<Sample> samples = new ArrayList<Sample>();
+		long start = System.nanoTime();
+		long end = start + minutes * 60000000000L;
+		long sampleNanos = sampleSeconds * 1000000000L;
+		Sample last = sample(0);
+		try {
+			while (System.nanoTime() < end) {
+				long sampleEnd = Math.min(end, System.nanoTime() + sampleNanos);
+				tickMicros.reset();
+				while (System.nanoTime() < sampleEnd) {
+					tick();
+				}
+				Sample sample = sample((System.nanoTime() - start) / 60e9);
+				print(sample, last);
+				samples.add(sample);
+				last = sample;
+			}
+		} finally {
+			shotSearch.shutdown();
+		}
+
+		System.out.println(String.format(
+				"%d ticks, %d games, %d pauses, %d rewinds, %d replays,"
+						+ " %d replay mismatches, sink %d", ticks, games,
+				pauses, rewinds, replays, replayMismatches, sink));
+		boolean ok = checkTrends(samples);
+		if (replayMismatches > 0) {
+			System.out.println("FAIL replays didn't match their games");
+			ok = false;
+		}
+		return ok ? 0 : 1;
+	}
+
+	/**
+	 * One tick of GameThread, with what the other threads and the activity
+	 * would do at that point.
+	 */
+	private void tick() {
+		long phase = ticks / phaseTicks;
+		boolean online = phase % 2 == 1;
+		if (ticks % phaseTicks == 0 && ticks > 0) {
+			// New game from the menu
+			checkReplay();
+			game.isPlayOnline = online;
+			game.start();
+			games++;
+		}
+		if (game.isGameOver) {
+			checkReplay();
+			game.start();
+			games++;
+		}
+
+		// Activity pausing and resuming
+		if (ticks % PAUSE_TICKS == PAUSE_TICKS - 1) {
+			pauseAndResume();
+		}
+		if (!online && ticks % REWIND_TICKS == REWIND_TICKS - 1) {
+			for (int i = 0; i < REWIND_SHOTS && game.undo(); i++) {
+			}
+			rewinds++;
+		}
+
+		// Auto play thread, untimed as it runs on its own thread in the game
+		float moveX = 0;
+		boolean shooting = ticks % SHOT_TICKS == 0;
+		if (shooting) {
+			ShotSearch.Shot shot = shotSearch.findShot(game, botMillis);
+			if (shot != null) {
+				moveX = game.currBall.x - shot.x;
+			}
+		} else if (ticks % DRAG_TICKS == 0) {
+			moveX = random.nextInt(41) - 20;
+		}
+
+		long start = System.nanoTime();
+
+		// Connection threads
+		if (online) {
+			if (ticks % OPPONENT_BALL_TICKS == 0) {
+				Ball ball = game.obtainBall();
+				ball.number = random.nextInt(Game.NEW_BALL_MAX) + 2;
+				game.ballsFromOpponent.add(ball);
+			}
+			if (ticks % networkTicks == 0) {
+				int size = game.ballsToOpponent.size();
+				for (int i = 0; i < size; i++) {
+					Ball ball = game.ballsToOpponent.get(i);
+					sink += ball.number;
+					game.releaseBall(ball);
+				}
+				game.ballsToOpponent.clear();
+			}
+		}
+
+		// incrementBoard, then the work of drawing besides the canvas
+		game.step(moveX, 0, false);
+		if (shooting) {
+			game.step(0, 0, true);
+		}
+		hints.update(game);
+		sink += hints.count + game.points;
+
+		tickMicros.record((System.nanoTime() - start) / 1000);
+		ticks++;
+	}
+
+	/**
+	 * Play a solo game again from its replay, when it's over or left for a
+	 * new one.
+	 */
+	private void checkReplay() {
+		if (game.isPlayOnline) {
+			// Opponent balls aren't in the replay
+			return;
+		}
+		Replay replay = game.getReplay();
+		Game replayed = replay.play(replay.getSteps());
+		replays++;
+		if (replayed.points != game.points) {
+			replayMismatches++;
+			System.out.println("Replay of seed " + replay.getSeed() + " got "
+					+ replayed.points + " points, the game " + game.points);
+		}
+	}
+
+	/**
+	 * Save the game to bytes and read it back into the same game, as the
+	 * activity does when paused and resumed.
+	 */
+	@SuppressWarnings("unchecked")
+	private void pauseAndResume() {
+		HashMap<String, Object> state = new HashMap<String, Object>();
+		state.put("currBall", game.currBall.copy());
+		state.put("balls", Game.copyBalls(game.balls));
+		state.put("ballsInQueue", Game.copyBalls(game.ballsInQueue));
+		state.put("points", game.points);
+		state.put("lastX", game.lastX);
+		state.put("level", game.level);
+		state.put("ballsToOpponent", Game.copyBalls(game.ballsToOpponent));
+		state.put("ballsFromOpponent", Game.copyBalls(game.ballsFromOpponent));
+		state.put("replay", game.getReplay().copy());
+		state.put("ballIndex", game.getBallIndex());
+		state.put("boardIndex", game.getBoardIndex());
+
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream out = new ObjectOutputStream(bytes);
+			out.writeObject(state);
+			out.close();
+			ObjectInputStream in = new ObjectInputStream(
+					new ByteArrayInputStream(bytes.toByteArray()));
+			state = (HashMap<String, Object>) in.readObject();
+			in.close();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		} catch (ClassNotFoundException e) {
+			throw new IllegalStateException(e);
+		}
+
+		game.currBall = (Ball) state.get("currBall");
+		game.balls = (ArrayList<Ball>) state.get("balls");
+		game.ballsInQueue = (ArrayList<Ball>) state.get("ballsInQueue");
+		game.rehash();
+		game.points = (Integer) state.get("points");
+		game.lastX = (Integer) state.get("lastX");
+		game.level = (Integer) state.get("level");
+		game.ballsToOpponent = (ArrayList<Ball>) state.get("ballsToOpponent");
+		game.ballsFromOpponent = (ArrayList<Ball>) state
+				.get("ballsFromOpponent");
+		Replay replay = (Replay) state.get("replay");
+		game.setReplay(replay);
+		game.restoreStreams(replay.getSeed(), (Integer) state.get("ballIndex"),
+				(Integer) state.get("boardIndex"));
+		pauses++;
+	}
+
+	/**
+	 * Read the collectors, then the heap live after a full collection.
+	 */
+	private Sample sample(double minutes) {
+		Sample sample = new Sample();
+		sample.minutes = minutes;
+		long gcCount = getGcCount();
+		long gcMillis = getGcMillis();
+		sample.gcCount = gcCount - forcedGcCount;
+		sample.gcMillis = gcMillis - forcedGcMillis;
+		sample.tickP50 = tickMicros.getPercentile(50);
+		sample.tickP99 = tickMicros.getPercentile(99);
+		sample.tickMax = tickMicros.getMax();
+		sample.backlog = game.ballsToOpponent.size()
+				+ game.ballsFromOpponent.size();
+
+		System.gc();
+		sample.heapBytes = memoryBean.getHeapMemoryUsage().getUsed();
+
+		// The forced collection isn't the game's
+		forcedGcCount += getGcCount() - gcCount;
+		forcedGcMillis += getGcMillis() - gcMillis;
+		return sample;
+	}
+
+	private long getGcCount() {
+		long count = 0;
+		for (int i = 0; i < gcBeans.size(); i++) {
+			count += Math.max(0, gcBeans.get(i).getCollectionCount());
+		}
+		return count;
+	}
+
+	private long getGcMillis() {
+		long millis = 0;
+		for (int i = 0; i < gcBeans.size(); i++) {
+			millis += Math.max(0, gcBeans.get(i).getCollectionTime());
+		}
+		return millis;
+	}
+
+	private void print(Sample sample, Sample last) {
+		long gcs = sample.gcCount - last.gcCount;
+		long gcMillis = sample.gcMillis - last.gcMillis;
+		System.out.println(String.format(
+				"%7.1f %10d %6d %9d %6d %7d %7.2f %7d %7d %7d %7d",
+				sample.minutes, ticks, games, sample.heapBytes / 1024, gcs,
+				gcMillis, gcs > 0 ? (double) gcMillis / gcs : 0.0,
+				sample.tickP50, sample.tickP99, sample.tickMax,
+				sample.backlog));
+	}
+
+	/**
+	 * Fit a line through the samples after the warm up ones and check how
+	 * much each grows along it.
+	 *
+	 * @return true if all within their limits
+	 */
+	private boolean checkTrends(List<Sample> samples) {
+		int n = samples.size() - warmupSamples;
+		if (n < 4) {
+			System.out.println("Too few samples for trends, run longer");
+			return true;
+		}
+		double[] minutes = new double[n];
+		double[] heap = new double[n];
+		double[] latency = new double[n];
+		double[] backlog = new double[n];
+		for (int i = 0; i < n; i++) {
+			Sample sample = samples.get(warmupSamples + i);
+			minutes[i] = sample.minutes;
+			heap[i] = sample.heapBytes / 1024.0;
+			latency[i] = sample.tickP99;
+			backlog[i] = sample.backlog;
+		}
+
+		boolean ok = true;
+		double heapGrowth = growth(minutes, heap);
+		ok &= report("heap", heapGrowth, "KB", heapGrowth <= maxHeapGrowthKb);
+
+		double latencyStart = start(minutes, latency);
+		double latencyGrowth = growth(minutes, latency);
+		ok &= report("tick p99", latencyGrowth, "us",
+				latencyGrowth <= MIN_LATENCY_GROWTH_MICROS
+						|| latencyGrowth <= latencyStart * maxLatencyGrowth
+								/ 100);
+
+		double backlogGrowth = growth(minutes, backlog);
+		ok &= report("backlog", backlogGrowth, "balls",
+				backlogGrowth <= maxBacklogGrowth);
+		return ok;
+	}
+
+	private boolean report(String name, double growth, String unit, boolean ok) {
+		System.out.println(String.format("%-8s grew %.1f %s over the run %s",
+				name, growth, unit, ok ? "OK" : "FAIL"));
+		return ok;
+	}
+
+	/**
+	 * @return growth from the first to the last x along the least squares
+	 *         line
+	 */
+	private static double growth(double[] x, double[] y) {
+		return slope(x, y) * (x[x.length - 1] - x[0]);
+	}
+
+	/**
+	 * @return the least squares line at the first x
+	 */
+	private static double start(double[] x, double[] y) {
+		double meanX = mean(x);
+		return mean(y) - slope(x, y) * (meanX - x[0]);
+	}
+
+	private static double slope(double[] x, double[] y) {
+		double meanX = mean(x);
+		double meanY = mean(y);
+		double covariance = 0;
+		double variance = 0;
+		for (int i = 0; i < x.length; i++) {
+			covariance += (x[i] - meanX) * (y[i] - meanY);
+			variance += (x[i] - meanX) * (x[i] - meanX);
+		}
+		return variance == 0 ? 0 : covariance / variance;
+	}
+
+	private static double mean(double[] values) {
+		double sum = 0;
+		for (int i = 0; i < values.length; i++) {
+			sum += values[i];
+		}
+		return sum / values.length;
+	}
+}